@@ -3,9 +3,29 @@ package se.kth.dd2480.group15;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import se.kth.dd2480.group15.infrastructure.config.GitProperties;
+import se.kth.dd2480.group15.infrastructure.config.MavenProperties;
+import se.kth.dd2480.group15.infrastructure.config.NotifierProperties;
+import se.kth.dd2480.group15.infrastructure.config.QueueProperties;
+import se.kth.dd2480.group15.infrastructure.config.RetentionProperties;
+import se.kth.dd2480.group15.infrastructure.config.StageProperties;
 import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
+import se.kth.dd2480.group15.infrastructure.config.WebhookProperties;
+import se.kth.dd2480.group15.infrastructure.config.WorkerProperties;
+import se.kth.dd2480.group15.infrastructure.config.WorkspaceProperties;
 
-@EnableConfigurationProperties(StorageProperties.class)
+@EnableConfigurationProperties({
+        StorageProperties.class,
+        WorkerProperties.class,
+        QueueProperties.class,
+        GitProperties.class,
+        MavenProperties.class,
+        NotifierProperties.class,
+        WebhookProperties.class,
+        StageProperties.class,
+        WorkspaceProperties.class,
+        RetentionProperties.class
+})
 @SpringBootApplication
 public class CIServerApplication {
     public static void main(String[] args) {
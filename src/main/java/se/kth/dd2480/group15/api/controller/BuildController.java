@@ -1,43 +1,79 @@
 package se.kth.dd2480.group15.api.controller;
 
+import java.time.Instant;
 import java.util.UUID;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import se.kth.dd2480.group15.api.dto.response.BuildListResponse;
 import se.kth.dd2480.group15.api.dto.response.BuildLogResponse;
 import se.kth.dd2480.group15.api.dto.response.BuildMetaResponse;
+import se.kth.dd2480.group15.domain.BuildNotFoundException;
 import se.kth.dd2480.group15.services.BuildService;
+import se.kth.dd2480.group15.services.CIService;
 
 /**
- * REST controller providing API endpoints for build history, metadata and logs.
+ * REST controller providing API endpoints for build history, metadata and logs,
+ * and for cancelling builds.
  */
 @RestController
 @RequestMapping("/api/v1/builds")
 public class BuildController {
 
     private final BuildService service;
+    private final CIService ciService;
 
     /**
-     * Constructs a new BuildController instance with the specified build service.
+     * Constructs a new BuildController instance with the specified build services.
      *
      * @param service the BuildService instance used to handle business logic related to builds
+     * @param ciService the CIService instance running the builds, used to cancel them
      */
-    public BuildController(BuildService service) {
+    public BuildController(BuildService service, CIService ciService) {
         this.service = service;
+        this.ciService = ciService;
     }
 
+    /** The number of builds on a page when no limit is requested. */
+    private static final int DEFAULT_BUILD_PAGE_SIZE = 50;
+
     /**
-     * Retrieves a list of all build attempts recorded by the CI system.
+     * Retrieves a page of the build attempts recorded by the CI system.
      * 
-     * @return  a {@link BuildListResponse} containing a list of build metadata
+     * @param limit         the maximum number of builds on the page, at most {@link BuildService#MAX_BUILD_PAGE_SIZE}
+     * @param cursor        the {@code nextCursor} of the previous page, omitted for the first page
+     * @param newestFirst   whether the builds are ordered newest first instead of oldest first
+     * @param createdFrom   only builds created at or after this ISO-8601 instant, if given
+     * @param createdTo     only builds created before this ISO-8601 instant, if given
+     * @return  a {@link BuildListResponse} containing a page of build metadata
      */
     @GetMapping
-    public BuildListResponse getBuildHistory() {
-        return service.getAllBuilds();
+    public BuildListResponse getBuildHistory(
+            @RequestParam(defaultValue = "" + DEFAULT_BUILD_PAGE_SIZE) int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean newestFirst,
+            @RequestParam(required = false) Instant createdFrom,
+            @RequestParam(required = false) Instant createdTo) {
+        if (limit <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be positive");
+        }
+
+        try {
+            return service.getBuilds(cursor, limit, newestFirst, createdFrom, createdTo);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
     }
 
     /**
@@ -52,13 +88,89 @@ public class BuildController {
     }
 
     /**
-     * Retrieves the console output (logs) for a specific build.
+     * Cancels a queued or running build.
+     * 
+     * A queued build is cancelled right away. A running build has its processes killed,
+     * and is saved as {@code CANCELLED} by its worker shortly after.
      * 
      * @param buildId   the unique identifier for the build
-     * @return          a {@link BuildLogResponse} containing the raw log.
+     * @return          200 OK with the metadata of the cancelled build if it was queued,
+     *                  202 Accepted with the metadata of the build if it is running.
+     *                  404 Not Found if there is no such build,
+     *                  409 Conflict if the build already finished.
+     */
+    @DeleteMapping("/{buildId}")
+    public ResponseEntity<BuildMetaResponse> cancelBuild(@PathVariable UUID buildId) {
+        CIService.Cancellation cancellation;
+        try {
+            cancellation = ciService.cancel(buildId);
+        } catch (BuildNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+
+        return switch (cancellation) {
+            case CANCELLED -> ResponseEntity.ok(service.getBuild(buildId));
+            case CANCELLING -> ResponseEntity.accepted().body(service.getBuild(buildId));
+            case NOT_CANCELLABLE -> throw new ResponseStatusException(HttpStatus.CONFLICT, "Build is not queued or running");
+        };
+    }
+
+    /**
+     * Retrieves a page of the console output (logs) for a specific build.
+     * 
+     * Pages are byte ranges of the log: the response holds the offset to request the
+     * next page from. With {@code tail}, the last lines of the log are returned instead.
+     * 
+     * @param buildId   the unique identifier for the build
+     * @param offset    the byte offset to start the page at
+     * @param limit     the maximum size of the page in bytes, at least {@link BuildService#MIN_LOG_PAGE_BYTES}
+     *                  and at most {@link BuildService#MAX_LOG_PAGE_BYTES}
+     * @param tail      the number of lines to return from the end of the log, if set
+     * @return          a {@link BuildLogResponse} containing the raw log page.
      */
     @GetMapping("/{buildId}/log")
-    public BuildLogResponse getBuildLog(@PathVariable UUID buildId) {
-        return service.getBuildLog(buildId);
+    public BuildLogResponse getBuildLog(
+            @PathVariable UUID buildId,
+            @RequestParam(defaultValue = "0") long offset,
+            @RequestParam(defaultValue = "" + BuildService.MAX_LOG_PAGE_BYTES) int limit,
+            @RequestParam(required = false) Integer tail) {
+        if (offset < 0 || limit < 0 || (tail != null && tail < 0)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "offset, limit and tail must not be negative");
+        }
+        if (tail == null && limit < BuildService.MIN_LOG_PAGE_BYTES) {
+            // A smaller page may not fit a whole character, and would never move forward
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be at least " + BuildService.MIN_LOG_PAGE_BYTES + " bytes");
+        }
+
+        if (tail != null) {
+            return service.getBuildLogTail(buildId, tail);
+        }
+        return service.getBuildLog(buildId, offset, limit);
+    }
+
+    /**
+     * Streams the console output (logs) for a specific build as Server-Sent Events.
+     * 
+     * Every {@code log} event holds a {@link BuildLogResponse} with the next part of the
+     * log, and has the offset after it as its id. Once the build is done, an {@code end}
+     * event is sent and the stream is closed.
+     * 
+     * @param buildId       the unique identifier for the build
+     * @param offset        the byte offset to start streaming at
+     * @param lastEventId   the id of the last event received, set by a reconnecting {@code EventSource}
+     * @return              the emitter of the event stream
+     */
+    @GetMapping(value = "/{buildId}/log/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamBuildLog(
+            @PathVariable UUID buildId,
+            @RequestParam(defaultValue = "0") long offset,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        long from = lastEventId != null ? lastEventId : offset;
+        if (from < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "offset must not be negative");
+        }
+
+        return service.streamBuildLog(buildId, from);
     }
-}
\ No newline at end of file
+}
@@ -1,47 +1,80 @@
 package se.kth.dd2480.group15.api.controller;
 
+import java.net.URI;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.server.ResponseStatusException;
 import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
+import se.kth.dd2480.group15.api.dto.response.WebhookResponse;
+import se.kth.dd2480.group15.domain.Build;
 import se.kth.dd2480.group15.services.CIService;
+import se.kth.dd2480.group15.services.WebhookDeduplicator;
+import se.kth.dd2480.group15.services.WebhookIngest;
 
 @RestController
 public class WebhookController {
 
-    private final CIService ciService;
+    private final WebhookIngest webhookIngest;
+    private final WebhookDeduplicator deduplicator;
 
-    public WebhookController(CIService ciService) {
-        this.ciService = ciService;
+    public WebhookController(WebhookIngest webhookIngest, WebhookDeduplicator deduplicator) {
+        this.webhookIngest = webhookIngest;
+        this.deduplicator = deduplicator;
     }
 
     /**
      * Handle the webhook POST response from GitHub when push event is triggered 
      * and fetch the payload content as JSON to extract the relevant information for the CI job.
      * <p>
+     * The build is only handed to the {@link WebhookIngest} here; it is saved and queued in
+     * the background, so the webhook is answered without waiting for any disk I/O.
+     * A delivery GitHub already delivered before, see {@link WebhookDeduplicator}, does not
+     * start another build. The delivery is forgotten again if its build cannot be buffered
+     * or saved, so a redelivery can start it.
      * 
      * @param payload       the JSON payload which is configured as PushRequestDTO sent by GitHub containing information about the event.
-     * @return 200 OK with a message if the payload is processed successfully, otherwise returns an error message.
+     * @param deliveryId    the unique id GitHub gives the delivery, kept when it is redelivered
+     * @return 202 Accepted with the id of the build, located at {@code /api/v1/builds/{buildId}} once it is saved.
+     *         200 OK with the id of the build started earlier if the delivery is a duplicate.
+     *         400 Bad Request if the payload is missing the commit or repository,
+     *         503 Service Unavailable if too many webhooks are waiting to be queued.
      */
     @PostMapping("/webhook")
-    public String handleWebhook(@RequestBody PushRequestDTO payload) {
-        try {
-            String repo = payload.getRepository().getName();
-            String branch = payload.getRef();
-            String commit = payload.getAfter();
-            String owner_name = payload.getRepository().getOwner().getName();
-
-            System.out.println("Received build request for:");
-            System.out.println("Repo: " + repo + " | Branch: " + branch + " | Commit: " + commit + " | Owner's name: " + owner_name);
-
-            //queue job
-            ciService.queueJob(payload);
-
-            return "CI job started for " + commit; // return 200 OK with message
-        } catch (Exception e) {
-            return "Error processing webhook: " + e.getMessage();
+    public ResponseEntity<WebhookResponse> handleWebhook(
+            @RequestBody PushRequestDTO payload,
+            @RequestHeader(name = "X-GitHub-Delivery", required = false) String deliveryId) {
+        PushRequestDTO.Repository repository = payload.getRepository();
+        if (payload.getAfter() == null || repository == null || repository.getName() == null
+                || repository.getOwner() == null || repository.getOwner().getName() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Payload is missing the commit or repository");
+        }
+
+        Build build = CIService.newBuild(payload);
+        String key = WebhookDeduplicator.key(deliveryId, payload);
+        Optional<UUID> original = deduplicator.claim(key, build.getBuildId());
+        if (original.isPresent()) {
+            return ResponseEntity
+                    .ok()
+                    .location(URI.create("/api/v1/builds/" + original.get()))
+                    .body(new WebhookResponse(original.get(), "CI job already started for " + build.getCommitSha()));
         }
+
+        if (!webhookIngest.submit(build, () -> deduplicator.release(key, build.getBuildId()))) {
+            deduplicator.release(key, build.getBuildId());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many builds waiting to be queued");
+        }
+
+        return ResponseEntity
+                .accepted()
+                .location(URI.create("/api/v1/builds/" + build.getBuildId()))
+                .body(new WebhookResponse(build.getBuildId(), "CI job started for " + build.getCommitSha()));
     }
         
 }
-
@@ -0,0 +1,51 @@
+package se.kth.dd2480.group15.api.converter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
+
+import java.io.IOException;
+
+/**
+ * Reads {@link PushRequestDTO} request bodies with the {@link PushEventParser} instead of
+ * binding the whole payload. Registered ahead of the default JSON converter, and only used
+ * for reading push events.
+ */
+@Component
+public class PushEventMessageConverter extends AbstractHttpMessageConverter<PushRequestDTO> {
+
+    public PushEventMessageConverter() {
+        super(MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return PushRequestDTO.class == clazz;
+    }
+
+    @Override
+    protected boolean canWrite(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected PushRequestDTO readInternal(Class<? extends PushRequestDTO> clazz, HttpInputMessage inputMessage)
+            throws IOException {
+        try {
+            return PushEventParser.parse(inputMessage.getBody());
+        } catch (JsonProcessingException e) {
+            throw new HttpMessageNotReadableException("Invalid push event payload: " + e.getOriginalMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    protected void writeInternal(PushRequestDTO pushRequest, HttpOutputMessage outputMessage) {
+        throw new HttpMessageNotWritableException("Push events are only read");
+    }
+}
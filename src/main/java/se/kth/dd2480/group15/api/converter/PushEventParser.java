@@ -0,0 +1,108 @@
+package se.kth.dd2480.group15.api.converter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the fields of a GitHub push event payload that the CI server uses into a
+ * {@link PushRequestDTO}, token by token.
+ * <p>
+ * Push payloads are mostly made up of the {@code commits}, {@code head_commit},
+ * {@code sender} and {@code pusher} sections, and of repository fields the CI server
+ * does not use. Those are skipped over without being decoded into strings or objects,
+ * so parsing a payload allocates little more than the fields that are kept.
+ * <p>
+ * Like binding the payload with Jackson databind, unknown fields are ignored and
+ * missing fields are {@code null}, while malformed JSON and objects where a string
+ * is expected are errors.
+ */
+public final class PushEventParser {
+
+    /** Leaves closing the payload stream to whoever opened it. */
+    private static final JsonFactory FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private PushEventParser() { }
+
+    /**
+     * Parses a push event payload.
+     *
+     * @param in the payload, which is not closed
+     * @return the fields of the payload used by the CI server
+     * @throws IOException if the payload cannot be read or is not a valid push event
+     */
+    public static PushRequestDTO parse(InputStream in) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(in)) {
+            expectObject(parser, parser.nextToken());
+
+            String after = null;
+            String ref = null;
+            PushRequestDTO.Repository repository = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "after" -> after = text(parser, value);
+                    case "ref" -> ref = text(parser, value);
+                    case "repository" -> repository = value == JsonToken.VALUE_NULL ? null : repository(parser, value);
+                    default -> parser.skipChildren();
+                }
+            }
+            return new PushRequestDTO(after, ref, repository);
+        }
+    }
+
+    private static PushRequestDTO.Repository repository(JsonParser parser, JsonToken token) throws IOException {
+        expectObject(parser, token);
+
+        String name = null;
+        String cloneUrl = null;
+        PushRequestDTO.Owner owner = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "name" -> name = text(parser, value);
+                case "clone_url" -> cloneUrl = text(parser, value);
+                case "owner" -> owner = value == JsonToken.VALUE_NULL ? null : owner(parser, value);
+                default -> parser.skipChildren();
+            }
+        }
+        return new PushRequestDTO.Repository(name, cloneUrl, owner);
+    }
+
+    private static PushRequestDTO.Owner owner(JsonParser parser, JsonToken token) throws IOException {
+        expectObject(parser, token);
+
+        String name = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("name")) name = text(parser, value);
+            else parser.skipChildren();
+        }
+        return new PushRequestDTO.Owner(name);
+    }
+
+    private static void expectObject(JsonParser parser, JsonToken token) throws JsonParseException {
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a JSON object but found " + token);
+        }
+    }
+
+    /**
+     * @return the value of a string field, with numbers and booleans as their text, as databind does
+     */
+    private static String text(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) return null;
+        if (!token.isScalarValue()) {
+            throw new JsonParseException(parser, "Expected a string for '" + parser.currentName() + "' but found " + token);
+        }
+        return parser.getText();
+    }
+}
@@ -5,8 +5,19 @@ import se.kth.dd2480.group15.domain.BuildSummary;
 import java.util.List;
 
 /**
- * DTO providing a list of build objects {"builds": [...]}
+ * DTO providing a list of build objects {"builds": [...], "nextCursor": "..."}
  * 
- * @param builds    the list of build metadata objects
+ * @param builds        the list of build metadata objects
+ * @param nextCursor    the cursor to request the next page with, or null if there are no more builds
  */
-public record BuildListResponse(List<BuildSummary> builds) { }
+public record BuildListResponse(List<BuildSummary> builds, String nextCursor) {
+
+    /**
+     * Creates a response holding a complete list of builds.
+     *
+     * @param builds the list of build metadata objects
+     */
+    public BuildListResponse(List<BuildSummary> builds) {
+        this(builds, null);
+    }
+}
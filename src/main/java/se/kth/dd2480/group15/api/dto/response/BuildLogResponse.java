@@ -1,8 +1,27 @@
 package se.kth.dd2480.group15.api.dto.response;
 
+import java.nio.charset.StandardCharsets;
+
 /**
- * DTO representing the raw log output of a build.
+ * DTO representing (a page of) the raw log output of a build.
  *
  * @param logContent  the text content from the standard build output
+ * @param offset      the byte offset in the log the content starts at
+ * @param nextOffset  the byte offset to request the next page from
+ * @param size        the size of the whole log in bytes
  */
-public record BuildLogResponse(String logContent) { }
+public record BuildLogResponse(String logContent, long offset, long nextOffset, long size) {
+
+    /**
+     * Creates a response holding a whole log.
+     *
+     * @param logContent the text content from the standard build output
+     */
+    public BuildLogResponse(String logContent) {
+        this(logContent, 0, byteLength(logContent), byteLength(logContent));
+    }
+
+    private static long byteLength(String content) {
+        return content.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
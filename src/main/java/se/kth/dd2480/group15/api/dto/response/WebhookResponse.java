@@ -0,0 +1,11 @@
+package se.kth.dd2480.group15.api.dto.response;
+
+import java.util.UUID;
+
+/**
+ * DTO acknowledging a webhook whose build was accepted.
+ *
+ * @param buildId   the unique identifier of the build started for the push
+ * @param message   a human readable description of what was started
+ */
+public record WebhookResponse(UUID buildId, String message) { }
@@ -13,7 +13,12 @@ public class Build {
      * Represents the current state of the build process.
      */
     public enum Status {
-        QUEUED, RUNNING, SUCCESS, FAILED
+        QUEUED, RUNNING, SUCCESS, FAILED, SUPERSEDED, TIMED_OUT, CANCELLED;
+
+        /** @return whether the build has reached a final state and will not run (again) */
+        public boolean isTerminal() {
+            return this != QUEUED && this != RUNNING;
+        }
     }
 
     private final UUID buildId;
@@ -21,6 +26,7 @@ public class Build {
     private final String repoUrl;
     private final String repoOwner;
     private final String repoName;
+    private final String ref;
     private final Instant createdAt;
     private Instant startedAt;
     private Instant finishedAt;
@@ -34,7 +40,23 @@ public class Build {
      * @return a new Build instance in QUEUED status
      */
     public static Build newBuild(String commitSha, String repoUrl, String repoOwner, String repoName) {
-        return new Build(UUID.randomUUID(), commitSha, repoUrl, repoOwner, repoName, Status.QUEUED, Instant.now(), null, null);
+        return newBuild(commitSha, repoUrl, repoOwner, repoName, null);
+    }
+
+    /**
+     * Method to create a new build of a pushed ref with a generated ID and current timestamp.
+     * The ID is time-ordered, see {@link BuildIds}, and the timestamp is the one embedded in
+     * it, so builds sort the same by ID as by creation time.
+     *
+     * @param commitSha the unique identifier of the commit to be built
+     * @param repoUrl the URL of the repository containing the code
+     * @param ref the pushed ref, e.g. {@code refs/heads/main}, or null if unknown
+     * @return a new Build instance in QUEUED status
+     */
+    public static Build newBuild(String commitSha, String repoUrl, String repoOwner, String repoName, String ref) {
+        UUID buildId = BuildIds.newId();
+        Instant createdAt = BuildIds.createdAt(buildId).orElseThrow();
+        return new Build(buildId, commitSha, repoUrl, repoOwner, repoName, ref, Status.QUEUED, createdAt, null, null);
     }
 
     /**
@@ -44,6 +66,7 @@ public class Build {
      * @param commitSha the commit identifier
      * @param repoUrl the repository URL
      * @param repoOwner the owner of the repository
+     * @param ref the pushed ref, or null if unknown
      * @param status the current status of the build
      * @param createdAt timestamp of when the build was first created
      * @param startedAt timestamp of when the build started, or null if not started
@@ -56,11 +79,12 @@ public class Build {
             String repoUrl,
             String repoOwner,
             String repoName,
+            String ref,
             Status status,
             Instant createdAt,
             Instant startedAt,
             Instant finishedAt) {
-        return new Build(buildId, commitSha, repoUrl, repoOwner, repoName, status, createdAt, startedAt, finishedAt);
+        return new Build(buildId, commitSha, repoUrl, repoOwner, repoName, ref, status, createdAt, startedAt, finishedAt);
     }
 
     private Build(
@@ -69,6 +93,7 @@ public class Build {
             String repoUrl,
             String repoOwner,
             String repoName,
+            String ref,
             Status status,
             Instant createdAt,
             Instant startedAt,
@@ -78,6 +103,7 @@ public class Build {
         this.repoUrl = repoUrl;
         this.repoOwner = repoOwner;
         this.repoName = repoName;
+        this.ref = ref;
         this.status = status;
         this.createdAt = createdAt;
         this.startedAt = startedAt;
@@ -99,6 +125,9 @@ public class Build {
     /** @return the name of the repository */
     public String getRepoName() { return repoName; }
 
+    /** @return the pushed ref, e.g. {@code refs/heads/main}, or null */
+    public String getRef() { return ref; }
+
     /** @return the current status of the build */
     public Status getStatus() { return status; }
 
@@ -134,4 +163,31 @@ public class Build {
         this.finishedAt = Instant.now();
         this.status = Status.SUCCESS;
     }
-}
\ No newline at end of file
+
+    /**
+     * Updates the build status to SUPERSEDED and sets the finish timestamp to now.
+     * Used when a newer push to the same ref made this build obsolete.
+     */
+    public void supersede() {
+        this.finishedAt = Instant.now();
+        this.status = Status.SUPERSEDED;
+    }
+
+    /**
+     * Updates the build status to TIMED_OUT and sets the finish timestamp to now.
+     * Used when a stage of the build exceeded its timeout and its processes were killed.
+     */
+    public void timeOut() {
+        this.finishedAt = Instant.now();
+        this.status = Status.TIMED_OUT;
+    }
+
+    /**
+     * Updates the build status to CANCELLED and sets the finish timestamp to now.
+     * Used when the build was cancelled through the API before it finished.
+     */
+    public void cancel() {
+        this.finishedAt = Instant.now();
+        this.status = Status.CANCELLED;
+    }
+}
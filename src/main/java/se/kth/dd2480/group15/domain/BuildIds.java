@@ -0,0 +1,66 @@
+package se.kth.dd2480.group15.domain;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Generates the ids of new builds as time-ordered UUIDs, laid out like version 7 UUIDs
+ * (RFC 9562): the first 48 bits are the creation time in Unix milliseconds, followed by
+ * the version, a 12-bit counter and 62 random bits.
+ * <p>
+ * The counter orders the ids created within the same millisecond, so every id is greater,
+ * by {@link UUID#compareTo}, than the ids created before it by this process, even if the
+ * clock steps back. Ids therefore sort in the order the builds were created, and so do the
+ * names of the build directories.
+ * <p>
+ * Builds created before the ids were time-ordered keep their random (version 4) ids;
+ * {@link #createdAt} tells the two apart.
+ */
+public final class BuildIds {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int MAX_COUNTER = 0xFFF;
+
+    /** Timestamp and counter of the last id. Guarded by the class. */
+    private static long lastMillis = -1;
+    private static int counter;
+
+    private BuildIds() { }
+
+    /**
+     * @return a new time-ordered id, greater than all ids generated before
+     */
+    public static UUID newId() {
+        long millis = System.currentTimeMillis();
+        int sequence;
+        synchronized (BuildIds.class) {
+            if (millis > lastMillis) {
+                lastMillis = millis;
+                counter = 0;
+            } else if (counter < MAX_COUNTER) {
+                counter++;
+            } else {
+                // The counter of this millisecond ran out, borrow the next one
+                lastMillis++;
+                counter = 0;
+            }
+            millis = lastMillis;
+            sequence = counter;
+        }
+
+        long mostSigBits = (millis << 16) | 0x7000L | sequence;
+        long leastSigBits = (RANDOM.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    /**
+     * @param buildId the id of a build
+     * @return the creation time embedded in a time-ordered id, or empty for a random id
+     */
+    public static Optional<Instant> createdAt(UUID buildId) {
+        if (buildId.version() != 7) return Optional.empty();
+        return Optional.of(Instant.ofEpochMilli(buildId.getMostSignificantBits() >>> 16));
+    }
+}
@@ -0,0 +1,11 @@
+package se.kth.dd2480.group15.domain;
+
+import java.util.List;
+
+/**
+ * Represents a page of build summaries.
+ *
+ * @param builds the build summaries on the page
+ * @param nextCursor the cursor to retrieve the next page with, or null if this is the last page
+ */
+public record BuildPage(List<BuildSummary> builds, String nextCursor) { }
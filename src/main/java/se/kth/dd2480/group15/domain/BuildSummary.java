@@ -9,9 +9,21 @@ import java.util.UUID;
  * @param buildId the unique identifier of the build
  * @param commitSha the hash of the commit associated with the build
  * @param createdAt the timestamp when the build was created
+ * @param repoOwner the owner of the repository of the build, or null if unknown
+ * @param repoName the name of the repository of the build, or null if unknown
  */
 public record BuildSummary(
         UUID buildId,
         String commitSha,
-        Instant createdAt
-) { }
+        Instant createdAt,
+        String repoOwner,
+        String repoName
+) {
+    /**
+     * Creates a summary of a build whose repository is unknown, like the index entries
+     * written before the repository was recorded.
+     */
+    public BuildSummary(UUID buildId, String commitSha, Instant createdAt) {
+        this(buildId, commitSha, createdAt, null, null);
+    }
+}
@@ -0,0 +1,11 @@
+package se.kth.dd2480.group15.domain;
+
+/**
+ * Represents a byte range of a log file, decoded to a string.
+ *
+ * @param content the log content within the range
+ * @param offset the byte offset in the log file the range starts at
+ * @param nextOffset the byte offset right after the range, where the next range starts
+ * @param size the size of the whole log file in bytes at the time it was read
+ */
+public record LogChunk(String content, long offset, long nextOffset, long size) { }
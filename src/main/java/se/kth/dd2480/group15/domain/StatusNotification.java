@@ -0,0 +1,26 @@
+package se.kth.dd2480.group15.domain;
+
+/**
+ * Represents a commit status to be reported to GitHub.
+ *
+ * @param owner the owner of the repository of the commit
+ * @param repo the name of the repository of the commit
+ * @param commitSha the hash of the commit
+ * @param state the state of the status, such as {@code success} or {@code failure}
+ * @param description the description shown with the status
+ */
+public record StatusNotification(
+        String owner,
+        String repo,
+        String commitSha,
+        String state,
+        String description
+) {
+
+    /**
+     * @return the key identifying the commit the status belongs to
+     */
+    public String commitKey() {
+        return owner + "/" + repo + "@" + commitSha;
+    }
+}
@@ -0,0 +1,31 @@
+package se.kth.dd2480.group15.infrastructure.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Configuration properties for the git operations of the CI system.
+ * The properties are specified in the application properties file
+ *
+ * @param mirrorEnabled whether builds clone from a local mirror of the repository
+ *                      instead of cloning the remote repository every time
+ * @param mirrorRoot the directory in which the repository mirrors are kept
+ * @param mirrorBudget the disk space the mirrors may use before the least recently
+ *                     used ones are evicted
+ */
+@ConfigurationProperties(prefix = "ci.git")
+public record GitProperties(
+        @DefaultValue("true") boolean mirrorEnabled,
+        String mirrorRoot,
+        @DefaultValue("5GB") DataSize mirrorBudget
+) {
+    public GitProperties {
+        if (mirrorRoot == null) {
+            mirrorRoot = System.getProperty("user.home") + "/dd2480-ci/mirrors";
+        }
+        if (mirrorBudget == null) {
+            mirrorBudget = DataSize.ofGigabytes(5);
+        }
+    }
+}
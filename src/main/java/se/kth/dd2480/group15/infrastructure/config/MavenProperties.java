@@ -0,0 +1,40 @@
+package se.kth.dd2480.group15.infrastructure.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the Maven builds run by the CI system.
+ * The properties are specified in the application properties file
+ *
+ * @param singleInvocation whether the build and test stages run in one Maven process
+ *                         instead of a separate {@code compile} and {@code test} run
+ * @param sharedRepositoryEnabled whether builds resolve dependencies through a shared local
+ *                                repository managed by the CI server instead of {@code ~/.m2}
+ * @param repositoryRoot the directory holding the shared local repository and the per-build overlays
+ * @param offline whether Maven runs with {@code --offline}, resolving dependencies from the
+ *                shared local repository only
+ * @param prewarmEnabled whether the dependencies of known repositories are resolved into the
+ *                       shared local repository in the background
+ * @param prewarmInterval how often the dependencies of known repositories are resolved
+ */
+@ConfigurationProperties(prefix = "ci.maven")
+public record MavenProperties(
+        @DefaultValue("true") boolean singleInvocation,
+        @DefaultValue("true") boolean sharedRepositoryEnabled,
+        String repositoryRoot,
+        @DefaultValue("false") boolean offline,
+        @DefaultValue("true") boolean prewarmEnabled,
+        @DefaultValue("6h") Duration prewarmInterval
+) {
+    public MavenProperties {
+        if (repositoryRoot == null) {
+            repositoryRoot = System.getProperty("user.home") + "/dd2480-ci/m2";
+        }
+        if (prewarmInterval == null) {
+            prewarmInterval = Duration.ofHours(6);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package se.kth.dd2480.group15.infrastructure.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the commit statuses reported to GitHub.
+ * The properties are specified in the application properties file
+ *
+ * @param apiUrl the base URL of the GitHub REST API
+ * @param maxAttempts how many times sending a status is attempted before it is dropped
+ * @param initialBackoff how long to wait before the first retry; the wait doubles with every retry
+ * @param maxBackoff the longest wait between two retries
+ * @param connectTimeout how long connecting to the GitHub API may take
+ * @param readTimeout how long the GitHub API may take to answer a request
+ * @param minInterval the shortest time between two statuses sent to GitHub, which asks for at
+ *                    least a second between requests that create content
+ */
+@ConfigurationProperties(prefix = "ci.notifier")
+public record NotifierProperties(
+        @DefaultValue("https://api.github.com") String apiUrl,
+        @DefaultValue("5") int maxAttempts,
+        @DefaultValue("1s") Duration initialBackoff,
+        @DefaultValue("1m") Duration maxBackoff,
+        @DefaultValue("5s") Duration connectTimeout,
+        @DefaultValue("10s") Duration readTimeout,
+        @DefaultValue("1s") Duration minInterval
+) {
+    public NotifierProperties {
+        if (apiUrl == null) {
+            apiUrl = "https://api.github.com";
+        }
+        if (maxAttempts <= 0) {
+            maxAttempts = 5;
+        }
+        if (initialBackoff == null) {
+            initialBackoff = Duration.ofSeconds(1);
+        }
+        if (maxBackoff == null) {
+            maxBackoff = Duration.ofMinutes(1);
+        }
+        if (connectTimeout == null) {
+            connectTimeout = Duration.ofSeconds(5);
+        }
+        if (readTimeout == null) {
+            readTimeout = Duration.ofSeconds(10);
+        }
+        if (minInterval == null) {
+            minInterval = Duration.ofSeconds(1);
+        }
+    }
+}
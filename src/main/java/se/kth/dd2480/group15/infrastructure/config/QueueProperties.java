@@ -0,0 +1,30 @@
+package se.kth.dd2480.group15.infrastructure.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the persistent build queue of the CI system.
+ * The properties are specified in the application properties file
+ *
+ * @param fsyncInterval how often appended journal records are forced to disk; records
+ *                      written within one interval share a single fsync
+ * @param ingestCapacity how many accepted webhooks may wait to be persisted and queued;
+ *                       webhooks beyond that are refused until the backlog clears
+ */
+@ConfigurationProperties(prefix = "ci.queue")
+public record QueueProperties(
+        @DefaultValue("10ms") Duration fsyncInterval,
+        @DefaultValue("10000") int ingestCapacity
+) {
+    public QueueProperties {
+        if (fsyncInterval == null) {
+            fsyncInterval = Duration.ofMillis(10);
+        }
+        if (ingestCapacity <= 0) {
+            ingestCapacity = 10000;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package se.kth.dd2480.group15.infrastructure.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for how long the builds in the build store are kept.
+ * The properties are specified in the application properties file. A policy that is
+ * unset does not remove any builds; builds are kept forever when none is set.
+ *
+ * @param maxAge how long after their creation builds are kept
+ * @param maxBuildsPerRepo how many of the newest builds of each repository are kept
+ * @param maxTotalSize how much disk space the builds may take up together, the oldest
+ *                     builds are removed first
+ * @param archiveRoot the directory removed builds are moved to, or null to delete them
+ * @param interval how often the policies are enforced, defaults to 1 hour when unset
+ */
+@ConfigurationProperties(prefix = "ci.retention")
+public record RetentionProperties(
+        Duration maxAge,
+        Integer maxBuildsPerRepo,
+        DataSize maxTotalSize,
+        String archiveRoot,
+        @DefaultValue("1h") Duration interval
+) {
+    public RetentionProperties {
+        if (interval == null || interval.isZero() || interval.isNegative()) {
+            interval = Duration.ofHours(1);
+        }
+    }
+
+    /**
+     * @return whether any of the policies is set
+     */
+    public boolean enabled() {
+        return maxAge != null || maxBuildsPerRepo != null || maxTotalSize != null;
+    }
+}
@@ -0,0 +1,35 @@
+package se.kth.dd2480.group15.infrastructure.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the stages of the builds run by the CI system.
+ * The properties are specified in the application properties file
+ *
+ * @param cloneTimeout how long the git processes of the clone stage may run before they are killed
+ * @param buildTimeout how long the maven process compiling the project may run before it is killed
+ * @param testTimeout how long the maven process running the tests may run before it is killed;
+ *                    a single maven invocation running both stages gets the build timeout until
+ *                    the tests start, and the test timeout from then on
+ */
+@ConfigurationProperties(prefix = "ci.stage")
+public record StageProperties(
+        @DefaultValue("10m") Duration cloneTimeout,
+        @DefaultValue("30m") Duration buildTimeout,
+        @DefaultValue("1h") Duration testTimeout
+) {
+    public StageProperties {
+        if (cloneTimeout == null) {
+            cloneTimeout = Duration.ofMinutes(10);
+        }
+        if (buildTimeout == null) {
+            buildTimeout = Duration.ofMinutes(30);
+        }
+        if (testTimeout == null) {
+            testTimeout = Duration.ofHours(1);
+        }
+    }
+}
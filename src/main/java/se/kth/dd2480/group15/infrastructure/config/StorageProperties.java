@@ -1,10 +1,34 @@
 package se.kth.dd2480.group15.infrastructure.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
 
 /**
  * Configuration properties for storage-related settings in the CI system.
  * The properties are specified in the application properties file
+ *
+ * @param buildsRoot the directory in which the metadata and logs of the builds are stored
+ * @param logBufferSize how much log output of a running build is buffered before it is written
+ * @param logFlushInterval how long log output of a running build may stay buffered at most
+ * @param compressLogs whether the logs of finished builds are compressed, in blocks that can
+ *                     still be read without decompressing the whole log
  */
 @ConfigurationProperties(prefix = "ci.storage")
-public record StorageProperties(String buildsRoot) { }
+public record StorageProperties(
+        String buildsRoot,
+        @DefaultValue("64KB") DataSize logBufferSize,
+        @DefaultValue("200ms") Duration logFlushInterval,
+        @DefaultValue("true") boolean compressLogs
+) {
+    public StorageProperties {
+        if (logBufferSize == null) {
+            logBufferSize = DataSize.ofKilobytes(64);
+        }
+        if (logFlushInterval == null) {
+            logFlushInterval = Duration.ofMillis(200);
+        }
+    }
+}
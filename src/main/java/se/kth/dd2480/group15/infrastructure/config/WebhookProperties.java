@@ -0,0 +1,28 @@
+package se.kth.dd2480.group15.infrastructure.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the webhooks received by the CI system.
+ * The properties are specified in the application properties file
+ *
+ * @param dedupCapacity how many recent deliveries are remembered to recognize redeliveries
+ * @param dedupTtl how long a delivery is remembered
+ */
+@ConfigurationProperties(prefix = "ci.webhook")
+public record WebhookProperties(
+        @DefaultValue("10000") int dedupCapacity,
+        @DefaultValue("1h") Duration dedupTtl
+) {
+    public WebhookProperties {
+        if (dedupCapacity <= 0) {
+            dedupCapacity = 10000;
+        }
+        if (dedupTtl == null) {
+            dedupTtl = Duration.ofHours(1);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package se.kth.dd2480.group15.infrastructure.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the build workers of the CI system.
+ * The properties are specified in the application properties file
+ *
+ * @param poolSize the number of builds that may run concurrently, defaults to the
+ *                 number of available processors when unset or not positive
+ * @param shutdownTimeout how long running builds are given to finish on shutdown
+ *                        before the workers are interrupted
+ * @param coalesce which builds are superseded when a newer commit is pushed to the
+ *                 same ref of the same repository
+ */
+@ConfigurationProperties(prefix = "ci.worker")
+public record WorkerProperties(
+        Integer poolSize,
+        @DefaultValue("5m") Duration shutdownTimeout,
+        @DefaultValue("queued") CoalesceMode coalesce
+) {
+
+    /**
+     * Decides which builds of a ref are superseded by a newer push to that ref.
+     */
+    public enum CoalesceMode {
+        /** Every push is built. */
+        OFF,
+        /** Builds still waiting in the queue are dropped. */
+        QUEUED,
+        /** Builds waiting in the queue are dropped and running builds are cancelled. */
+        ALL
+    }
+
+    public WorkerProperties {
+        if (poolSize == null || poolSize <= 0) {
+            poolSize = Runtime.getRuntime().availableProcessors();
+        }
+        if (shutdownTimeout == null) {
+            shutdownTimeout = Duration.ofMinutes(5);
+        }
+        if (coalesce == null) {
+            coalesce = CoalesceMode.QUEUED;
+        }
+    }
+}
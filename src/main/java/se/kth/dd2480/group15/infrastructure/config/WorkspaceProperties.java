@@ -0,0 +1,31 @@
+package se.kth.dd2480.group15.infrastructure.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Configuration properties for the build workspaces of the CI system.
+ * The properties are specified in the application properties file
+ *
+ * @param reaperThreads the number of threads deleting the workspaces of finished builds
+ *                      in the background, defaults to 2 when unset or not positive
+ * @param poolEnabled whether the workspaces of finished builds are kept, with their build
+ *                    outputs, and reused by later builds of the same repository
+ * @param poolSize the number of idle workspaces kept per repository, defaults to 2 when
+ *                 unset or not positive
+ */
+@ConfigurationProperties(prefix = "ci.workspace")
+public record WorkspaceProperties(
+        @DefaultValue("2") Integer reaperThreads,
+        @DefaultValue("false") boolean poolEnabled,
+        @DefaultValue("2") Integer poolSize
+) {
+    public WorkspaceProperties {
+        if (reaperThreads == null || reaperThreads <= 0) {
+            reaperThreads = 2;
+        }
+        if (poolSize == null || poolSize <= 0) {
+            poolSize = 2;
+        }
+    }
+}
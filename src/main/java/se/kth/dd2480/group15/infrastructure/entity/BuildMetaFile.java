@@ -13,6 +13,7 @@ import java.util.UUID;
  * @param repoUrl the URL of the repository containing the code
  * @param repoOwner the owner of the repository
  * @param repoName the name of the repository
+ * @param ref the pushed ref the build was triggered by, or null if unknown
  * @param status the current status of the build
  * @param createdAt the timestamp when the build was created
  * @param startedAt the timestamp when the build started, or null if not started
@@ -24,6 +25,7 @@ public record BuildMetaFile(
         String repoUrl,
         String repoOwner,
         String repoName,
+        String ref,
         Build.Status status,
         Instant createdAt,
         Instant startedAt,
@@ -42,6 +44,7 @@ public record BuildMetaFile(
                 b.getRepoUrl(),
                 b.getRepoOwner(),
                 b.getRepoName(),
+                b.getRef(),
                 b.getStatus(),
                 b.getCreatedAt(),
                 b.getStartedAt(),
@@ -56,7 +59,7 @@ public record BuildMetaFile(
      */
     public Build toDomain() {
         return Build.rehydrate(
-                buildId, commitSha, repoUrl, repoOwner, repoName,
+                buildId, commitSha, repoUrl, repoOwner, repoName, ref,
                 status, createdAt, startedAt, finishedAt
         );
     }
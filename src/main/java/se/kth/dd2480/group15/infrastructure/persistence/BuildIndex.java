@@ -0,0 +1,153 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import se.kth.dd2480.group15.domain.BuildPage;
+import se.kth.dd2480.group15.domain.BuildSummary;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory index of the build summaries, ordered by creation date (oldest first) and
+ * then by build id.
+ * <p>
+ * Pages are retrieved with cursors: opaque strings identifying the last build of the
+ * previous page, and can be restricted to a range of creation dates. Retrieving a page
+ * only visits the builds on that page, however many builds the index holds.
+ */
+class BuildIndex {
+
+    /**
+     * Position of a build in the index.
+     *
+     * @param createdAt the timestamp when the build was created
+     * @param buildId the unique identifier of the build
+     */
+    private record Key(Instant createdAt, UUID buildId) {
+        static final Comparator<Key> ORDER = Comparator.comparing(Key::createdAt).thenComparing(Key::buildId);
+
+        /** The smallest build id, so a key with it comes before all builds created at the same time. */
+        private static final UUID MIN_BUILD_ID = new UUID(Long.MIN_VALUE, Long.MIN_VALUE);
+
+        static Key first(Instant createdAt) {
+            return new Key(createdAt, MIN_BUILD_ID);
+        }
+    }
+
+    private final ConcurrentSkipListMap<Key, BuildSummary> entries = new ConcurrentSkipListMap<>(Key.ORDER);
+
+    /**
+     * Adds a build summary to the index, replacing the entry of the same build.
+     *
+     * @param summary the build summary to add
+     */
+    void put(BuildSummary summary) {
+        entries.put(keyOf(summary), summary);
+    }
+
+    /**
+     * Removes the entry of a build from the index.
+     *
+     * @param summary the build summary to remove
+     */
+    void remove(BuildSummary summary) {
+        entries.remove(keyOf(summary));
+    }
+
+    /**
+     * @return all build summaries, oldest first
+     */
+    List<BuildSummary> all() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * @return the number of builds in the index
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Retrieves a page of build summaries.
+     *
+     * @param cursor the cursor returned with the previous page, or null for the first page
+     * @param limit the maximum number of builds on the page
+     * @param newestFirst whether the builds are ordered newest first instead of oldest first
+     * @return the page, with a cursor for the next page if there are more builds
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    BuildPage page(String cursor, int limit, boolean newestFirst) {
+        return page(cursor, limit, newestFirst, null, null);
+    }
+
+    /**
+     * Retrieves a page of the build summaries created in a range of time.
+     *
+     * @param cursor the cursor returned with the previous page, or null for the first page
+     * @param limit the maximum number of builds on the page
+     * @param newestFirst whether the builds are ordered newest first instead of oldest first
+     * @param createdFrom the earliest creation date of the builds, inclusive, or null for no bound
+     * @param createdTo the latest creation date of the builds, exclusive, or null for no bound
+     * @return the page, with a cursor for the next page if there are more builds in the range
+     * @throws IllegalArgumentException if the cursor is malformed or the range is reversed
+     */
+    BuildPage page(String cursor, int limit, boolean newestFirst, Instant createdFrom, Instant createdTo) {
+        if (createdFrom != null && createdTo != null && createdFrom.isAfter(createdTo)) {
+            throw new IllegalArgumentException("createdFrom is after createdTo");
+        }
+
+        NavigableMap<Key, BuildSummary> view = entries;
+        if (createdFrom != null) {
+            view = view.tailMap(Key.first(createdFrom), true);
+        }
+        if (createdTo != null) {
+            view = view.headMap(Key.first(createdTo), false);
+        }
+        if (newestFirst) {
+            view = view.descendingMap();
+        }
+        if (cursor != null) {
+            view = view.tailMap(decodeCursor(cursor), false);
+        }
+
+        List<BuildSummary> builds = new ArrayList<>(Math.min(limit, 256));
+        Iterator<BuildSummary> iterator = view.values().iterator();
+        while (builds.size() < limit && iterator.hasNext()) {
+            builds.add(iterator.next());
+        }
+
+        String nextCursor = iterator.hasNext() && !builds.isEmpty()
+                ? encodeCursor(keyOf(builds.get(builds.size() - 1)))
+                : null;
+        return new BuildPage(builds, nextCursor);
+    }
+
+    private static Key keyOf(BuildSummary summary) {
+        return new Key(summary.createdAt(), summary.buildId());
+    }
+
+    private static String encodeCursor(Key key) {
+        String raw = key.createdAt() + "|" + key.buildId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Key decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf('|');
+            if (separator < 0) throw new IllegalArgumentException("Malformed cursor: " + cursor);
+            return new Key(Instant.parse(raw.substring(0, separator)), UUID.fromString(raw.substring(separator + 1)));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+        }
+    }
+}
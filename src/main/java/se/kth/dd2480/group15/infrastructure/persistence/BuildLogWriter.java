@@ -0,0 +1,33 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import java.util.function.Consumer;
+
+/**
+ * Writes the log of a running build, one line at a time.
+ * <p>
+ * A writer is opened with {@link BuildRepository#openLog} when the build starts and
+ * closed once it is done. Lines may be buffered in between; they are guaranteed to be
+ * stored once {@link #flush()} or {@link #close()} returns.
+ */
+public interface BuildLogWriter extends Consumer<String>, AutoCloseable {
+
+    /**
+     * Appends a line to the log of the build.
+     *
+     * @param line the line to append, without line separator
+     */
+    @Override
+    void accept(String line);
+
+    /**
+     * Writes all buffered lines to the log.
+     */
+    void flush();
+
+    /**
+     * Writes all buffered lines to the log and releases the log file. Lines appended
+     * afterwards are discarded.
+     */
+    @Override
+    void close();
+}
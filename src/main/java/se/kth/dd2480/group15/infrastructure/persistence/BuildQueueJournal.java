@@ -0,0 +1,296 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.infrastructure.config.QueueProperties;
+import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
+import se.kth.dd2480.group15.infrastructure.entity.BuildMetaFile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal backing the build queue, stored as {@code queue.journal} in the
+ * builds root.
+ * <p>
+ * Every queued build is recorded with a {@code Q} record holding its metadata, and a
+ * {@code D} record is written once the build is done with. Builds without a {@code D}
+ * record are replayed into the queue at startup, so queued and interrupted builds
+ * survive a restart.
+ * <p>
+ * Records are written straight to the file channel, but only forced to disk by a
+ * background flusher every {@link QueueProperties#fsyncInterval()}. This batches the
+ * fsync of all records appended within one interval, keeping enqueue latency low
+ * during bursts of webhooks.
+ * <p>
+ * Once the journal has grown past {@link #COMPACT_THRESHOLD_BYTES}, and to more than twice
+ * the size of the records of the pending builds, it is rewritten to only hold those
+ * records, whether or not builds are pending.
+ */
+@Component
+public class BuildQueueJournal {
+
+    public static final String JOURNAL_FILE_NAME = "queue.journal";
+
+    private static final String QUEUED_RECORD = "Q ";
+    private static final String DONE_RECORD = "D ";
+
+    /** The journal is only compacted once it is larger than this. */
+    static final long COMPACT_THRESHOLD_BYTES = 1024 * 1024;
+
+    private static final ObjectMapper MAPPER = JsonMapper.builder()
+            .addModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+
+    private final Path journalFile;
+    private final ScheduledExecutorService flusher;
+    private final Object writeLock = new Object();
+
+    /** The queued record of each pending build, in the order they were queued. Guarded by writeLock. */
+    private final Map<UUID, String> pending = new LinkedHashMap<>();
+    /** The number of bytes the records of the pending builds take up. Guarded by writeLock. */
+    private long pendingBytes;
+
+    private FileChannel channel;
+    private volatile boolean dirty;
+
+    /**
+     * Constructs a new BuildQueueJournal, opening (or creating) the journal file in the
+     * builds root and starting the background flusher.
+     *
+     * @param storageProperties the storage settings containing the builds root
+     * @param queueProperties the queue settings containing the fsync interval
+     */
+    public BuildQueueJournal(StorageProperties storageProperties, QueueProperties queueProperties) {
+        Path buildRoot = Paths.get(storageProperties.buildsRoot()).toAbsolutePath().normalize();
+        this.journalFile = buildRoot.resolve(JOURNAL_FILE_NAME);
+
+        try {
+            Files.createDirectories(buildRoot);
+            this.channel = openChannel();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open build queue journal: " + journalFile, e);
+        }
+
+        long intervalMs = Math.max(1, queueProperties.fsyncInterval().toMillis());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ci_queue_journal_flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(
+                journalFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND
+        );
+    }
+
+    /**
+     * Records that the given build has been queued.
+     *
+     * @param build the build that was added to the queue
+     */
+    public void append(Build build) {
+        String record = QUEUED_RECORD + toJsonString(BuildMetaFile.from(build));
+        synchronized (writeLock) {
+            write(record);
+            String previous = pending.put(build.getBuildId(), record);
+            if (previous != null) pendingBytes -= recordBytes(previous);
+            pendingBytes += recordBytes(record);
+        }
+    }
+
+    /**
+     * Records that the given build no longer needs to be run, either because it has
+     * finished or because it was dropped from the queue.
+     *
+     * @param buildId the unique identifier of the build
+     */
+    public void complete(UUID buildId) {
+        synchronized (writeLock) {
+            String record = pending.remove(buildId);
+            if (record == null) return;
+            pendingBytes -= recordBytes(record);
+            write(DONE_RECORD + buildId);
+            compactIfGrown();
+        }
+    }
+
+    /**
+     * Reads the journal and returns the builds that were queued but never completed,
+     * in the order they were queued. The journal is then rewritten to only contain
+     * those builds.
+     * <p>
+     * A torn last record, left behind by a crash in the middle of a write, is skipped.
+     *
+     * @return the builds that still have to be run
+     */
+    public List<Build> replay() {
+        Map<UUID, Build> unfinished = new LinkedHashMap<>();
+
+        synchronized (writeLock) {
+            try (BufferedReader reader = Files.newBufferedReader(journalFile)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    readRecord(line, unfinished);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read build queue journal: " + journalFile, e);
+            }
+
+            pending.clear();
+            pendingBytes = 0;
+            for (Build build : unfinished.values()) {
+                String record = QUEUED_RECORD + toJsonString(BuildMetaFile.from(build));
+                pending.put(build.getBuildId(), record);
+                pendingBytes += recordBytes(record);
+            }
+            rewrite(pending.values());
+        }
+
+        return new ArrayList<>(unfinished.values());
+    }
+
+    private void readRecord(String line, Map<UUID, Build> unfinished) {
+        try {
+            if (line.startsWith(QUEUED_RECORD)) {
+                BuildMetaFile meta = MAPPER.readValue(line.substring(QUEUED_RECORD.length()), BuildMetaFile.class);
+                unfinished.put(meta.buildId(), meta.toDomain());
+            } else if (line.startsWith(DONE_RECORD)) {
+                unfinished.remove(UUID.fromString(line.substring(DONE_RECORD.length()).trim()));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Skipping unreadable build queue journal record: " + line);
+        }
+    }
+
+    /**
+     * Forces all records written so far to disk.
+     */
+    public void flush() {
+        if (!dirty) return;
+        synchronized (writeLock) {
+            try {
+                dirty = false;
+                channel.force(false);
+            } catch (IOException e) {
+                dirty = true;
+                System.out.println("Failed to sync build queue journal: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the background flusher and forces any outstanding records to disk.
+     */
+    @PreDestroy
+    public void close() {
+        flusher.shutdown();
+        flush();
+        synchronized (writeLock) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close build queue journal: " + e.getMessage());
+            }
+        }
+    }
+
+    private static long recordBytes(String record) {
+        return record.getBytes(StandardCharsets.UTF_8).length + 1;
+    }
+
+    private void write(String record) {
+        ByteBuffer buffer = ByteBuffer.wrap((record + "\n").getBytes(StandardCharsets.UTF_8));
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            dirty = true;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append to build queue journal: " + journalFile, e);
+        }
+    }
+
+    /**
+     * Rewrites the journal to only hold the records of the pending builds, once it is past
+     * the threshold and at least half of it is records of builds that are done. The journal
+     * grows by at least the size of the pending records between two rewrites, so the cost
+     * of rewriting is spread over the records written in between.
+     */
+    private void compactIfGrown() {
+        try {
+            long size = channel.size();
+            if (size <= COMPACT_THRESHOLD_BYTES || size <= 2 * pendingBytes) return;
+            rewrite(pending.values());
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Failed to compact build queue journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the journal by one holding only the given records, forced to disk.
+     */
+    private void rewrite(Collection<String> records) {
+        Path tmp = journalFile.resolveSibling(JOURNAL_FILE_NAME + ".tmp");
+        try {
+            Files.write(tmp, records, StandardCharsets.UTF_8);
+            try (FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                tmpChannel.force(true);
+            }
+            channel.close();
+            try {
+                Files.move(tmp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, journalFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to rewrite build queue journal: " + journalFile, e);
+        } finally {
+            // Keep appending to the journal, the old one if it could not be replaced
+            if (!channel.isOpen()) reopenChannel();
+        }
+    }
+
+    private void reopenChannel() {
+        try {
+            channel = openChannel();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to reopen build queue journal: " + journalFile, e);
+        }
+    }
+
+    private String toJsonString(Object object) {
+        try {
+            return MAPPER.writeValueAsString(object);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize build into a journal record: " + object, e);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package se.kth.dd2480.group15.infrastructure.persistence;
 
 import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.domain.BuildPage;
 import se.kth.dd2480.group15.domain.BuildSummary;
+import se.kth.dd2480.group15.domain.LogChunk;
 import se.kth.dd2480.group15.domain.LogFile;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -35,6 +38,16 @@ public interface BuildRepository {
      */
     boolean appendToLog(UUID buildId, String chunk);
 
+    /**
+     * Opens the log associated with the specified build id for writing, for the
+     * duration of the build. Lines written through the returned writer may be
+     * buffered; the writer must be closed once the build is done.
+     *
+     * @param buildId the unique identifier for the build whose log is written
+     * @return a writer appending to the build's log
+     */
+    BuildLogWriter openLog(UUID buildId);
+
     /**
      * Retrieves a list of all build instances.
      * <p>
@@ -44,6 +57,36 @@ public interface BuildRepository {
      */
     List<BuildSummary> listAll();
 
+    /**
+     * Retrieves a page of build instances.
+     * <p>
+     * Builds are ordered by creation date, oldest first unless {@code newestFirst} is set.
+     *
+     * @param cursor the cursor returned with the previous page, or null for the first page
+     * @param limit the maximum number of builds on the page
+     * @param newestFirst whether the builds are ordered newest first
+     * @return a {@link BuildPage} with the builds and the cursor of the next page
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    default BuildPage listPage(String cursor, int limit, boolean newestFirst) {
+        return listPage(cursor, limit, newestFirst, null, null);
+    }
+
+    /**
+     * Retrieves a page of the build instances created in a range of time.
+     * <p>
+     * Builds are ordered by creation date, oldest first unless {@code newestFirst} is set.
+     *
+     * @param cursor the cursor returned with the previous page, or null for the first page
+     * @param limit the maximum number of builds on the page
+     * @param newestFirst whether the builds are ordered newest first
+     * @param createdFrom the earliest creation date of the builds, inclusive, or null for no bound
+     * @param createdTo the latest creation date of the builds, exclusive, or null for no bound
+     * @return a {@link BuildPage} with the builds and the cursor of the next page
+     * @throws IllegalArgumentException if the cursor is malformed or the range is reversed
+     */
+    BuildPage listPage(String cursor, int limit, boolean newestFirst, Instant createdFrom, Instant createdTo);
+
     /**
      * Retrieves the build associated with the specified build id.
      *
@@ -61,4 +104,32 @@ public interface BuildRepository {
      *         or an empty Optional if no log exists for the given build id.
      */
     Optional<LogFile> getLog(UUID buildId);
+
+    /**
+     * Retrieves a byte range of the log associated with the specified build.
+     * <p>
+     * The range is shrunk to whole UTF-8 characters: a range starting inside a character
+     * starts after it, and a character cut off by the limit is left for the next range.
+     * A limit below 4 bytes, the longest character, may therefore return an empty range
+     * that does not move forward.
+     *
+     * @param buildId the unique identifier for the build whose log is being retrieved
+     * @param offset the byte offset to start reading at
+     * @param limit the maximum number of bytes to read
+     * @return an {@link Optional} containing the {@link LogChunk} read, or an empty
+     *         Optional if no build exists for the given build id
+     */
+    Optional<LogChunk> readLog(UUID buildId, long offset, int limit);
+
+    /**
+     * Retrieves the last lines of the log associated with the specified build.
+     *
+     * @param buildId the unique identifier for the build whose log is being retrieved
+     * @param lines the number of lines to retrieve
+     * @param limit the maximum number of bytes to read; if the lines are longer, only
+     *              the end of them is returned
+     * @return an {@link Optional} containing the {@link LogChunk} read, or an empty
+     *         Optional if no build exists for the given build id
+     */
+    Optional<LogChunk> tailLog(UUID buildId, int lines, int limit);
 }
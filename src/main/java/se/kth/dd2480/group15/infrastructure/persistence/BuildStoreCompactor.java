@@ -0,0 +1,184 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.domain.BuildSummary;
+import se.kth.dd2480.group15.infrastructure.config.RetentionProperties;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the build store from growing forever by enforcing the {@link RetentionProperties}.
+ * <p>
+ * Every {@link RetentionProperties#interval()}, a background thread goes through the builds
+ * newest first and marks those that are older than the maximum age, beyond the maximum
+ * number of builds of their repository, or beyond the maximum total size. The marked builds
+ * that have finished are removed through {@link FileBuildRepository#removeBuilds}, which
+ * rewrites the index file atomically while new builds keep being saved, and deletes or
+ * archives their directories. Queued and running builds are never removed, but still count
+ * towards the limits.
+ * <p>
+ * The repository of builds whose index entry was written before the repository was
+ * recorded is read from their metadata, and stored in the index when it is rewritten.
+ */
+@Component
+public class BuildStoreCompactor {
+
+    /** How long after the start the policies are enforced for the first time. */
+    private static final Duration INITIAL_DELAY = Duration.ofMinutes(1);
+
+    private final FileBuildRepository repository;
+    private final RetentionProperties retentionProperties;
+    private final Path archiveRoot;
+    private final Counter deleted;
+    private final Counter archived;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a new BuildStoreCompactor.
+     *
+     * @param repository the build store to enforce the policies on
+     * @param retentionProperties the retention policies
+     * @param meterRegistry the registry the number of removed builds is reported to
+     */
+    public BuildStoreCompactor(FileBuildRepository repository, RetentionProperties retentionProperties, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.retentionProperties = retentionProperties;
+        this.archiveRoot = retentionProperties.archiveRoot() == null || retentionProperties.archiveRoot().isBlank()
+                ? null
+                : Paths.get(retentionProperties.archiveRoot()).toAbsolutePath().normalize();
+        this.deleted = Counter.builder("ci.storage.retention.removed")
+                .description("Builds removed from the build store by the retention policies")
+                .tag("action", "deleted")
+                .register(meterRegistry);
+        this.archived = Counter.builder("ci.storage.retention.removed")
+                .description("Builds removed from the build store by the retention policies")
+                .tag("action", "archived")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts enforcing the policies on their interval, if any policy is set.
+     */
+    @PostConstruct
+    public void start() {
+        if (!retentionProperties.enabled()) return;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ci_build_store_compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = retentionProperties.interval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::compactSafely, INITIAL_DELAY.toMillis(), interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops enforcing the policies.
+     */
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private void compactSafely() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            System.out.println("Failed to enforce the build retention policies: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Enforces the retention policies once.
+     *
+     * @return the number of builds removed
+     */
+    public int compact() {
+        Instant oldest = retentionProperties.maxAge() == null ? null : Instant.now().minus(retentionProperties.maxAge());
+        Integer maxPerRepo = retentionProperties.maxBuildsPerRepo();
+        long maxBytes = retentionProperties.maxTotalSize() == null ? -1 : retentionProperties.maxTotalSize().toBytes();
+
+        List<BuildSummary> builds = repository.listAll();
+        Map<String, Integer> buildsPerRepo = new HashMap<>();
+        List<BuildSummary> expired = new ArrayList<>();
+        long totalBytes = 0;
+        boolean overSize = false;
+
+        for (int i = builds.size() - 1; i >= 0; i--) {
+            BuildSummary summary = builds.get(i);
+            if (summary.repoName() == null) {
+                summary = withRepository(summary);
+            }
+
+            long bytes = maxBytes < 0 ? 0 : repository.diskUsage(summary.buildId());
+            int repoCount = buildsPerRepo.merge(summary.repoOwner() + "/" + summary.repoName(), 1, Integer::sum);
+            overSize = overSize || (maxBytes >= 0 && totalBytes + bytes > maxBytes);
+
+            boolean expire = (oldest != null && summary.createdAt().isBefore(oldest))
+                    || (maxPerRepo != null && repoCount > maxPerRepo)
+                    || overSize;
+            if (expire && isFinished(summary)) {
+                expired.add(summary);
+            } else {
+                totalBytes += bytes;
+            }
+        }
+
+        List<BuildSummary> removed = repository.removeBuilds(expired, archiveRoot);
+        (archiveRoot == null ? deleted : archived).increment(removed.size());
+        if (!removed.isEmpty()) {
+            System.out.println((archiveRoot == null ? "Deleted " : "Archived ") + removed.size()
+                    + " builds by the retention policies");
+        }
+        return removed.size();
+    }
+
+    /**
+     * @return the summary with the repository read from the metadata of the build, and
+     *         stored in the index, or the same summary if the metadata cannot be read
+     */
+    private BuildSummary withRepository(BuildSummary summary) {
+        try {
+            Optional<Build> build = repository.findById(summary.buildId());
+            if (build.isEmpty()) return summary;
+
+            BuildSummary updated = new BuildSummary(summary.buildId(), summary.commitSha(), summary.createdAt(),
+                    build.get().getRepoOwner(), build.get().getRepoName());
+            repository.updateSummary(updated);
+            return updated;
+        } catch (RuntimeException e) {
+            return summary;
+        }
+    }
+
+    /**
+     * @return whether the build has finished, or its directory is gone; a build whose
+     *         metadata cannot be read is left as it is
+     */
+    private boolean isFinished(BuildSummary summary) {
+        try {
+            return repository.findById(summary.buildId())
+                    .map(build -> build.getStatus().isTerminal())
+                    .orElse(true);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link BuildLogWriter} appending to a log file through a channel that stays open for
+ * the lifetime of the build.
+ * <p>
+ * Lines are collected in a buffer and written in one go once the buffer reaches its
+ * size threshold, or when the {@link FileBuildRepository} flushes its open logs on
+ * its interval, whichever comes first.
+ */
+final class FileBuildLogWriter implements BuildLogWriter {
+
+    private final Path logFile;
+    private final int bufferSize;
+    private final Runnable onClose;
+    private final StringBuilder buffer;
+
+    private FileChannel channel;
+
+    /**
+     * Opens (or creates) a log file for appending.
+     *
+     * @param logFile the log file to append to
+     * @param bufferSize the number of buffered characters that triggers a write
+     * @param onClose invoked once the writer is closed
+     */
+    FileBuildLogWriter(Path logFile, int bufferSize, Runnable onClose) {
+        this.logFile = logFile;
+        this.bufferSize = bufferSize;
+        this.onClose = onClose;
+        this.buffer = new StringBuilder(Math.min(bufferSize, 8192) + 256);
+
+        try {
+            this.channel = FileChannel.open(
+                    logFile,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND
+            );
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open log file: " + logFile, e);
+        }
+    }
+
+    @Override
+    public synchronized void accept(String line) {
+        if (channel == null) return;
+
+        buffer.append(line).append(System.lineSeparator());
+        if (buffer.length() >= bufferSize) {
+            writeBuffer();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (channel == null || buffer.isEmpty()) return;
+        writeBuffer();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (channel == null) return;
+            try {
+                writeBuffer();
+            } finally {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    System.out.println("Failed to close log file " + logFile + ": " + e.getMessage());
+                }
+                channel = null;
+            }
+        }
+        onClose.run();
+    }
+
+    private void writeBuffer() {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(buffer));
+        buffer.setLength(0);
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append to file: " + logFile, e);
+        }
+    }
+}
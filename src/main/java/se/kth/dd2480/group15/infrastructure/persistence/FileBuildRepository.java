@@ -5,24 +5,70 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import se.kth.dd2480.group15.domain.Build;
 import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
+import se.kth.dd2480.group15.domain.BuildPage;
 import se.kth.dd2480.group15.domain.BuildSummary;
 import se.kth.dd2480.group15.infrastructure.entity.BuildMetaFile;
+import se.kth.dd2480.group15.domain.LogChunk;
 import se.kth.dd2480.group15.domain.LogFile;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * FileBuildRepository is a file-based implementation of the {@link BuildRepository}
  * that manages build metadata and logs by storing them in the file system.
+ * <p>
+ * The index file is loaded into an in-memory {@link BuildIndex} once, at construction,
+ * and the in-memory index is kept up to date as new builds are saved. Listing builds
+ * never reads the index file. While it is loaded, the index file is repaired against the
+ * build directories, see {@link #recoverIndex()}.
+ * <p>
+ * The logs of running builds are written through a {@link FileBuildLogWriter} per build,
+ * which keeps the log file open and buffers lines. A background flusher writes the
+ * buffered lines of every open log each {@link StorageProperties#logFlushInterval()}.
+ * <p>
+ * Once its writer is closed, the log of a build is sealed in the background: it is
+ * compressed into a {@link SealedLog} and the plain text log is deleted. Logs are read
+ * the same way whether they are sealed or not, with the same byte offsets. Logs left
+ * plain by a previous run, of builds that have finished, are sealed after a start.
+ * Sealing is turned off with {@link StorageProperties#compressLogs()}.
+ * <p>
+ * Builds are removed from the store by the {@link BuildStoreCompactor}, which rewrites the
+ * index file without them while new builds keep being saved.
  */
 @Repository
 public class FileBuildRepository implements BuildRepository {
@@ -30,16 +76,65 @@ public class FileBuildRepository implements BuildRepository {
     public static final String INDEX_FILE_NAME = "index.jsonl";
     public static final String META_FILE_NAME = "meta.json";
     public static final String LOG_FILE_NAME = "build.log";
+    public static final String SEALED_LOG_FILE_NAME = "build.log.z";
 
     private static final ObjectMapper MAPPER = JsonMapper.builder()
             .addModule(new JavaTimeModule())
             .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
             .build();
 
-    private final ConcurrentHashMap<Path, Object> fileLocks = new ConcurrentHashMap<>();
+    /** Number of threads checking the build directories while the index is recovered. */
+    private static final int RECOVERY_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    /** Number of locks shared by the metadata and log files of all builds. */
+    private static final int FILE_LOCK_STRIPES = 1024;
+
+    /** Size of the blocks read while searching backwards for the start of the tail of a log. */
+    private static final int TAIL_BLOCK_SIZE = 8192;
+
+    /** Writer returned for builds that do not exist. */
+    private static final BuildLogWriter DISCARDING_LOG_WRITER = new BuildLogWriter() {
+        @Override
+        public void accept(String line) { }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void close() { }
+    };
+
+    private final StripedLocks fileLocks = new StripedLocks(FILE_LOCK_STRIPES);
+
+    /** Lock of the index file, kept apart so saving a build never waits for another build's files. */
+    private final Object indexLock = new Object();
+
+    private final ConcurrentHashMap<UUID, FileBuildLogWriter> openLogs = new ConcurrentHashMap<>();
+
+    private final BuildIndex index = new BuildIndex();
+
+    /**
+     * Index entries of the builds saved while the index file is rewritten, or null if it is
+     * not. Guarded by {@link #indexLock}.
+     */
+    private List<BuildSummary> savedDuringRewrite;
 
     private final Path buildRoot;
     private final Path indexFile;
+    private final int logBufferSize;
+    private final ScheduledExecutorService logFlusher;
+    private final boolean compressLogs;
+    private final ExecutorService logSealer;
+
+    /**
+     * Constructs a new instance of the FileBuildRepository, without reporting the time the
+     * recovery of the index takes.
+     *
+     * @see #FileBuildRepository(StorageProperties, MeterRegistry)
+     */
+    public FileBuildRepository(StorageProperties storageProperties) {
+        this(storageProperties, null);
+    }
 
     /**
      * Constructs a new instance of the FileBuildRepository.
@@ -49,10 +144,16 @@ public class FileBuildRepository implements BuildRepository {
      * directory serves as the root location for build artifacts and metadata.
      * <p>
      * Any failure to create the necessary directories will result in a runtime exception.
+     *
+     * @param storageProperties the storage settings
+     * @param meterRegistry the registry the time the recovery of the index takes is
+     *                      reported to, or null
      */
-    public FileBuildRepository(StorageProperties storageProperties) {
+    @Autowired
+    public FileBuildRepository(StorageProperties storageProperties, MeterRegistry meterRegistry) {
         this.buildRoot = Paths.get(storageProperties.buildsRoot()).toAbsolutePath().normalize();
         this.indexFile = buildRoot.resolve(INDEX_FILE_NAME);
+        this.logBufferSize = (int) Math.min(Integer.MAX_VALUE, storageProperties.logBufferSize().toBytes());
 
         try {
             Files.createDirectories(buildRoot); // Creates ~/dd2480-ci/builds if it doesn't already exist
@@ -62,6 +163,33 @@ public class FileBuildRepository implements BuildRepository {
         } catch (IOException e) {
             throw new RuntimeException("Failed to create builds path directory: " + buildRoot, e);
         }
+
+        long recoveryStart = System.nanoTime();
+        recoverIndex();
+        if (meterRegistry != null) {
+            Timer.builder("ci.storage.index.recovery")
+                    .description("Time taken to load and repair the build index on startup")
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - recoveryStart, TimeUnit.NANOSECONDS);
+        }
+
+        long flushIntervalMs = Math.max(1, storageProperties.logFlushInterval().toMillis());
+        this.logFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ci_build_log_flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logFlusher.scheduleWithFixedDelay(this::flushOpenLogs, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+
+        this.compressLogs = storageProperties.compressLogs();
+        this.logSealer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "ci_build_log_sealer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (compressLogs) {
+            logSealer.execute(this::sealFinishedLogs);
+        }
     }
 
     /**
@@ -84,10 +212,16 @@ public class FileBuildRepository implements BuildRepository {
             BuildSummary entry = new BuildSummary(
                     build.getBuildId(),
                     build.getCommitSha(),
-                    build.getCreatedAt()
+                    build.getCreatedAt(),
+                    build.getRepoOwner(),
+                    build.getRepoName()
             );
             atomicWriteToFile(metaPath, metaJsonString);
-            appendLineToFile(indexFile, toJsonString(entry)); // Only append to index after metadata has been persisted
+            synchronized (indexLock) {
+                appendLineToFile(indexFile, toJsonString(entry)); // Only append to index after metadata has been persisted
+                index.put(entry);
+                if (savedDuringRewrite != null) savedDuringRewrite.add(entry);
+            }
         }
         else {
             atomicWriteToFile(metaPath, metaJsonString);
@@ -125,8 +259,13 @@ public class FileBuildRepository implements BuildRepository {
         }
     }
 
+    /**
+     * @param path a file under the builds root, resolved from {@link #buildRoot}, which is
+     *             already absolute and normalized
+     * @return the lock guarding writes to the file
+     */
     private Object lockFor(Path path) {
-        return fileLocks.computeIfAbsent(path.toAbsolutePath().normalize(), p -> new Object());
+        return fileLocks.lockFor(path);
     }
 
     private void atomicWriteToFile(Path file, String content) {
@@ -164,9 +303,166 @@ public class FileBuildRepository implements BuildRepository {
         }
     }
 
+    /**
+     * Opens the log of the specified build for writing. While the log is open, the same
+     * writer is returned, and {@link #appendToLog} appends through it as well. A sealed
+     * log is turned back into plain text first.
+     *
+     * @param buildId the unique identifier of the build whose log is written
+     * @return a writer appending to the build's log, or a writer discarding all lines
+     *         if the build directory does not exist
+     */
+    @Override
+    public BuildLogWriter openLog(UUID buildId) {
+        Path buildDir = getBuildDirectory(buildId);
+
+        if (!Files.isDirectory(buildDir)) {
+            return DISCARDING_LOG_WRITER;
+        }
+
+        Path logPath = buildDir.resolve(LOG_FILE_NAME);
+        synchronized (lockFor(logPath)) {
+            return openLogs.computeIfAbsent(buildId, id -> {
+                unseal(buildDir);
+                return new FileBuildLogWriter(logPath, logBufferSize, () -> onLogClosed(id));
+            });
+        }
+    }
+
+    private void onLogClosed(UUID buildId) {
+        openLogs.remove(buildId);
+        if (!compressLogs) return;
+        try {
+            logSealer.execute(() -> sealLog(buildId));
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the log is sealed after the next start
+        }
+    }
+
+    /**
+     * Seals the plain text log of a build, unless it is open for writing again.
+     */
+    private void sealLog(UUID buildId) {
+        Path buildDir = getBuildDirectory(buildId);
+        Path logPath = buildDir.resolve(LOG_FILE_NAME);
+
+        synchronized (lockFor(logPath)) {
+            if (openLogs.containsKey(buildId) || !Files.exists(logPath)) return;
+            try {
+                SealedLog.seal(logPath, buildDir.resolve(SEALED_LOG_FILE_NAME), SealedLog.BLOCK_SIZE);
+                Files.delete(logPath); // Readers that opened the plain log before keep reading it
+            } catch (IOException e) {
+                System.out.println("Failed to seal build log " + logPath + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Seals the plain text logs of finished builds, such as those written before logs
+     * were sealed, or those whose writer was closed while shutting down. A plain log next
+     * to a sealed one is never older than the sealed one, so it is sealed again.
+     */
+    private void sealFinishedLogs() {
+        int sealed = 0;
+        for (BuildSummary summary : index.all()) {
+            if (Thread.currentThread().isInterrupted()) return;
+
+            UUID buildId = summary.buildId();
+            Path buildDir = getBuildDirectory(buildId);
+            if (!Files.exists(buildDir.resolve(LOG_FILE_NAME))) continue;
+
+            try {
+                boolean finished = Files.exists(buildDir.resolve(SEALED_LOG_FILE_NAME))
+                        || findById(buildId).map(build -> build.getStatus().isTerminal()).orElse(false);
+                if (!finished) continue;
+            } catch (RuntimeException e) {
+                continue; // Unreadable metadata, leave the log as it is
+            }
+            sealLog(buildId);
+            sealed++;
+        }
+        if (sealed > 0) {
+            System.out.println("Sealed the logs of " + sealed + " finished builds");
+        }
+    }
+
+    /**
+     * Turns a sealed log back into plain text, so it can be appended to. The caller holds
+     * the lock of the plain log.
+     */
+    private void unseal(Path buildDir) {
+        Path sealedPath = buildDir.resolve(SEALED_LOG_FILE_NAME);
+        if (!Files.exists(sealedPath)) return;
+
+        Path logPath = buildDir.resolve(LOG_FILE_NAME);
+        Path tmp = logPath.resolveSibling(logPath.getFileName() + ".tmp");
+        try {
+            try (SealedLog sealed = SealedLog.open(sealedPath);
+                 InputStream in = sealed.newInputStream()) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(tmp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(sealedPath);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to unseal log file: " + sealedPath, e);
+        }
+    }
+
+    /**
+     * Opens the log of a build for reading, whether it is sealed or not.
+     *
+     * @throws NoSuchFileException if the build has not logged anything
+     */
+    private LogSource openLogSource(Path buildDir) throws IOException {
+        Path sealedPath = buildDir.resolve(SEALED_LOG_FILE_NAME);
+        Path logPath = buildDir.resolve(LOG_FILE_NAME);
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (Files.exists(sealedPath)) return SealedLog.open(sealedPath);
+                return LogSource.of(FileChannel.open(logPath, StandardOpenOption.READ));
+            } catch (NoSuchFileException e) {
+                // Sealed or unsealed in the meantime, look again
+                if (attempt > 0) throw e;
+            }
+        }
+    }
+
+    private void flushOpenLogs() {
+        for (FileBuildLogWriter writer : openLogs.values()) {
+            try {
+                writer.flush();
+            } catch (RuntimeException e) {
+                System.out.println("Failed to flush build log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the background flusher, closes the logs that are still open and waits a moment
+     * for the logs being sealed.
+     */
+    @PreDestroy
+    public void close() {
+        logFlusher.shutdown();
+        for (FileBuildLogWriter writer : openLogs.values()) {
+            writer.close();
+        }
+
+        logSealer.shutdown();
+        try {
+            if (!logSealer.awaitTermination(5, TimeUnit.SECONDS)) {
+                logSealer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            logSealer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Appends a log chunk to the log file associated with the specified build id.
-     * If the build directory does not exist, an exception is thrown.
+     * If the log is open, the chunk is appended through its writer.
      *
      * @param buildId the unique identifier of the build whose log is being updated
      * @param chunk the log chunk to append to the build's log
@@ -181,8 +477,17 @@ public class FileBuildRepository implements BuildRepository {
             return false;
         }
 
+        FileBuildLogWriter writer = openLogs.get(buildId);
+        if (writer != null) {
+            writer.accept(chunk);
+            return true;
+        }
+
         Path logPath = buildDir.resolve(LOG_FILE_NAME);
-        appendLineToFile(logPath, chunk);
+        synchronized (lockFor(logPath)) {
+            unseal(buildDir);
+            appendLineToFile(logPath, chunk);
+        }
         return true;
     }
 
@@ -199,25 +504,451 @@ public class FileBuildRepository implements BuildRepository {
     }
 
     /**
-     * Retrieves a list of all build entries from the index file.
+     * @return the number of bytes the files of a build take up, 0 if it has no directory
+     */
+    long diskUsage(UUID buildId) {
+        Path buildDir = getBuildDirectory(buildId);
+        if (!Files.isDirectory(buildDir)) return 0;
+
+        try (Stream<Path> files = Files.walk(buildDir)) {
+            return files.mapToLong(file -> {
+                try {
+                    return Files.isRegularFile(file) ? Files.size(file) : 0;
+                } catch (IOException e) {
+                    return 0; // Removed meanwhile, such as a log that was sealed
+                }
+            }).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Replaces the entry of a build in the in-memory index, such as to add the repository
+     * to an entry written before it was recorded. The index file is updated the next time
+     * it is rewritten.
      *
-     * @return a list of builds
+     * @param summary the new entry of the build
      */
-    @Override
-    public List<BuildSummary> listAll() {
-        List<BuildSummary> builds = new ArrayList<>();
+    void updateSummary(BuildSummary summary) {
+        index.put(summary);
+    }
+
+    /**
+     * Removes builds from the store. The index file is rewritten without them first, then
+     * their directories are deleted, or moved to the archive root if one is given, where
+     * their entries are appended to an index file of the archive. Builds whose log is
+     * open are kept, and so are builds whose metadata could not be removed, which get
+     * their entry back instead of being recovered on the next start.
+     *
+     * @param builds the builds to remove
+     * @param archiveRoot the directory to move the builds to, or null to delete them
+     * @return the builds removed
+     * @throws RuntimeException if the index file cannot be rewritten, no build is removed then
+     */
+    List<BuildSummary> removeBuilds(List<BuildSummary> builds, Path archiveRoot) {
+        List<BuildSummary> removed = builds.stream()
+                .filter(summary -> !openLogs.containsKey(summary.buildId()))
+                .toList();
+        if (removed.isEmpty()) return removed;
+
+        rewriteIndex(removed);
+
+        List<BuildSummary> kept = new ArrayList<>();
+        for (BuildSummary summary : removed) {
+            Path buildDir = getBuildDirectory(summary.buildId());
+            Path logPath = buildDir.resolve(LOG_FILE_NAME);
+            synchronized (lockFor(logPath)) {
+                try {
+                    if (archiveRoot != null) {
+                        archiveDirectory(buildDir, archiveRoot, summary);
+                    } else {
+                        deleteBuildDirectory(buildDir);
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    System.out.println("Failed to remove build directory " + buildDir + ": " + e.getMessage());
+                    if (Files.exists(buildDir.resolve(META_FILE_NAME))) kept.add(summary);
+                }
+            }
+        }
+
+        if (kept.isEmpty()) return removed;
+        restoreEntries(kept);
+        return removed.stream().filter(summary -> !kept.contains(summary)).toList();
+    }
+
+    /**
+     * Removes builds from the in-memory index and replaces the index file by one without
+     * them. The kept entries are written without holding {@link #indexLock}, so
+     * builds can be saved meanwhile; their entries are added before the new file replaces
+     * the old one.
+     */
+    private void rewriteIndex(List<BuildSummary> removed) {
+        Path tmp = indexFile.resolveSibling(INDEX_FILE_NAME + ".tmp");
+        Object lock = indexLock;
+
+        List<BuildSummary> kept;
+        synchronized (lock) {
+            removed.forEach(index::remove);
+            kept = index.all();
+            savedDuringRewrite = new ArrayList<>();
+        }
+
+        try (FileChannel channel = FileChannel.open(tmp,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+            for (BuildSummary summary : kept) {
+                writer.write(toJsonString(summary));
+                writer.write(System.lineSeparator());
+            }
+
+            synchronized (lock) {
+                for (BuildSummary summary : savedDuringRewrite) {
+                    writer.write(toJsonString(summary));
+                    writer.write(System.lineSeparator());
+                }
+                writer.flush();
+                channel.force(true);
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                savedDuringRewrite = null;
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                savedDuringRewrite = null;
+                removed.forEach(index::put);
+            }
+            throw new RuntimeException("Failed to rewrite build index: " + indexFile, e);
+        }
+    }
+
+    private void archiveDirectory(Path buildDir, Path archiveRoot, BuildSummary summary) throws IOException {
+        Files.createDirectories(archiveRoot);
+        Path target = archiveRoot.resolve(buildDir.getFileName());
+        try {
+            Files.move(buildDir, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // The archive is on another file system, copy the build over
+            try (Stream<Path> files = Files.walk(buildDir)) {
+                for (Path file : files.toList()) {
+                    Files.copy(file, target.resolve(buildDir.relativize(file).toString()), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            deleteBuildDirectory(buildDir);
+        }
+        appendLineToFile(archiveRoot.resolve(INDEX_FILE_NAME), toJsonString(summary));
+    }
+
+    /**
+     * Deletes the directory of a removed build, its metadata first, so that a directory
+     * that is only partly deleted is not recovered as a build on the next start.
+     *
+     * @throws IOException if the metadata cannot be deleted, the rest is then left as it is
+     */
+    private static void deleteBuildDirectory(Path buildDir) throws IOException {
+        Files.deleteIfExists(buildDir.resolve(META_FILE_NAME));
+        int failures = FileTrees.deleteTree(buildDir);
+        if (failures > 0) {
+            System.out.println("Failed to delete " + failures + " file(s) of removed build directory " + buildDir);
+        }
+    }
+
+    /**
+     * Adds the entries of builds that could not be removed back to the index.
+     */
+    private void restoreEntries(List<BuildSummary> kept) {
+        StringBuilder lines = new StringBuilder();
+        for (BuildSummary summary : kept) {
+            lines.append(toJsonString(summary)).append(System.lineSeparator());
+        }
+        synchronized (indexLock) {
+            try {
+                appendToFile(indexFile, lines.toString());
+            } catch (RuntimeException e) {
+                // Their directories still have metadata, so they are added when the index is recovered
+                System.out.println("Failed to restore " + kept.size() + " build(s) in the index file: " + e.getMessage());
+            }
+            kept.forEach(index::put);
+            if (savedDuringRewrite != null) savedDuringRewrite.addAll(kept);
+        }
+    }
+
+    /**
+     * Loads the index file into the in-memory index, and repairs it against the build
+     * directories, as left by a crash:
+     * <ul>
+     *   <li>A torn last entry is cut off the index file, so the next entry is not appended
+     *       to it. Other entries that cannot be parsed are skipped.</li>
+     *   <li>Builds whose directory has metadata but no entry, because the crash happened
+     *       before the entry was appended, are added.</li>
+     *   <li>Entries whose directory is gone are dropped.</li>
+     *   <li>Build directories without metadata, because the crash happened before it was
+     *       written, are deleted if they are empty.</li>
+     * </ul>
+     * The builds root is listed once; the metadata of the directories without an entry is
+     * read in parallel, so even an index that was lost entirely is rebuilt quickly. The
+     * index file is rewritten if entries were dropped or skipped, otherwise the added
+     * entries are appended to it.
+     */
+    private void recoverIndex() {
+        long start = System.nanoTime();
+        IndexFileScan scan = scanIndexFile();
+        Map<UUID, BuildSummary> entries = scan.entries();
+
+        // Listing the builds root is enough to find the entries without a directory
+        Set<UUID> buildDirs = new HashSet<>();
+        List<Path> unindexed = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(buildRoot)) {
+            for (Path dir : dirs) {
+                UUID buildId = parseBuildId(dir.getFileName().toString());
+                if (buildId == null) continue;
+                buildDirs.add(buildId);
+                if (!entries.containsKey(buildId)) unindexed.add(dir);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list build directories: " + buildRoot, e);
+        }
+        List<BuildSummary> dropped = entries.values().stream()
+                .filter(summary -> !buildDirs.contains(summary.buildId()))
+                .toList();
+
+        List<BuildSummary> added = unindexed.isEmpty() ? new ArrayList<>() : recoverSummaries(unindexed);
+
+        dropped.forEach(summary -> entries.remove(summary.buildId()));
+        added.sort(Comparator.comparing(BuildSummary::createdAt));
+        added.forEach(summary -> entries.put(summary.buildId(), summary));
+
+        try {
+            if (!dropped.isEmpty() || scan.skipped() > 0) {
+                writeIndexFile(entries.values());
+            } else if (!added.isEmpty()) {
+                StringBuilder lines = new StringBuilder();
+                for (BuildSummary summary : added) {
+                    lines.append(toJsonString(summary)).append(System.lineSeparator());
+                }
+                appendToFile(indexFile, lines.toString());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to repair build index: " + indexFile, e);
+        }
+        entries.values().forEach(index::put);
+
+        if (scan.tornTail() || scan.skipped() > 0 || !dropped.isEmpty() || !added.isEmpty()) {
+            System.out.println("Repaired build index in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                    + " ms: " + (scan.tornTail() ? "cut off a torn entry, " : "")
+                    + "skipped " + scan.skipped() + " unreadable entries, added " + added.size()
+                    + " builds, dropped " + dropped.size() + " builds without a directory");
+        }
+    }
+
+    /**
+     * Entries of the index file.
+     *
+     * @param entries the entries that could be parsed, by build id, in the order of the file
+     * @param tornTail whether the file ended in a torn entry, which has been cut off
+     * @param skipped the number of lines that could not be parsed
+     */
+    private record IndexFileScan(Map<UUID, BuildSummary> entries, boolean tornTail, int skipped) { }
+
+    private IndexFileScan scanIndexFile() {
+        boolean tornTail = cutOffTornEntry();
+        Map<UUID, BuildSummary> entries = new LinkedHashMap<>();
+        int skipped = 0;
 
         try (BufferedReader reader = Files.newBufferedReader(indexFile)) {
             String line;
             while ((line = reader.readLine()) != null) {
-                BuildSummary entry = fromJsonString(line, BuildSummary.class);
-                builds.add(entry);
+                if (line.isBlank()) continue;
+
+                BuildSummary summary = parseSummary(line);
+                if (summary == null) {
+                    System.out.println("Skipping unreadable build index entry: " + line);
+                    skipped++;
+                } else {
+                    entries.put(summary.buildId(), summary);
+                }
             }
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new RuntimeException("Failed to read build index: " + indexFile, e);
+        }
+        return new IndexFileScan(entries, tornTail, skipped);
+    }
+
+    /**
+     * Cuts off the end of the index file after its last line separator, left by a crash in
+     * the middle of appending an entry. The build of the entry is added back from its
+     * directory.
+     *
+     * @return whether the index file had a torn last entry
+     */
+    private boolean cutOffTornEntry() {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            LogSource source = LogSource.of(channel);
+            long size = channel.size();
+            ByteBuffer block = ByteBuffer.allocate(TAIL_BLOCK_SIZE);
+            long end = size;
+
+            while (end > 0) {
+                long blockStart = Math.max(0, end - block.capacity());
+                block.clear().limit((int) (end - blockStart));
+                readFully(source, block, blockStart);
+                for (int i = block.limit() - 1; i >= 0; i--) {
+                    if (block.get(i) == '\n') {
+                        return truncate(channel, blockStart + i + 1, size);
+                    }
+                }
+                end = blockStart;
+            }
+            return truncate(channel, 0, size);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read build index: " + indexFile, e);
+        }
+    }
+
+    private static boolean truncate(FileChannel channel, long length, long size) throws IOException {
+        if (length == size) return false;
+        channel.truncate(length);
+        return true;
+    }
+
+    private static BuildSummary parseSummary(String json) {
+        try {
+            BuildSummary summary = MAPPER.readValue(json, BuildSummary.class);
+            return summary.buildId() == null || summary.createdAt() == null ? null : summary;
+        } catch (JsonProcessingException e) {
+            return null;
         }
+    }
 
-        return builds;
+    private static UUID parseBuildId(String name) {
+        try {
+            return UUID.fromString(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the index entry of a build directory without one, read from its metadata,
+     *         or null if it has no readable metadata
+     */
+    private BuildSummary recoverSummary(Path buildDir) {
+        Path metaPath = buildDir.resolve(META_FILE_NAME);
+        try {
+            BuildMetaFile meta = MAPPER.readValue(Files.readString(metaPath), BuildMetaFile.class);
+            return new BuildSummary(meta.buildId(), meta.commitSha(), meta.createdAt(), meta.repoOwner(), meta.repoName());
+        } catch (NoSuchFileException e) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(buildDir)) {
+                if (!files.iterator().hasNext()) Files.delete(buildDir);
+            } catch (IOException ignored) {
+                // Left as it is
+            }
+            return null;
+        } catch (IOException e) {
+            System.out.println("Skipping build directory with unreadable metadata: " + buildDir);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the index entries of build directories from their metadata, spread over
+     * {@link #RECOVERY_THREADS} threads.
+     *
+     * @return the entries of the directories with readable metadata
+     */
+    private List<BuildSummary> recoverSummaries(List<Path> buildDirs) {
+        ExecutorService recovery = Executors.newFixedThreadPool(RECOVERY_THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ci_index_recovery-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            return inParallel(recovery, buildDirs, this::recoverSummary);
+        } finally {
+            recovery.shutdownNow();
+        }
+    }
+
+    /**
+     * Applies a task to every item, spread over the threads of an executor.
+     *
+     * @return the results of the task that are not null, in no particular order
+     */
+    private static <T, R> List<R> inParallel(ExecutorService executor, List<T> items, Function<T, R> task) {
+        int chunkSize = Math.max(256, items.size() / (RECOVERY_THREADS * 4) + 1);
+        List<Future<List<R>>> chunks = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += chunkSize) {
+            List<T> chunk = items.subList(from, Math.min(items.size(), from + chunkSize));
+            chunks.add(executor.submit(() -> {
+                List<R> results = new ArrayList<>();
+                for (T item : chunk) {
+                    R result = task.apply(item);
+                    if (result != null) results.add(result);
+                }
+                return results;
+            }));
+        }
+
+        List<R> results = new ArrayList<>();
+        try {
+            for (Future<List<R>> chunk : chunks) {
+                results.addAll(chunk.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while recovering the build index", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to recover the build index", e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Replaces the index file by one with the given entries.
+     */
+    private void writeIndexFile(Collection<BuildSummary> entries) throws IOException {
+        Path tmp = indexFile.resolveSibling(INDEX_FILE_NAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+            for (BuildSummary summary : entries) {
+                writer.write(toJsonString(summary));
+                writer.write(System.lineSeparator());
+            }
+            writer.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Retrieves a list of all build entries from the in-memory index.
+     *
+     * @return a list of builds
+     */
+    @Override
+    public List<BuildSummary> listAll() {
+        return index.all();
+    }
+
+    /**
+     * Retrieves a page of build entries created in a range of time from the in-memory index.
+     *
+     * @param cursor the cursor returned with the previous page, or null for the first page
+     * @param limit the maximum number of builds on the page
+     * @param newestFirst whether the builds are ordered newest first instead of oldest first
+     * @param createdFrom the earliest creation date of the builds, inclusive, or null for no bound
+     * @param createdTo the latest creation date of the builds, exclusive, or null for no bound
+     * @return the page of builds
+     * @throws IllegalArgumentException if the cursor is malformed or the range is reversed
+     */
+    @Override
+    public BuildPage listPage(String cursor, int limit, boolean newestFirst, Instant createdFrom, Instant createdTo) {
+        return index.page(cursor, limit, newestFirst, createdFrom, createdTo);
     }
 
     /**
@@ -266,12 +997,16 @@ public class FileBuildRepository implements BuildRepository {
     @Override
     public Optional<LogFile> getLog(UUID buildId) {
         Path buildDir = getBuildDirectory(buildId);
-        Path logPath = buildDir.resolve(LOG_FILE_NAME);
 
         // Check if the build exists
         if (!Files.isDirectory(buildDir)) return Optional.empty();
 
-        try (BufferedReader reader = Files.newBufferedReader(logPath)) {
+        // Make the lines still buffered for a running build visible
+        FileBuildLogWriter writer = openLogs.get(buildId);
+        if (writer != null) writer.flush();
+
+        try (LogSource source = openLogSource(buildDir);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(source.newInputStream(), StandardCharsets.UTF_8))) {
             StringBuilder sb = new StringBuilder();
             String line;
             while ((line = reader.readLine()) != null) {
@@ -282,4 +1017,147 @@ public class FileBuildRepository implements BuildRepository {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Retrieves a byte range of the log file associated with a specified build ID, using
+     * a positional read so only the requested range is loaded into memory. Of a sealed
+     * log, only the blocks the range falls into are decompressed.
+     * <p>
+     * A build that has not logged anything yet has an empty log.
+     *
+     * @param buildId the unique identifier of the build whose log is being retrieved
+     * @param offset the byte offset to start reading at
+     * @param limit the maximum number of bytes to read
+     * @return an {@link Optional} containing the {@link LogChunk} read, or an empty
+     *         {@link Optional} if the build does not exist
+     * @throws RuntimeException if an I/O error occurs when reading the log
+     */
+    @Override
+    public Optional<LogChunk> readLog(UUID buildId, long offset, int limit) {
+        Path buildDir = getBuildDirectory(buildId);
+        Path logPath = buildDir.resolve(LOG_FILE_NAME);
+
+        // Check if the build exists
+        if (!Files.isDirectory(buildDir)) return Optional.empty();
+
+        FileBuildLogWriter writer = openLogs.get(buildId);
+        if (writer != null) writer.flush();
+
+        try (LogSource source = openLogSource(buildDir)) {
+            return Optional.of(readRange(source, offset, limit));
+        } catch (NoSuchFileException e) {
+            return Optional.of(new LogChunk("", 0, 0, 0));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read log file: " + logPath, e);
+        }
+    }
+
+    /**
+     * Retrieves the last lines of the log file associated with a specified build ID.
+     * <p>
+     * The log is scanned backwards in blocks for the start of the lines, so at most
+     * {@code limit} bytes of the log are loaded into memory.
+     *
+     * @param buildId the unique identifier of the build whose log is being retrieved
+     * @param lines the number of lines to retrieve
+     * @param limit the maximum number of bytes to read
+     * @return an {@link Optional} containing the {@link LogChunk} read, or an empty
+     *         {@link Optional} if the build does not exist
+     * @throws RuntimeException if an I/O error occurs when reading the log
+     */
+    @Override
+    public Optional<LogChunk> tailLog(UUID buildId, int lines, int limit) {
+        Path buildDir = getBuildDirectory(buildId);
+        Path logPath = buildDir.resolve(LOG_FILE_NAME);
+
+        // Check if the build exists
+        if (!Files.isDirectory(buildDir)) return Optional.empty();
+
+        FileBuildLogWriter writer = openLogs.get(buildId);
+        if (writer != null) writer.flush();
+
+        try (LogSource source = openLogSource(buildDir)) {
+            long size = source.size();
+            long start = findTailStart(source, size, lines, limit);
+            return Optional.of(readRange(source, start, (int) (size - start)));
+        } catch (NoSuchFileException e) {
+            return Optional.of(new LogChunk("", 0, 0, 0));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read log file: " + logPath, e);
+        }
+    }
+
+    /**
+     * Finds the offset the last lines of a log start at, scanning backwards from the end.
+     * A line separator at the very end of the log does not start an empty last line.
+     *
+     * @return the offset of the first of the lines, but no further back than {@code limit} bytes
+     */
+    private long findTailStart(LogSource source, long size, int lines, int limit) throws IOException {
+        long lowest = Math.max(0, size - limit);
+        if (lines <= 0) return size;
+
+        ByteBuffer block = ByteBuffer.allocate((int) Math.min(TAIL_BLOCK_SIZE, Math.max(1, size)));
+        long end = size - 1; // Skip the separator ending the last line
+        int found = 0;
+
+        while (end > lowest) {
+            long blockStart = Math.max(lowest, end - block.capacity());
+            block.clear().limit((int) (end - blockStart));
+            readFully(source, block, blockStart);
+
+            for (int i = block.limit() - 1; i >= 0; i--) {
+                if (block.get(i) == '\n' && ++found == lines) {
+                    return blockStart + i + 1;
+                }
+            }
+            end = blockStart;
+        }
+        return lowest;
+    }
+
+    /**
+     * Reads and decodes a byte range of a log, shrunk to whole UTF-8 characters.
+     */
+    private LogChunk readRange(LogSource source, long offset, int limit) throws IOException {
+        long size = source.size();
+        long start = Math.max(0, Math.min(offset, size));
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(limit, size - start)));
+        readFully(source, buffer, start);
+
+        byte[] bytes = buffer.array();
+        int from = 0;
+        int to = buffer.position();
+
+        // Skip the rest of a character the range starts inside of
+        while (start + from > 0 && from < to && isContinuationByte(bytes[from])) from++;
+
+        // Leave a character cut off at the end for the next range
+        for (int i = to - 1; i >= Math.max(from, to - 4); i--) {
+            if (isContinuationByte(bytes[i])) continue;
+            if (i + utf8Length(bytes[i]) > to) to = i;
+            break;
+        }
+
+        String content = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        return new LogChunk(content, start + from, start + to, size);
+    }
+
+    private static void readFully(LogSource source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, position + buffer.position());
+            if (read < 0) break;
+        }
+    }
+
+    private static boolean isContinuationByte(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    private static int utf8Length(byte lead) {
+        if ((lead & 0x80) == 0) return 1;
+        if ((lead & 0xE0) == 0xC0) return 2;
+        if ((lead & 0xF0) == 0xE0) return 3;
+        return 4;
+    }
 }
@@ -0,0 +1,65 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Operations on directory trees of the file system, shared by the build store and the
+ * caches and workspaces of the build workers.
+ */
+public final class FileTrees {
+
+    private FileTrees() { }
+
+    /**
+     * Deletes a file, or a directory and everything in it, continuing past files that
+     * cannot be deleted.
+     *
+     * @param path the file or directory to delete
+     * @return the number of files and directories that could not be deleted
+     */
+    public static int deleteTree(Path path) {
+        AtomicInteger failures = new AtomicInteger();
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    tryDelete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    if (!(exc instanceof NoSuchFileException)) tryDelete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                    tryDelete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                private void tryDelete(Path file) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        if (failures.getAndIncrement() == 0) {
+                            System.out.println("Failed to delete " + file + ": " + e);
+                        }
+                    }
+                }
+            });
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            System.out.println("Failed to delete " + path + ": " + e);
+        }
+        return failures.get();
+    }
+}
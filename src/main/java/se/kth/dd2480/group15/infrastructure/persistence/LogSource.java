@@ -0,0 +1,74 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The bytes of a build log, readable at any position, whether the log is stored as plain
+ * text or sealed in a {@link SealedLog}.
+ */
+interface LogSource extends Closeable {
+
+    /**
+     * @return the size of the log in bytes, as plain text
+     */
+    long size() throws IOException;
+
+    /**
+     * Reads bytes of the log, starting at the given position, into a buffer.
+     *
+     * @param dst the buffer to read into
+     * @param position the position in the log to start reading at
+     * @return the number of bytes read, or {@code -1} if the position is at or past the end
+     */
+    int read(ByteBuffer dst, long position) throws IOException;
+
+    /**
+     * @return a stream reading the log from the start, the stream does not close the log
+     */
+    default InputStream newInputStream() {
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                int read = LogSource.this.read(ByteBuffer.wrap(b, off, len), position);
+                if (read > 0) position += read;
+                return read;
+            }
+        };
+    }
+
+    /**
+     * @param channel a channel reading a plain text log
+     * @return the log read through the channel, closing the channel once closed
+     */
+    static LogSource of(FileChannel channel) {
+        return new LogSource() {
+            @Override
+            public long size() throws IOException {
+                return channel.size();
+            }
+
+            @Override
+            public int read(ByteBuffer dst, long position) throws IOException {
+                return channel.read(dst, position);
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,80 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.domain.StatusNotification;
+import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persists the commit statuses that still have to be sent to GitHub, stored as
+ * {@code notifications.json} in the builds root, so they survive a restart.
+ * <p>
+ * The whole file is rewritten, atomically, on every save; the outbox collects changes for a
+ * short while before saving them, so a burst of statuses costs a few saves.
+ */
+@Component
+public class NotificationStore {
+
+    public static final String STORE_FILE_NAME = "notifications.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Path storeFile;
+
+    /**
+     * Constructs a new NotificationStore in the builds root.
+     *
+     * @param storageProperties the storage settings containing the builds root
+     */
+    public NotificationStore(StorageProperties storageProperties) {
+        Path buildRoot = Paths.get(storageProperties.buildsRoot()).toAbsolutePath().normalize();
+        this.storeFile = buildRoot.resolve(STORE_FILE_NAME);
+
+        try {
+            Files.createDirectories(buildRoot);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create builds path directory: " + buildRoot, e);
+        }
+    }
+
+    /**
+     * Reads the pending statuses. An unreadable file is treated as empty.
+     *
+     * @return the pending statuses, in the order they were stored
+     */
+    public List<StatusNotification> load() {
+        if (!Files.exists(storeFile)) return new ArrayList<>();
+
+        try {
+            return MAPPER.readValue(storeFile.toFile(), new TypeReference<List<StatusNotification>>() { });
+        } catch (IOException e) {
+            System.out.println("Skipping unreadable pending notifications: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Replaces the stored pending statuses.
+     *
+     * @param notifications the statuses that still have to be sent
+     */
+    public synchronized void save(List<StatusNotification> notifications) {
+        Path tmp = storeFile.resolveSibling(STORE_FILE_NAME + ".tmp");
+        try {
+            MAPPER.writeValue(tmp.toFile(), notifications);
+            try {
+                Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write pending notifications: " + storeFile, e);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The log of a finished build, compressed in blocks that can be decompressed on their own.
+ * <p>
+ * The plain text of the log is cut into blocks of a fixed size, and each block is
+ * compressed separately with deflate. The blocks are followed by an index with the offset
+ * of every compressed block in the file, and a trailer:
+ * <pre>
+ * [block 0] ... [block n-1] [offset 0] ... [offset n] [size] [block size] [n] [magic]
+ * </pre>
+ * Offset {@code n} is where the index starts. A range of the log is read by decompressing
+ * only the blocks it falls into, so reading a page or the tail of a sealed log costs about
+ * the same whatever the size of the log. The last block decompressed is kept, so reading
+ * the log sequentially decompresses every block once.
+ * <p>
+ * Instances are not thread-safe; every read of a log opens its own.
+ */
+final class SealedLog implements LogSource {
+
+    /** Size of the plain text blocks the log is compressed in. */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /** Marks the end of a sealed log, "CILZ". */
+    private static final int MAGIC = 0x43494C5A;
+
+    private static final int TRAILER_SIZE = Long.BYTES + 3 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int blockSize;
+    private final long[] offsets;
+
+    private final Inflater inflater = new Inflater();
+    private final byte[] block;
+    private byte[] compressed = new byte[0];
+    private int cachedBlock = -1;
+    private int cachedLength;
+
+    private SealedLog(FileChannel channel, long size, int blockSize, long[] offsets) {
+        this.channel = channel;
+        this.size = size;
+        this.blockSize = blockSize;
+        this.offsets = offsets;
+        this.block = new byte[blockSize];
+    }
+
+    /**
+     * Compresses a plain text log into a sealed log. The sealed log is written to a
+     * temporary file first and moved into place once it is complete and synced to disk,
+     * so a sealed log is never seen half written. The plain text log is left in place.
+     *
+     * @param plain the plain text log
+     * @param sealed the file to write the sealed log to, replaced if it exists
+     * @param blockSize the size of the plain text blocks
+     * @return the size of the sealed log in bytes
+     * @throws IOException if the plain text log cannot be read or the sealed log written
+     */
+    static long seal(Path plain, Path sealed, int blockSize) throws IOException {
+        Path tmp = sealed.resolveSibling(sealed.getFileName() + ".tmp");
+        Deflater deflater = new Deflater();
+        long written;
+
+        try (InputStream in = Files.newInputStream(plain);
+             FileChannel channel = FileChannel.open(tmp,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), blockSize));
+            byte[] raw = new byte[blockSize];
+            byte[] buffer = new byte[blockSize];
+            long[] offsets = new long[16];
+            int blocks = 0;
+            long size = 0;
+            long position = 0;
+            int read;
+
+            while ((read = in.readNBytes(raw, 0, blockSize)) > 0) {
+                if (blocks + 1 == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                offsets[blocks++] = position;
+                size += read;
+
+                deflater.reset();
+                deflater.setInput(raw, 0, read);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int compressed = deflater.deflate(buffer);
+                    out.write(buffer, 0, compressed);
+                    position += compressed;
+                }
+            }
+            offsets[blocks] = position;
+
+            for (int i = 0; i <= blocks; i++) {
+                out.writeLong(offsets[i]);
+            }
+            out.writeLong(size);
+            out.writeInt(blockSize);
+            out.writeInt(blocks);
+            out.writeInt(MAGIC);
+            out.flush();
+            channel.force(true);
+            written = channel.size();
+        } finally {
+            deflater.end();
+        }
+
+        try {
+            Files.move(tmp, sealed, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, sealed, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return written;
+    }
+
+    /**
+     * Opens a sealed log for reading, loading its index.
+     *
+     * @param sealed the sealed log
+     * @return the opened log
+     * @throws IOException if the log cannot be read or is not a sealed log
+     */
+    static SealedLog open(Path sealed) throws IOException {
+        FileChannel channel = FileChannel.open(sealed, StandardOpenOption.READ);
+        try {
+            long fileSize = channel.size();
+            if (fileSize < TRAILER_SIZE) throw new IOException("Not a sealed log: " + sealed);
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            readFully(channel, trailer, fileSize - TRAILER_SIZE);
+            trailer.flip();
+            long size = trailer.getLong();
+            int blockSize = trailer.getInt();
+            int blocks = trailer.getInt();
+            if (trailer.getInt() != MAGIC || blockSize <= 0 || blocks < 0
+                    || (blocks + 1L) * Long.BYTES > fileSize - TRAILER_SIZE || size > (long) blocks * blockSize) {
+                throw new IOException("Not a sealed log: " + sealed);
+            }
+
+            ByteBuffer index = ByteBuffer.allocate((blocks + 1) * Long.BYTES);
+            readFully(channel, index, fileSize - TRAILER_SIZE - index.capacity());
+            index.flip();
+            long[] offsets = new long[blocks + 1];
+            for (int i = 0; i <= blocks; i++) {
+                offsets[i] = index.getLong();
+            }
+            return new SealedLog(channel, size, blockSize, offsets);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        if (position >= size) return -1;
+
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            int index = (int) (position / blockSize);
+            inflate(index);
+            int from = (int) (position - (long) index * blockSize);
+            int length = Math.min(dst.remaining(), cachedLength - from);
+            if (length <= 0) throw new IOException("Sealed log is shorter than its index");
+
+            dst.put(block, from, length);
+            position += length;
+            total += length;
+        }
+        return total;
+    }
+
+    /**
+     * Decompresses a block into {@link #block}, unless it is already there.
+     */
+    private void inflate(int index) throws IOException {
+        if (index == cachedBlock) return;
+        cachedBlock = -1;
+
+        int length = (int) (offsets[index + 1] - offsets[index]);
+        if (compressed.length < length) compressed = new byte[length];
+        ByteBuffer input = ByteBuffer.wrap(compressed, 0, length);
+        readFully(channel, input, offsets[index]);
+
+        inflater.reset();
+        inflater.setInput(compressed, 0, input.position());
+        int inflated = 0;
+        try {
+            while (!inflater.finished() && inflated < block.length) {
+                int n = inflater.inflate(block, inflated, block.length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated block in sealed log");
+                }
+                inflated += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in sealed log", e);
+        }
+
+        cachedBlock = index;
+        cachedLength = inflated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) break;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+/**
+ * A fixed number of lock objects shared by any number of keys.
+ * <p>
+ * Each key is mapped to one of the locks by its hash code, so the same key always gets the
+ * same lock and the memory used stays the same however many keys are locked. Different
+ * keys may share a lock, which only makes them wait for each other; code holding a lock
+ * must therefore not wait for another one, except one it is sure to already hold.
+ */
+final class StripedLocks {
+
+    private final Object[] locks;
+    private final int mask;
+
+    /**
+     * Constructs a new StripedLocks.
+     *
+     * @param stripes the minimum number of locks, rounded up to a power of two
+     */
+    StripedLocks(int stripes) {
+        int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.locks = new Object[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new Object();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param key the key to lock
+     * @return the lock of the key
+     */
+    Object lockFor(Object key) {
+        int hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    /**
+     * @return the number of locks
+     */
+    int stripes() {
+        return locks.length;
+    }
+}
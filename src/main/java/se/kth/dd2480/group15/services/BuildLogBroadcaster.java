@@ -0,0 +1,324 @@
+package se.kth.dd2480.group15.services;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import se.kth.dd2480.group15.api.dto.response.BuildLogResponse;
+import se.kth.dd2480.group15.domain.LogChunk;
+import se.kth.dd2480.group15.infrastructure.persistence.BuildLogWriter;
+import se.kth.dd2480.group15.infrastructure.persistence.BuildRepository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the logs of builds to viewers as Server-Sent Events.
+ * <p>
+ * The log writer of a running build is wrapped with {@link #attach}, so every line the
+ * build writes to its log is also collected in memory. A background thread fans the
+ * collected lines out to all viewers of the build every {@link #FAN_OUT_INTERVAL_MS},
+ * as one {@code log} event per batch, so viewers never hold a log file open.
+ * <p>
+ * A viewer first catches up on the part of the log written before it subscribed, read
+ * from the log file one page per interval, and then receives the batches collected in
+ * the meantime. Every event has the byte offset the next one starts at as its id, so a
+ * reconnecting {@code EventSource} resumes where it left off. Once the build is done,
+ * an {@code end} event is sent and the stream is completed.
+ */
+@Component
+public class BuildLogBroadcaster {
+
+    /** How often collected lines are sent to the viewers. */
+    static final long FAN_OUT_INTERVAL_MS = 100;
+
+    /** How long a stream stays open before the viewer has to reconnect. */
+    private static final long STREAM_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final int SEPARATOR_BYTES = System.lineSeparator().length();
+
+    private final BuildRepository buildRepository;
+    private final ConcurrentHashMap<UUID, Channel> channels = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService fanOut;
+
+    /**
+     * Constructs a new BuildLogBroadcaster and starts the fan-out thread.
+     *
+     * @param buildRepository the repository the logs are read from while viewers catch up
+     */
+    public BuildLogBroadcaster(BuildRepository buildRepository) {
+        this.buildRepository = buildRepository;
+        this.fanOut = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ci_log_stream_fan_out");
+            thread.setDaemon(true);
+            return thread;
+        });
+        fanOut.scheduleWithFixedDelay(this::fanOut, FAN_OUT_INTERVAL_MS, FAN_OUT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wraps the log writer of a running build, so the lines written to it are streamed
+     * to the viewers of the build. Closing the returned writer ends the streams.
+     *
+     * @param buildId the unique identifier of the build
+     * @param writer the log writer of the build
+     * @return a log writer writing through to {@code writer}
+     */
+    public BuildLogWriter attach(UUID buildId, BuildLogWriter writer) {
+        long logSize = buildRepository.readLog(buildId, Long.MAX_VALUE, 0).map(LogChunk::size).orElse(0L);
+        Channel channel = openChannel(buildId);
+        channel.reopen(logSize);
+
+        return new BuildLogWriter() {
+            @Override
+            public void accept(String line) {
+                writer.accept(line);
+                channel.publish(line);
+            }
+
+            @Override
+            public void flush() {
+                writer.flush();
+            }
+
+            @Override
+            public void close() {
+                writer.close();
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Opens a stream of the log of a build, starting at a byte offset. Streams of builds
+     * that are not running end once the log has been sent.
+     *
+     * @param buildId the unique identifier of the build
+     * @param offset the byte offset in the log to start streaming at
+     * @return the emitter of the stream
+     */
+    public SseEmitter subscribe(UUID buildId, long offset) {
+        long logSize = buildRepository.readLog(buildId, Long.MAX_VALUE, 0).map(LogChunk::size).orElse(0L);
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+
+        while (true) {
+            Channel channel = openChannel(buildId);
+            Subscriber subscriber = channel.subscribe(emitter, offset, logSize);
+            if (subscriber == null) continue; // The channel was just removed, open a new one
+
+            emitter.onCompletion(() -> channel.subscribers.remove(subscriber));
+            emitter.onTimeout(() -> channel.subscribers.remove(subscriber));
+            emitter.onError(e -> channel.subscribers.remove(subscriber));
+            return emitter;
+        }
+    }
+
+    /**
+     * Ends all streams.
+     */
+    @PreDestroy
+    public void close() {
+        fanOut.shutdownNow();
+        for (Channel channel : channels.values()) {
+            for (Subscriber subscriber : channel.subscribers) {
+                subscriber.emitter.complete();
+            }
+        }
+    }
+
+    private Channel openChannel(UUID buildId) {
+        return channels.computeIfAbsent(buildId, Channel::new);
+    }
+
+    /**
+     * Sends the lines collected since the last fan-out to all viewers, and removes
+     * the channels of finished builds without viewers.
+     */
+    private void fanOut() {
+        for (Channel channel : channels.values()) {
+            try {
+                Batch batch = channel.drain();
+                for (Subscriber subscriber : channel.subscribers) {
+                    if (!subscriber.step(batch)) channel.subscribers.remove(subscriber);
+                }
+                channel.removeIfIdle();
+            } catch (RuntimeException e) {
+                System.out.println("Failed to stream log of build " + channel.buildId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Lines collected for a build between two fan-outs.
+     *
+     * @param content the collected lines, each followed by a line separator
+     * @param offset the byte offset in the log of the first line
+     * @param nextOffset the byte offset in the log right after the last line
+     * @param ended whether the build is done and no more lines follow
+     */
+    private record Batch(String content, long offset, long nextOffset, boolean ended) {
+        boolean isEmpty() {
+            return offset == nextOffset;
+        }
+    }
+
+    /**
+     * The lines collected for a build and its viewers.
+     */
+    private final class Channel {
+
+        private final UUID buildId;
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+        // Guarded by this
+        private StringBuilder pending = new StringBuilder();
+        private long pendingOffset;
+        private long offset;
+        private boolean closed = true;
+        private boolean removed;
+
+        Channel(UUID buildId) {
+            this.buildId = buildId;
+        }
+
+        synchronized void reopen(long logSize) {
+            closed = false;
+            offset = Math.max(offset, logSize);
+            pendingOffset = offset;
+        }
+
+        synchronized void publish(String line) {
+            pending.append(line).append(System.lineSeparator());
+            offset += utf8Length(line) + SEPARATOR_BYTES;
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+
+        synchronized Subscriber subscribe(SseEmitter emitter, long from, long logSize) {
+            if (removed) return null;
+            // Catch up to where the next batch starts, or on the whole log of a finished build
+            long end = closed && pending.isEmpty() ? Math.max(pendingOffset, logSize) : pendingOffset;
+            Subscriber subscriber = new Subscriber(buildId, emitter, Math.min(from, end), end);
+            subscribers.add(subscriber);
+            return subscriber;
+        }
+
+        synchronized Batch drain() {
+            Batch batch = new Batch(pending.toString(), pendingOffset, offset, closed);
+            pending = new StringBuilder();
+            pendingOffset = offset;
+            return batch;
+        }
+
+        synchronized void removeIfIdle() {
+            if (closed && subscribers.isEmpty() && pending.isEmpty()) {
+                removed = true;
+                channels.remove(buildId, this);
+            }
+        }
+    }
+
+    /**
+     * A viewer of a build log, catching up on the log file before following the batches.
+     */
+    private final class Subscriber {
+
+        private final UUID buildId;
+        private final SseEmitter emitter;
+        private final List<Batch> queued = new ArrayList<>();
+        private final long catchUpEnd;
+        private long catchUpOffset;
+
+        Subscriber(UUID buildId, SseEmitter emitter, long catchUpOffset, long catchUpEnd) {
+            this.buildId = buildId;
+            this.emitter = emitter;
+            this.catchUpOffset = catchUpOffset;
+            this.catchUpEnd = catchUpEnd;
+        }
+
+        /**
+         * Sends the next events to the viewer. Only called from the fan-out thread.
+         *
+         * @param batch the lines collected since the previous step
+         * @return {@code false} once the stream has ended
+         */
+        boolean step(Batch batch) {
+            try {
+                if (catchUpOffset < catchUpEnd) {
+                    queued.add(batch);
+                    sendCatchUpPage();
+                    if (catchUpOffset < catchUpEnd) return true;
+
+                    for (Batch missed : queued) {
+                        send(missed);
+                    }
+                    queued.clear();
+                    if (batch.ended()) return end();
+                    return true;
+                }
+
+                send(batch);
+                if (batch.ended()) return end();
+                return true;
+            } catch (IOException | RuntimeException e) {
+                emitter.completeWithError(e);
+                return false;
+            }
+        }
+
+        private void sendCatchUpPage() throws IOException {
+            int limit = (int) Math.min(BuildService.MAX_LOG_PAGE_BYTES, catchUpEnd - catchUpOffset);
+            LogChunk chunk = buildRepository.readLog(buildId, catchUpOffset, limit).orElse(null);
+            if (chunk == null || chunk.nextOffset() <= catchUpOffset) {
+                catchUpOffset = catchUpEnd; // Nothing more to read
+                return;
+            }
+            emitter.send(logEvent(chunk.content(), chunk.offset(), chunk.nextOffset()));
+            catchUpOffset = chunk.nextOffset();
+        }
+
+        private void send(Batch batch) throws IOException {
+            if (batch.isEmpty() || batch.nextOffset() <= catchUpEnd) return;
+            emitter.send(logEvent(batch.content(), batch.offset(), batch.nextOffset()));
+        }
+
+        private boolean end() throws IOException {
+            emitter.send(SseEmitter.event().name("end").data(Math.max(catchUpOffset, catchUpEnd)));
+            emitter.complete();
+            return false;
+        }
+
+        private SseEmitter.SseEventBuilder logEvent(String content, long offset, long nextOffset) {
+            return SseEmitter.event()
+                    .name("log")
+                    .id(String.valueOf(nextOffset))
+                    .data(new BuildLogResponse(content, offset, nextOffset, nextOffset), MediaType.APPLICATION_JSON);
+        }
+    }
+
+    /**
+     * @return the number of bytes of a string encoded as UTF-8, without encoding it
+     */
+    private static long utf8Length(String s) {
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) length += 1;
+            else if (c < 0x800) length += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else length += 3;
+        }
+        return length;
+    }
+}
@@ -1,15 +1,19 @@
 package se.kth.dd2480.group15.services;
 
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import se.kth.dd2480.group15.api.dto.response.BuildListResponse;
 import se.kth.dd2480.group15.api.dto.response.BuildLogResponse;
 import se.kth.dd2480.group15.api.dto.response.BuildMetaResponse;
 import se.kth.dd2480.group15.domain.Build;
 import se.kth.dd2480.group15.domain.BuildNotFoundException;
+import se.kth.dd2480.group15.domain.BuildPage;
 import se.kth.dd2480.group15.domain.BuildSummary;
+import se.kth.dd2480.group15.domain.LogChunk;
 import se.kth.dd2480.group15.domain.LogFile;
 import se.kth.dd2480.group15.infrastructure.persistence.BuildRepository;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -22,7 +26,17 @@ import java.util.UUID;
 @Service
 public class BuildService {
 
+    /** The largest page of builds returned at once. */
+    public static final int MAX_BUILD_PAGE_SIZE = 500;
+
+    /** The largest page of a log returned at once, which bounds the memory used per request. */
+    public static final int MAX_LOG_PAGE_BYTES = 1024 * 1024;
+
+    /** The smallest page of a log that can be requested: the longest UTF-8 character, so every page moves forward. */
+    public static final int MIN_LOG_PAGE_BYTES = 4;
+
     private final BuildRepository buildRepository;
+    private final BuildLogBroadcaster logBroadcaster;
 
     /**
      * Constructs a new instance of the BuildService.
@@ -30,9 +44,11 @@ public class BuildService {
      * and logs by interacting with the BuildRepository.
      *
      * @param buildRepository the repository used for managing build entities and their associated data
+     * @param logBroadcaster the broadcaster streaming the logs of running builds
      */
-    public BuildService(BuildRepository buildRepository) {
+    public BuildService(BuildRepository buildRepository, BuildLogBroadcaster logBroadcaster) {
         this.buildRepository = buildRepository;
+        this.logBroadcaster = logBroadcaster;
     }
 
     /**
@@ -47,6 +63,25 @@ public class BuildService {
         return new BuildListResponse(builds);
     }
 
+    /**
+     * Retrieves a response containing a page of build summaries.
+     *
+     * @param cursor the cursor returned with the previous page, or null for the first page
+     * @param limit the maximum number of builds on the page, capped at {@link #MAX_BUILD_PAGE_SIZE}
+     * @param newestFirst whether the builds are ordered newest first instead of oldest first
+     * @param createdFrom the earliest creation date of the builds, inclusive, or null for no bound
+     * @param createdTo the latest creation date of the builds, exclusive, or null for no bound
+     * @return a {@link BuildListResponse} object containing the page of builds and the
+     *         cursor of the next page
+     * @throws IllegalArgumentException if the cursor is malformed or the range is reversed
+     */
+    public BuildListResponse getBuilds(String cursor, int limit, boolean newestFirst, Instant createdFrom, Instant createdTo) {
+        BuildPage page = buildRepository.listPage(
+                cursor, Math.min(limit, MAX_BUILD_PAGE_SIZE), newestFirst, createdFrom, createdTo);
+
+        return new BuildListResponse(page.builds(), page.nextCursor());
+    }
+
     /**
      * Retrieves metadata for a specific build based on its unique identifier.
      *
@@ -71,7 +106,9 @@ public class BuildService {
     }
 
     /**
-     * Retrieves the log output for a specific build based on its unique identifier.
+     * Retrieves the whole log output for a specific build based on its unique identifier.
+     * The log is loaded into memory at once; {@link #getBuildLog(UUID, long, int)} reads
+     * it page by page instead.
      *
      * @param buildId the unique identifier of the build whose log is to be retrieved
      * @return a {@link BuildLogResponse} object containing the log content of the specified build
@@ -84,4 +121,58 @@ public class BuildService {
 
         return new BuildLogResponse(log.get().content());
     }
+
+    /**
+     * Retrieves a page of the log output for a specific build, starting at a byte offset.
+     *
+     * @param buildId the unique identifier of the build whose log is to be retrieved
+     * @param offset the byte offset in the log to start the page at
+     * @param limit the maximum size of the page in bytes, capped at {@link #MAX_LOG_PAGE_BYTES}
+     * @return a {@link BuildLogResponse} object containing the page and the offset of the next page
+     * @throws BuildNotFoundException if no build is found with the given identifier
+     */
+    public BuildLogResponse getBuildLog(UUID buildId, long offset, int limit) {
+        Optional<LogChunk> chunk = buildRepository.readLog(buildId, offset, Math.min(limit, MAX_LOG_PAGE_BYTES));
+
+        if (chunk.isEmpty()) throw new BuildNotFoundException(buildId);
+
+        return toResponse(chunk.get());
+    }
+
+    /**
+     * Retrieves the last lines of the log output for a specific build.
+     *
+     * @param buildId the unique identifier of the build whose log is to be retrieved
+     * @param lines the number of lines to retrieve; only the last {@link #MAX_LOG_PAGE_BYTES}
+     *              bytes of them are returned
+     * @return a {@link BuildLogResponse} object containing the lines and the offset to
+     *         continue following the log from
+     * @throws BuildNotFoundException if no build is found with the given identifier
+     */
+    public BuildLogResponse getBuildLogTail(UUID buildId, int lines) {
+        Optional<LogChunk> chunk = buildRepository.tailLog(buildId, lines, MAX_LOG_PAGE_BYTES);
+
+        if (chunk.isEmpty()) throw new BuildNotFoundException(buildId);
+
+        return toResponse(chunk.get());
+    }
+
+    /**
+     * Opens a stream of the log output for a specific build, starting at a byte offset.
+     * New lines of a running build are streamed as they are written.
+     *
+     * @param buildId the unique identifier of the build whose log is to be streamed
+     * @param offset the byte offset in the log to start streaming at
+     * @return the emitter of the Server-Sent Events stream
+     * @throws BuildNotFoundException if no build is found with the given identifier
+     */
+    public SseEmitter streamBuildLog(UUID buildId, long offset) {
+        if (buildRepository.findById(buildId).isEmpty()) throw new BuildNotFoundException(buildId);
+
+        return logBroadcaster.subscribe(buildId, offset);
+    }
+
+    private static BuildLogResponse toResponse(LogChunk chunk) {
+        return new BuildLogResponse(chunk.content(), chunk.offset(), chunk.nextOffset(), chunk.size());
+    }
 }
@@ -0,0 +1,9 @@
+package se.kth.dd2480.group15.services;
+
+/**
+ * Outcome of the build and test stages of a build.
+ *
+ * @param buildSuccess whether the project compiled
+ * @param testSuccess whether the tests passed, always {@code false} if the project did not compile
+ */
+public record BuildTestResult(boolean buildSuccess, boolean testSuccess) { }
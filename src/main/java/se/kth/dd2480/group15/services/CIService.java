@@ -1,7 +1,20 @@
 package se.kth.dd2480.group15.services;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.springframework.stereotype.Service;
 import jakarta.annotation.PostConstruct;
@@ -9,46 +22,132 @@ import jakarta.annotation.PreDestroy;
 
 import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
 import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.domain.BuildNotFoundException;
+import se.kth.dd2480.group15.infrastructure.config.WorkerProperties;
+import se.kth.dd2480.group15.infrastructure.persistence.BuildLogWriter;
+import se.kth.dd2480.group15.infrastructure.persistence.BuildQueueJournal;
 import se.kth.dd2480.group15.infrastructure.persistence.BuildRepository;
 
 /**
  * Continuous Integration service responsible for handling incoming build jobs.
  * 
  * The service maintains an internal job queue and processes builds asynchronously
- * using a dedicated worker thread.
+ * using a pool of worker threads, sized by {@link WorkerProperties#poolSize()}.
+ * Every build runs in its own workspace, so builds can safely run concurrently.
  * 
- * Build logs are persisted continuously during execution in the {@link ProcessRunner} 
- * and the final result is sent through the {@link NotifierService}.
+ * The queue is backed by a {@link BuildQueueJournal}, so builds that were queued or
+ * running when the server stopped are run again after a restart.
+ * 
+ * Pushes to the same ref of a repository are coalesced according to
+ * {@link WorkerProperties#coalesce()}: a newer push supersedes the builds of that ref
+ * still waiting in the queue, and optionally cancels the one that is running.
+ * 
+ * A build a stage of which exceeded its timeout is killed by the {@link ProcessRunner}
+ * and ends as {@code TIMED_OUT}, which frees its worker for the next build.
+ * 
+ * Builds can be cancelled with {@link #cancel(UUID)}: a queued build is dropped without
+ * waiting for a worker to reach it, a running build has its processes killed.
+ * 
+ * Build logs are persisted continuously during execution through a {@link BuildLogWriter}
+ * kept open for the whole build, streamed live through the {@link BuildLogBroadcaster},
+ * and the final result is sent through the {@link NotificationOutbox}.
  */
 @Service
 public class CIService {
 
+    /**
+     * Outcome of cancelling a build, see {@link #cancel(UUID)}.
+     */
+    public enum Cancellation {
+        /** The build was queued and is now {@code CANCELLED}. */
+        CANCELLED,
+        /** The build is running; its processes are killed and it ends as {@code CANCELLED} shortly. */
+        CANCELLING,
+        /** The build already finished, or is not queued yet, and cannot be cancelled. */
+        NOT_CANCELLABLE
+    }
+
     /** Queue holding incoming build jobs waiting to be processed. */
     private BlockingQueue<Build> queue = new LinkedBlockingQueue<>();
 
-    /** Background worker thread responsible for handling queued builds. */
-    private Thread thread;
+    /** How long a poll on the queue waits before a worker re-checks if it should stop. */
+    private static final long POLL_INTERVAL_MS = 250;
+
+    /** Background worker threads responsible for handling queued builds. */
+    private ExecutorService workers;
+
+    /** Whether the workers should keep taking new jobs from the queue. */
+    private volatile boolean running;
+
+    /** Configuration of the worker pool. */
+    private final WorkerProperties workerProperties;
 
     /** Service responsible for executing clone, build and test processes. */
     private final ProcessRunner processRunner;
 
-    /** Service responsible for notifying external systems about build results. */
-    private final NotifierService notifierService;
+    /** Outbox sending the build results to external systems in the background. */
+    private final NotificationOutbox notificationOutbox;
 
     /** Repository used for persisting build logs and metadata. */
     private final BuildRepository buildRepository;
 
+    /** Journal used for persisting the contents of the queue. */
+    private final BuildQueueJournal journal;
+
+    /** Broadcaster streaming the logs of running builds to viewers. */
+    private final BuildLogBroadcaster logBroadcaster;
+
+    /**
+     * Guards the bookkeeping of queued and running builds below. Running builds are
+     * cancelled through the {@link ProcessRunner} while holding it, so a build cannot be
+     * cleaned up in between and have its cancellation outlive the cleanup.
+     */
+    private final Object stateLock = new Object();
+
+    /** The most recently queued, unfinished build of each repository ref. */
+    private final Map<String, Build> latestByRef = new HashMap<>();
+
+    /** Builds waiting in the queue, by id, so they can be found without scanning the queue. */
+    private final Map<UUID, Build> queuedBuilds = new HashMap<>();
+
+    /** Builds dropped while queued; the workers skip them when taken from the queue. */
+    private final Set<UUID> dropped = new HashSet<>();
+
+    /** Builds currently being handled by a worker. */
+    private final Set<UUID> runningBuilds = new HashSet<>();
+
+    /** Final status of running builds that were aborted, applied once they stop. */
+    private final Map<UUID, Build.Status> aborted = new HashMap<>();
+
+    /** Running builds killed because the service stopped; they get no final status and run again after a restart. */
+    private final Set<UUID> abortedByShutdown = new HashSet<>();
+
+    /** Running builds whose processes are done and that are being cleaned up; they can no longer be aborted. */
+    private final Set<UUID> finishing = new HashSet<>();
+
     /**
      * Creates a new CIService.
      * 
      * @param processRunner service used to execute clone, build and test commands
-     * @param notifierService service used to notify external systems of build results
+     * @param notificationOutbox outbox used to notify external systems of build results
      * @param buildRepository repository used to persist build logs and state
+     * @param journal journal used to persist the contents of the queue
+     * @param logBroadcaster broadcaster used to stream the logs of running builds
+     * @param workerProperties configuration of the worker pool
      */
-    public CIService(ProcessRunner processRunner, NotifierService notifierService, BuildRepository buildRepository) {
+    public CIService(
+            ProcessRunner processRunner,
+            NotificationOutbox notificationOutbox,
+            BuildRepository buildRepository,
+            BuildQueueJournal journal,
+            BuildLogBroadcaster logBroadcaster,
+            WorkerProperties workerProperties) {
         this.processRunner = processRunner;
-        this.notifierService = notifierService;
+        this.notificationOutbox = notificationOutbox;
         this.buildRepository = buildRepository;
+        this.journal = journal;
+        this.logBroadcaster = logBroadcaster;
+        this.workerProperties = workerProperties;
     }
 
     /**
@@ -58,24 +157,212 @@ public class CIService {
      * @param job the incoming push request containing repository and commit information
      */
     public void queueJob(PushRequestDTO job) {
-        System.out.println("--- queueJob() started ---");
-        Build build = Build.newBuild(
+        queueBuild(newBuild(job));
+    }
+
+    /**
+     * Creates a new build of the commit of a push event, without saving or queuing it.
+     *
+     * @param job the push event payload containing repository and commit information
+     * @return the new build, in the {@code QUEUED} state
+     */
+    public static Build newBuild(PushRequestDTO job) {
+        return Build.newBuild(
             job.after(), 
             job.getRepository().clone_url(), 
             job.getRepository().getOwner().getName(),
-            job.getRepository().getName()
+            job.getRepository().getName(),
+            job.getRef()
         );
-        queue.offer(build);
-
-        System.out.println("Build added to queue");
+    }
 
+    /**
+     * Records a new build in the journal, saves it and adds it to the queue.
+     * 
+     * The journal is written first, so a build whose metadata was saved is always
+     * replayed after a crash; a build journaled but never saved is saved on recovery.
+     * The build is reported as queued before a worker can take it, so the statuses the
+     * worker reports are never overtaken by it.
+     *
+     * @param build the build to queue
+     */
+    public void queueBuild(Build build) {
+        System.out.println("--- queueJob() started ---");
+        journal.append(build);
         buildRepository.save(build);
 
         System.out.println("Meta data saved");
 
+        report(build, "pending", "Queued");
+        enqueue(build);
+
+        System.out.println("Build added to queue");
+
         System.out.println("--- queueJob() done ---");
     }
 
+    /**
+     * Adds a build to the queue, superseding the previous build of the same ref if
+     * coalescing is enabled.
+     *
+     * @param build the build to add to the queue
+     */
+    private void enqueue(Build build) {
+        WorkerProperties.CoalesceMode mode = workerProperties.coalesce();
+        String key = coalesceKey(build);
+        Build previous = null;
+        boolean dropPrevious = false;
+        boolean cancelPrevious = false;
+
+        synchronized (stateLock) {
+            if (mode != WorkerProperties.CoalesceMode.OFF && key != null) {
+                previous = latestByRef.put(key, build);
+            }
+            if (previous != null) {
+                UUID previousId = previous.getBuildId();
+                if (!runningBuilds.contains(previousId)) {
+                    queuedBuilds.remove(previousId);
+                    dropped.add(previousId);
+                    dropPrevious = true;
+                } else if (mode == WorkerProperties.CoalesceMode.ALL && !finishing.contains(previousId)) {
+                    // A build already cancelled through the API stays cancelled
+                    cancelPrevious = aborted.putIfAbsent(previousId, Build.Status.SUPERSEDED) == null;
+                    if (cancelPrevious) processRunner.cancel(previousId);
+                }
+            }
+            queuedBuilds.put(build.getBuildId(), build);
+            queue.offer(build);
+        }
+
+        if (dropPrevious) {
+            previous.supersede();
+            buildRepository.save(previous);
+            journal.complete(previous.getBuildId());
+            report(previous, "error", "Superseded by a newer push");
+            System.out.println("Build " + previous.getBuildId() + " superseded by " + build.getBuildId());
+        }
+        if (cancelPrevious) {
+            System.out.println("Running build " + previous.getBuildId() + " superseded by " + build.getBuildId());
+        }
+    }
+
+    /**
+     * @return the key identifying the repository ref of a build, or null if the ref is unknown
+     */
+    private static String coalesceKey(Build build) {
+        if (build.getRef() == null) return null;
+        return build.getRepoUrl() + "#" + build.getRef();
+    }
+
+    /**
+     * Cancels a queued or running build.
+     * 
+     * A queued build is marked to be skipped by the workers instead of being searched for
+     * in the queue, and is saved as {@code CANCELLED} right away. A running build has its
+     * process tree killed through the {@link ProcessRunner}; its worker then saves it as
+     * {@code CANCELLED} and moves on to the next build. A build whose processes are done
+     * and that is being cleaned up cannot be cancelled anymore.
+     *
+     * @param buildId the unique identifier of the build to cancel
+     * @return whether the build was cancelled, is being cancelled or cannot be cancelled
+     * @throws BuildNotFoundException if no build with the specified ID is found
+     */
+    public Cancellation cancel(UUID buildId) {
+        Build queued;
+        boolean running = false;
+
+        synchronized (stateLock) {
+            queued = queuedBuilds.remove(buildId);
+            if (queued != null) {
+                dropped.add(buildId);
+                String key = coalesceKey(queued);
+                if (key != null) latestByRef.remove(key, queued);
+            } else if (runningBuilds.contains(buildId) && !finishing.contains(buildId)) {
+                aborted.put(buildId, Build.Status.CANCELLED);
+                processRunner.cancel(buildId);
+                running = true;
+            }
+        }
+
+        if (queued != null) {
+            queued.cancel();
+            buildRepository.save(queued);
+            journal.complete(buildId);
+            report(queued, "error", "Cancelled");
+            System.out.println("Queued build " + buildId + " cancelled");
+            return Cancellation.CANCELLED;
+        }
+        if (running) {
+            System.out.println("Running build " + buildId + " cancelled");
+            return Cancellation.CANCELLING;
+        }
+
+        if (buildRepository.findById(buildId).isEmpty()) throw new BuildNotFoundException(buildId);
+        return Cancellation.NOT_CANCELLABLE;
+    }
+
+    /**
+     * Marks a build taken from the queue as running, unless it was dropped while queued.
+     *
+     * @param job the build taken from the queue
+     * @return {@code true} if the build should be handled, {@code false} if it was dropped
+     */
+    private boolean claim(Build job) {
+        synchronized (stateLock) {
+            if (dropped.remove(job.getBuildId())) return false;
+            queuedBuilds.remove(job.getBuildId());
+            runningBuilds.add(job.getBuildId());
+            return true;
+        }
+    }
+
+    /**
+     * Removes the bookkeeping of a build once a worker is done handling it.
+     *
+     * @param job the build that was handled
+     */
+    private void release(Build job) {
+        synchronized (stateLock) {
+            runningBuilds.remove(job.getBuildId());
+            aborted.remove(job.getBuildId());
+            abortedByShutdown.remove(job.getBuildId());
+            finishing.remove(job.getBuildId());
+            String key = coalesceKey(job);
+            if (key != null) latestByRef.remove(key, job);
+        }
+    }
+
+    /**
+     * @return whether the processes of a running build were killed because the service stopped
+     */
+    private boolean isAbortedByShutdown(Build job) {
+        synchronized (stateLock) {
+            return abortedByShutdown.contains(job.getBuildId());
+        }
+    }
+
+    /**
+     * Marks a running build whose processes are done as finishing, after which it can no
+     * longer be aborted.
+     *
+     * @return the status the build was aborted with, or null if it was not aborted
+     */
+    private Build.Status markFinishing(Build job) {
+        synchronized (stateLock) {
+            finishing.add(job.getBuildId());
+            return aborted.get(job.getBuildId());
+        }
+    }
+
+    /**
+     * @return the status a running build was aborted with, or null if it was not aborted
+     */
+    private Build.Status abortStatus(Build job) {
+        synchronized (stateLock) {
+            return aborted.get(job.getBuildId());
+        }
+    }
+
     /**
      * Handles execution of a single build job. The life cycle includes cloning, building, 
      * testing and cleanup. Logs are appended continuously during execution. Then finished, 
@@ -92,90 +379,246 @@ public class CIService {
         boolean success;
         StringBuilder sb = new StringBuilder();
 
-        // Clone repository
-        success = processRunner.cloneRepo(job, event -> buildRepository.appendToLog(job.getBuildId(), event));
-        sb.append("Clone: ").append(success ? "Success" : "Fail").append("\n");
+        // The log stays open, and buffered, for the whole build, and is streamed to viewers
+        try (BuildLogWriter log = logBroadcaster.attach(job.getBuildId(), buildRepository.openLog(job.getBuildId()))) {
+            // Clone repository
+            report(job, "pending", "Cloning");
+            success = abortStatus(job) == null && processRunner.cloneRepo(job, log);
+            sb.append("Clone: ").append(success ? "Success" : "Fail").append("\n");
 
-        System.out.println("Cloning done, success: " + success);
+            System.out.println("Cloning done, success: " + success);
 
-        if (success) {
-            // If clone success, build
-            success = processRunner.build(job, event -> buildRepository.appendToLog(job.getBuildId(), event));
-            sb.append("Build: ").append(success ? "Success" : "Fail").append("\n");
-
-            System.out.println("Compiling done, success: " + success);
+            // A build aborted between stages does not start the next one
+            if (abortStatus(job) != null) success = false;
 
             if (success) {
-                // If build success, test
-                success = processRunner.test(job, event -> buildRepository.appendToLog(job.getBuildId(), event));
-                sb.append("Test: ").append(success ? "Success" : "Fail").append("\n");
+                // If clone success, build and test
+                report(job, "pending", "Clone: Success\nBuilding");
+                BuildTestResult result = processRunner.buildAndTest(job, log,
+                        () -> report(job, "pending", "Clone: Success\nBuild: Success\nTesting"));
+                sb.append("Build: ").append(result.buildSuccess() ? "Success" : "Fail").append("\n");
+
+                System.out.println("Compiling done, success: " + result.buildSuccess());
 
-                System.out.println("Testing done, success: " + success);
+                if (result.buildSuccess()) {
+                    sb.append("Test: ").append(result.testSuccess() ? "Success" : "Fail").append("\n");
+
+                    System.out.println("Testing done, success: " + result.testSuccess());
+                }
+                success = result.testSuccess();
             }
         }
 
         // Remove last \n
         sb.deleteCharAt(sb.length()-1);
 
+        // From here on the build cannot be aborted, so its abort status is final
+        Build.Status abortStatus = markFinishing(job);
+
+        // A build killed by the shutdown keeps its state in the journal, and runs again after the restart
+        if (!success && isAbortedByShutdown(job)) {
+            processRunner.cleanup(job);
+            System.out.println("Build " + job.getBuildId() + " stopped by the shutdown, left for the restart");
+            return;
+        }
+
+        // Checked before cleanup, which forgets that the build timed out
+        boolean timedOut = !success && processRunner.hasTimedOut(job.getBuildId());
+
         processRunner.cleanup(job);
 
         System.out.println("Cleanup done");
 
-        // Set build status and finish time
-        if (success) { job.finishBuild(); }
+        // Set build status and finish time, a build that completed before it could be aborted keeps its result
+        if (success) { abortStatus = null; job.finishBuild(); }
+        else if (abortStatus == Build.Status.SUPERSEDED) { job.supersede(); }
+        else if (abortStatus == Build.Status.CANCELLED) { job.cancel(); }
+        else if (timedOut) { job.timeOut(); }
         else { job.failBuild(); }
 
         // Log meta data
         buildRepository.save(job);
+        journal.complete(job.getBuildId());
 
         System.out.println("Meta data updated");
 
         // Call Notifier
         String state = success ? "success" : "failure", description = sb.toString();
-        notifierService.notify(job.getRepoOwner(), job.getRepoName(), job.getCommitSha(), state, description);
+        if (abortStatus == Build.Status.SUPERSEDED) {
+            state = "error";
+            description += "\nSuperseded by a newer push";
+        } else if (abortStatus == Build.Status.CANCELLED) {
+            state = "error";
+            description += "\nCancelled";
+        } else if (timedOut) {
+            state = "error";
+            description += "\nTimed out";
+        }
+        report(job, state, description);
 
-        System.out.println("Notifier done");
+        System.out.println("Notification queued");
 
         System.out.println("--- handleJob() done ---");
     }
 
     /**
-     * Initializes and starts the background worker thread.
+     * Queues a commit status of a build to be sent to GitHub. Statuses are sent in the
+     * background, and a status replaces the unsent earlier statuses of the same commit.
+     *
+     * @param build the build the status is about
+     * @param state the state of the status
+     * @param description the description shown with the status
+     */
+    private void report(Build build, String state, String description) {
+        notificationOutbox.enqueue(build.getRepoOwner(), build.getRepoName(), build.getCommitSha(), state, description);
+    }
+
+    /**
+     * Initializes and starts the background worker threads, after the builds left
+     * unfinished by a previous run have been put back in the queue.
      *
      * This method is automatically invoked by Spring after dependency injection
      * has completed.
      */
     @PostConstruct
-    public void startThread() { 
-        thread = new Thread(this::runThread, "ci_service_worker");
-        thread.start();
+    public void startThread() {
+        recoverQueuedBuilds();
+
+        int poolSize = workerProperties.poolSize();
+        running = true;
+        workers = Executors.newFixedThreadPool(poolSize, workerThreadFactory());
+        for (int i = 0; i < poolSize; i++) {
+            workers.submit(this::runThread);
+        }
     }
 
     /**
-     * Stops the background worker thread gracefully.
+     * Stops the background worker threads gracefully.
      *
      * This method is automatically invoked by Spring during application shutdown.
-     * The worker thread is interrupted to allow safe termination.
+     * The workers stop taking new jobs, and builds that are already running are
+     * given {@link WorkerProperties#shutdownTimeout()} to finish. Builds still running
+     * then have their process trees killed, an interrupt alone does not stop a process,
+     * and are left without a final status, so the journal runs them again after a
+     * restart. Jobs still in the queue are left in the {@code QUEUED} state.
      */
     @PreDestroy
-    public void stopThread() { 
-        thread.interrupt();
+    public void stopThread() {
+        running = false;
+        workers.shutdown();
+        try {
+            long timeoutMs = workerProperties.shutdownTimeout().toMillis();
+            if (!workers.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                abortRunningBuilds();
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            abortRunningBuilds();
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Kills the processes of the builds still running when the service stops, marking
+     * them so their workers leave them as they are in the journal.
+     */
+    private void abortRunningBuilds() {
+        List<UUID> killed;
+        synchronized (stateLock) {
+            killed = new ArrayList<>(runningBuilds);
+            killed.removeAll(finishing);
+            abortedByShutdown.addAll(killed);
+            killed.forEach(processRunner::cancel);
+        }
+        for (UUID buildId : killed) {
+            System.out.println("Running build " + buildId + " stopped by the shutdown");
+        }
+    }
+
+    /**
+     * Replays the builds recorded in the journal that never finished back into the queue.
+     *
+     * The stored metadata decides the state of a build: builds that already reached a
+     * final state are completed in the journal, builds that were running have their
+     * stale workspace removed, and builds whose metadata was never saved are saved now.
+     */
+    private void recoverQueuedBuilds() {
+        List<Build> unfinished = journal.replay();
+
+        for (Build journaled : unfinished) {
+            Optional<Build> stored = buildRepository.findById(journaled.getBuildId());
+            Build build = stored.orElse(journaled);
+
+            if (build.getStatus().isTerminal()) {
+                journal.complete(build.getBuildId());
+                continue;
+            }
+            if (build.getStatus() == Build.Status.RUNNING) {
+                processRunner.cleanup(build);
+            }
+            if (stored.isEmpty()) {
+                buildRepository.save(build);
+            }
+            enqueue(build);
+        }
+
+        if (!queue.isEmpty()) {
+            System.out.println("Recovered " + queue.size() + " unfinished build(s) from the journal");
+        }
     }
 
     /**
-     * Main loop executed by the worker thread.
+     * Main loop executed by each worker thread.
      *
      * The thread continuously waits for new jobs from the queue and processes
-     * them one at a time. If interrupted, the loop exits gracefully.
+     * them one at a time. The loop exits once the service is stopped or the
+     * thread is interrupted.
      */
-    private void runThread() { 
+    private void runThread() {
         try {
-            while (!Thread.currentThread().isInterrupted()) {
-                Build job = queue.take();
-                handleJob(job);
+            while (running && !Thread.currentThread().isInterrupted()) {
+                Build job = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (job == null || !claim(job)) continue;
+
+                try {
+                    handleJob(job);
+                } catch (RuntimeException e) {
+                    // Keep the worker alive so one broken build doesn't shrink the pool
+                    System.out.println("Build " + job.getBuildId() + " crashed: " + e.getMessage());
+                    failCrashedBuild(job);
+                } finally {
+                    release(job);
+                }
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
     }
+
+    /**
+     * Fails a build whose handling threw, so it does not stay {@code RUNNING} with an open
+     * journal entry and a pending commit status until the next restart.
+     *
+     * @param job the build that crashed
+     */
+    private void failCrashedBuild(Build job) {
+        if (isAbortedByShutdown(job)) return; // Interrupted by the shutdown, runs again after the restart
+        try {
+            if (!job.getStatus().isTerminal()) job.failBuild();
+            buildRepository.save(job);
+            journal.complete(job.getBuildId());
+            report(job, "error", "Build crashed");
+        } catch (RuntimeException e) {
+            System.out.println("Failed to record crash of build " + job.getBuildId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a thread factory naming the worker threads {@code ci_service_worker-<n>}.
+     */
+    private static ThreadFactory workerThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, "ci_service_worker-" + counter.incrementAndGet());
+    }
 }
@@ -0,0 +1,211 @@
+package se.kth.dd2480.group15.services;
+
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.infrastructure.config.GitProperties;
+import se.kth.dd2480.group15.infrastructure.persistence.FileTrees;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Keeps track of the local bare mirrors of the repositories built by the CI server.
+ * <p>
+ * Every repository gets one mirror under {@link GitProperties#mirrorRoot()}. The
+ * {@link ProcessRunner} fetches new commits into the mirror and clones build workspaces
+ * from it, so only the objects that changed since the previous build are transferred
+ * over the network.
+ * <p>
+ * Each mirror is guarded by a read-write lock: updating the mirror requires the write
+ * lock, cloning from it the read lock. When the mirrors use more disk space than
+ * {@link GitProperties#mirrorBudget()}, the least recently used ones that are not
+ * locked are evicted.
+ */
+@Component
+public class GitMirrorCache {
+
+    private final boolean enabled;
+    private final Path mirrorRoot;
+    private final long budgetBytes;
+
+    private final ConcurrentHashMap<Path, ReadWriteLock> locks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Path, MirrorUsage> usage = new ConcurrentHashMap<>();
+
+    /**
+     * Disk usage and last use of a mirror.
+     *
+     * @param lastUsedMillis when the mirror was last used, in epoch milliseconds
+     * @param sizeBytes the disk space used by the mirror
+     */
+    private record MirrorUsage(long lastUsedMillis, long sizeBytes) { }
+
+    /**
+     * Constructs a new GitMirrorCache, picking up the mirrors already on disk.
+     *
+     * @param gitProperties the git settings containing the mirror root and budget
+     */
+    public GitMirrorCache(GitProperties gitProperties) {
+        this.enabled = gitProperties.mirrorEnabled();
+        this.mirrorRoot = Paths.get(gitProperties.mirrorRoot()).toAbsolutePath().normalize();
+        this.budgetBytes = gitProperties.mirrorBudget().toBytes();
+
+        if (!enabled) return;
+
+        try {
+            Files.createDirectories(mirrorRoot);
+            try (Stream<Path> mirrors = Files.list(mirrorRoot)) {
+                mirrors.filter(Files::isDirectory).forEach(mirror -> usage.put(mirror, new MirrorUsage(
+                        lastModifiedMillis(mirror),
+                        sizeOf(mirror)
+                )));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create git mirror directory: " + mirrorRoot, e);
+        }
+    }
+
+    /** @return whether builds should clone through the mirrors */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the directory of the mirror of a repository. The directory name is derived
+     * from a hash of the URL, so different repositories never share a mirror.
+     *
+     * @param repoUrl the URL of the repository
+     * @return the path of the (possibly not yet existing) mirror
+     */
+    public Path mirrorPath(String repoUrl) {
+        String name = repoUrl.replaceAll("\\.git$", "").replaceAll(".*[/:]", "");
+        return mirrorRoot.resolve(name + "-" + hash(repoUrl) + ".git");
+    }
+
+    /**
+     * Returns the lock guarding the mirror of a repository.
+     *
+     * @param repoUrl the URL of the repository
+     * @return the read-write lock of the mirror
+     */
+    public ReadWriteLock lockFor(String repoUrl) {
+        return mirrorLock(mirrorPath(repoUrl));
+    }
+
+    /**
+     * Returns the lock guarding a mirror.
+     *
+     * @param mirror the directory of the mirror
+     * @return the read-write lock of the mirror
+     */
+    public ReadWriteLock mirrorLock(Path mirror) {
+        return locks.computeIfAbsent(mirror, p -> new ReentrantReadWriteLock());
+    }
+
+    /**
+     * @return the directories of the mirrors currently kept
+     */
+    public List<Path> mirrors() {
+        return new ArrayList<>(usage.keySet());
+    }
+
+    /**
+     * Deletes the mirror of a repository, e.g. because it could not be updated. The
+     * caller must hold the write lock of the mirror.
+     *
+     * @param repoUrl the URL of the repository
+     */
+    public void deleteMirror(String repoUrl) {
+        Path mirror = mirrorPath(repoUrl);
+        usage.remove(mirror);
+        FileTrees.deleteTree(mirror);
+    }
+
+    /**
+     * Records that the mirror of a repository was just used, and evicts the least
+     * recently used mirrors if the mirrors exceed the disk budget. The caller must not
+     * hold any mirror lock.
+     *
+     * @param repoUrl the URL of the repository
+     */
+    public void markUsed(String repoUrl) {
+        Path mirror = mirrorPath(repoUrl);
+        if (!Files.isDirectory(mirror)) return;
+
+        usage.put(mirror, new MirrorUsage(System.currentTimeMillis(), sizeOf(mirror)));
+        evictOverBudget(mirror);
+    }
+
+    /**
+     * Evicts mirrors, least recently used first, until the total size of the mirrors is
+     * within budget. Mirrors that are in use, as well as the given mirror, are skipped.
+     *
+     * @param keep the mirror that must not be evicted
+     */
+    private synchronized void evictOverBudget(Path keep) {
+        List<Map.Entry<Path, MirrorUsage>> candidates = new ArrayList<>(usage.entrySet());
+        long total = candidates.stream().mapToLong(e -> e.getValue().sizeBytes()).sum();
+        if (total <= budgetBytes) return;
+
+        candidates.sort(Comparator.comparingLong(e -> e.getValue().lastUsedMillis()));
+
+        for (Map.Entry<Path, MirrorUsage> candidate : candidates) {
+            Path mirror = candidate.getKey();
+            if (total <= budgetBytes) break;
+            if (mirror.equals(keep)) continue;
+
+            ReadWriteLock lock = mirrorLock(mirror);
+            if (!lock.writeLock().tryLock()) continue; // In use, try again next time
+            try {
+                MirrorUsage evicted = usage.remove(mirror);
+                if (evicted == null) continue;
+                FileTrees.deleteTree(mirror);
+                total -= evicted.sizeBytes();
+                System.out.println("Evicted git mirror " + mirror.getFileName());
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private static long lastModifiedMillis(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long sizeOf(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package se.kth.dd2480.group15.services;
+
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Follows the output of a {@code ./mvnw test} run to tell the build stage apart from
+ * the test stage, so one Maven process can report both outcomes.
+ * <p>
+ * Maven names the goal that broke the build in its {@code Failed to execute goal} line;
+ * a failing surefire (or failsafe) goal means the project compiled but tests failed,
+ * any other goal means the build itself failed. If Maven died without such a line, the
+ * failure is attributed to the test stage only if the tests had started.
+ * <p>
+ * Every line is passed on unchanged to the wrapped consumer, and a callback is run when
+ * the tests start.
+ */
+class MavenPhaseTracker implements Consumer<String> {
+
+    private static final Pattern TEST_GOAL_START = Pattern.compile("--- (surefire|failsafe|maven-surefire-plugin|maven-failsafe-plugin):[^:]+:(test|integration-test)\\b");
+    private static final Pattern FAILED_GOAL = Pattern.compile("Failed to execute goal (\\S+)");
+
+    private final Consumer<String> onLog;
+    private final Runnable onTestsStarted;
+    private boolean testsStarted;
+    private String failedGoal;
+
+    /**
+     * @param onLog the consumer receiving every line of output
+     * @param onTestsStarted run once, on the line starting the test goal
+     */
+    MavenPhaseTracker(Consumer<String> onLog, Runnable onTestsStarted) {
+        this.onLog = onLog;
+        this.onTestsStarted = onTestsStarted;
+    }
+
+    @Override
+    public void accept(String line) {
+        if (!testsStarted && TEST_GOAL_START.matcher(line).find()) {
+            testsStarted = true;
+            onTestsStarted.run();
+        }
+        if (failedGoal == null) {
+            Matcher matcher = FAILED_GOAL.matcher(line);
+            if (matcher.find()) failedGoal = matcher.group(1);
+        }
+        onLog.accept(line);
+    }
+
+    /**
+     * Decides the outcome of both stages once the Maven process has exited.
+     *
+     * @param success whether the Maven process exited with code 0
+     * @return the outcome of the build and test stages
+     */
+    BuildTestResult result(boolean success) {
+        if (success) return new BuildTestResult(true, true);
+
+        boolean testGoalFailed = failedGoal != null
+                ? failedGoal.contains("surefire") || failedGoal.contains("failsafe")
+                : testsStarted;
+        return new BuildTestResult(testGoalFailed, false);
+    }
+}
@@ -0,0 +1,170 @@
+package se.kth.dd2480.group15.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.infrastructure.config.MavenProperties;
+import se.kth.dd2480.group15.infrastructure.persistence.FileTrees;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Resolves the dependencies of the repositories the CI server has built before into
+ * the shared local Maven repository, in the background, so that builds find them there
+ * instead of downloading them.
+ * <p>
+ * The known repositories are those with a mirror in the {@link GitMirrorCache}. Every
+ * {@link MavenProperties#prewarmInterval()}, the default branch of each mirror is checked
+ * out in a temporary workspace and {@code ./mvnw dependency:go-offline} is run in it,
+ * through an overlay repository just like a build.
+ */
+@Component
+public class MavenPrewarmer {
+
+    /** How long after startup the first pre-warm runs, leaving the recovered builds a head start. */
+    private static final long INITIAL_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final GitMirrorCache mirrorCache;
+    private final MavenRepositoryCache repositoryCache;
+    private final MavenProperties mavenProperties;
+
+    private ScheduledExecutorService scheduler;
+    private volatile Process currentProcess;
+
+    /**
+     * Constructs a new MavenPrewarmer.
+     *
+     * @param mirrorCache the mirrors of the known repositories
+     * @param repositoryCache the shared local maven repository to resolve dependencies into
+     * @param mavenProperties the maven settings containing the pre-warm interval
+     */
+    public MavenPrewarmer(GitMirrorCache mirrorCache, MavenRepositoryCache repositoryCache, MavenProperties mavenProperties) {
+        this.mirrorCache = mirrorCache;
+        this.repositoryCache = repositoryCache;
+        this.mavenProperties = mavenProperties;
+    }
+
+    /**
+     * Schedules the periodic pre-warm, if pre-warming is enabled and possible: it needs
+     * both the mirrors and the shared repository, and Maven must not run offline.
+     */
+    @PostConstruct
+    public void start() {
+        if (!mavenProperties.prewarmEnabled() || mavenProperties.offline()
+                || !mirrorCache.isEnabled() || !repositoryCache.isEnabled()) return;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ci_maven_prewarmer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMs = Math.max(1, mavenProperties.prewarmInterval().toMillis());
+        scheduler.scheduleWithFixedDelay(this::prewarmAll, INITIAL_DELAY_MS, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the pre-warm, killing the Maven process it is running.
+     */
+    @PreDestroy
+    public void stop() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        Process process = currentProcess;
+        if (process != null) {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Pre-warms the dependencies of every known repository.
+     */
+    public void prewarmAll() {
+        for (Path mirror : mirrorCache.mirrors()) {
+            if (Thread.currentThread().isInterrupted()) return;
+            try {
+                prewarm(mirror);
+            } catch (RuntimeException e) {
+                System.out.println("Pre-warm of " + mirror.getFileName() + " crashed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Resolves the dependencies of the default branch of a mirrored repository into the
+     * shared local repository. Repositories without a maven wrapper are skipped.
+     *
+     * @param mirror the directory of the mirror
+     * @return {@code true} if the dependencies were resolved, {@code false} if not
+     */
+    public boolean prewarm(Path mirror) {
+        UUID id = UUID.randomUUID();
+        Path workspacePath = Path.of("workspace", "prewarm-" + id);
+
+        try {
+            ReadWriteLock lock = mirrorCache.mirrorLock(mirror);
+            lock.readLock().lock();
+            try {
+                if (!Files.isDirectory(mirror)) return false;
+                if (!run(new ProcessBuilder("git", "clone", "-q", mirror.toString(), workspacePath.toString()))) return false;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            if (!Files.isExecutable(workspacePath.resolve("mvnw"))) return false;
+
+            List<String> command = new ArrayList<>(List.of("./mvnw", "-B", "-q", "dependency:go-offline"));
+            command.addAll(repositoryCache.repositoryArguments(id));
+            boolean success = run(new ProcessBuilder(command).directory(workspacePath.toFile()));
+
+            int added = repositoryCache.completePrewarm(id);
+            System.out.println("Pre-warmed " + mirror.getFileName() + ", success: " + success + ", new artifacts: " + added);
+            return success;
+        } finally {
+            FileTrees.deleteTree(workspacePath);
+        }
+    }
+
+    /**
+     * Runs a process to completion, printing its output only if it fails.
+     *
+     * @return {@code true} if the process finished with exit code 0
+     */
+    private boolean run(ProcessBuilder pb) {
+        List<String> output = new ArrayList<>();
+        try {
+            pb.redirectErrorStream(true);
+            Process process = pb.start();
+            currentProcess = process;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    output.add(line);
+                }
+            }
+            if (process.waitFor() == 0) return true;
+        } catch (IOException e) {
+            output.add(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            currentProcess = null;
+        }
+
+        System.out.println("Pre-warm command failed: " + String.join(" ", pb.command()));
+        output.forEach(System.out::println);
+        return false;
+    }
+}
@@ -0,0 +1,203 @@
+package se.kth.dd2480.group15.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.infrastructure.config.MavenProperties;
+import se.kth.dd2480.group15.infrastructure.persistence.FileTrees;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Manages the local Maven repository shared by all builds.
+ * <p>
+ * Builds never write to the shared repository directly. Every build gets an overlay
+ * repository of its own as {@code maven.repo.local}, with the shared repository as its
+ * read-only {@code maven.repo.local.tail} (Maven 3.9+). Artifacts already in the shared
+ * repository are read from there, artifacts that have to be downloaded end up in the
+ * overlay. Once the build is done, the new artifacts are moved into the shared
+ * repository, so concurrent builds never contend on the same files and later builds
+ * find them there.
+ * <p>
+ * A build that did not download any artifact counts as a cache hit; the hit rate is
+ * published as the {@code ci.maven.cache.hit.ratio} metric.
+ */
+@Component
+public class MavenRepositoryCache {
+
+    private final boolean enabled;
+    private final Path sharedRepository;
+    private final Path overlayRoot;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter downloadedArtifacts;
+    private final Counter prewarmedArtifacts;
+
+    /**
+     * Constructs a new MavenRepositoryCache, removing overlays left behind by a previous run.
+     *
+     * @param mavenProperties the maven settings containing the repository root
+     * @param meterRegistry the registry the cache metrics are published to
+     */
+    public MavenRepositoryCache(MavenProperties mavenProperties, MeterRegistry meterRegistry) {
+        this.enabled = mavenProperties.sharedRepositoryEnabled();
+        Path root = Paths.get(mavenProperties.repositoryRoot()).toAbsolutePath().normalize();
+        this.sharedRepository = root.resolve("repository");
+        this.overlayRoot = root.resolve("overlays");
+
+        this.hits = Counter.builder("ci.maven.cache.builds")
+                .description("Builds that resolved all dependencies from the shared repository")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("ci.maven.cache.builds")
+                .description("Builds that had to download dependencies")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.downloadedArtifacts = Counter.builder("ci.maven.cache.artifacts")
+                .description("Artifacts added to the shared repository")
+                .tag("source", "build")
+                .register(meterRegistry);
+        this.prewarmedArtifacts = Counter.builder("ci.maven.cache.artifacts")
+                .description("Artifacts added to the shared repository")
+                .tag("source", "prewarm")
+                .register(meterRegistry);
+        Gauge.builder("ci.maven.cache.hit.ratio", this, MavenRepositoryCache::hitRatio)
+                .description("Share of builds that resolved all dependencies from the shared repository")
+                .register(meterRegistry);
+
+        if (!enabled) return;
+
+        try {
+            Files.createDirectories(sharedRepository);
+            FileTrees.deleteTree(overlayRoot);
+            Files.createDirectories(overlayRoot);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create maven repository directory: " + root, e);
+        }
+    }
+
+    /** @return whether builds should resolve dependencies through the shared repository */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** @return the directory of the shared local repository */
+    public Path sharedRepository() {
+        return sharedRepository;
+    }
+
+    /**
+     * Creates the overlay repository of a build, if it does not exist yet, and returns
+     * the Maven arguments resolving dependencies through it.
+     *
+     * @param id the unique identifier of the build (or pre-warm run)
+     * @return the system properties to pass to Maven
+     */
+    public List<String> repositoryArguments(UUID id) {
+        Path overlay = overlayRoot.resolve(id.toString());
+        try {
+            Files.createDirectories(overlay);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create maven overlay repository: " + overlay, e);
+        }
+        return List.of(
+                "-Dmaven.repo.local=" + overlay,
+                "-Dmaven.repo.local.tail=" + sharedRepository
+        );
+    }
+
+    /**
+     * Moves the artifacts downloaded by a build into the shared repository and records
+     * whether the build was a cache hit. Does nothing if the build never ran Maven.
+     *
+     * @param buildId the unique identifier of the build
+     */
+    public void completeBuild(UUID buildId) {
+        int added = promote(buildId);
+        if (added < 0) return;
+
+        if (added == 0) hits.increment();
+        else misses.increment();
+        downloadedArtifacts.increment(added);
+    }
+
+    /**
+     * Moves the artifacts downloaded by a pre-warm run into the shared repository.
+     *
+     * @param id the identifier the pre-warm run got its overlay with
+     * @return the number of artifacts added to the shared repository
+     */
+    public int completePrewarm(UUID id) {
+        int added = Math.max(0, promote(id));
+        prewarmedArtifacts.increment(added);
+        return added;
+    }
+
+    /**
+     * @return the share of builds that were cache hits, or 0 if no build has completed
+     */
+    public double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    /**
+     * Moves the files of an overlay that are missing from the shared repository into it,
+     * then deletes the overlay. Each file is moved with a single rename, so concurrent
+     * builds reading the shared repository never see a partially written file. Files
+     * that Maven only uses for its own bookkeeping are left out.
+     *
+     * @return the number of artifacts (jars and poms) added, or -1 if there was no overlay
+     */
+    private synchronized int promote(UUID id) {
+        Path overlay = overlayRoot.resolve(id.toString());
+        if (!Files.isDirectory(overlay)) return -1;
+
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(overlay)) {
+            walk.filter(Files::isRegularFile).filter(MavenRepositoryCache::isShareable).forEach(files::add);
+        } catch (IOException e) {
+            System.out.println("Failed to read maven overlay repository " + overlay + ": " + e.getMessage());
+        }
+
+        int added = 0;
+        for (Path file : files) {
+            Path target = sharedRepository.resolve(overlay.relativize(file));
+            if (Files.exists(target)) continue;
+            try {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(file, target);
+                }
+                if (isArtifact(target)) added++;
+            } catch (IOException e) {
+                System.out.println("Failed to add " + target + " to the shared maven repository: " + e.getMessage());
+            }
+        }
+
+        FileTrees.deleteTree(overlay);
+        return added;
+    }
+
+    private static boolean isShareable(Path file) {
+        String name = file.getFileName().toString();
+        return !name.endsWith(".part")
+                && !name.endsWith(".lock")
+                && !name.endsWith(".lastUpdated")
+                && !name.equals("resolver-status.properties");
+    }
+
+    private static boolean isArtifact(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".jar") || name.endsWith(".pom");
+    }
+}
@@ -0,0 +1,309 @@
+package se.kth.dd2480.group15.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.domain.StatusNotification;
+import se.kth.dd2480.group15.infrastructure.config.NotifierProperties;
+import se.kth.dd2480.group15.infrastructure.persistence.NotificationStore;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the commit statuses of builds to GitHub in the background, so a slow or
+ * unavailable GitHub API never holds up a build worker.
+ * <p>
+ * Statuses are queued with {@link #enqueue}, which returns immediately. Only the latest
+ * status of each commit is kept: a status queued while an older one of the same commit is
+ * still pending replaces it. A background thread sends the pending statuses through the
+ * {@link NotifierService}; statuses that fail in a way worth retrying are sent again after
+ * a backoff that doubles with every attempt, up to {@link NotifierProperties#maxAttempts()}.
+ * <p>
+ * Statuses are sent one at a time, at most one per {@link NotifierProperties#minInterval()},
+ * and not at all while GitHub reports its rate limit as exhausted. Statuses queued in the
+ * meantime wait, so a commit whose status changes several times while the outbox is behind
+ * only has its latest status sent.
+ * <p>
+ * The pending statuses are kept in the {@link NotificationStore}, so the statuses of builds
+ * that finished right before a restart are still sent after it. They are written by a
+ * background thread of their own, at most once per {@link #PERSIST_DELAY_MS}, rather than by every
+ * {@link #enqueue}, so a burst of statuses costs a few writes instead of one write of all
+ * pending statuses each. Statuses queued within that delay before a crash are lost;
+ * {@link #stop()} writes them.
+ */
+@Component
+public class NotificationOutbox {
+
+    /** How long changes to the pending statuses are collected before they are written to the store. */
+    static final long PERSIST_DELAY_MS = 100;
+
+    private final NotifierService notifierService;
+    private final NotificationStore store;
+    private final NotifierProperties notifierProperties;
+
+    /** The pending status of each commit, in the order they were queued. Guarded by this. */
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    /** Whether the pending statuses changed since they were last written. Guarded by this. */
+    private boolean dirty;
+
+    /** Whether a write of the pending statuses is scheduled. Guarded by this. */
+    private boolean persistScheduled;
+
+    /** Serializes the writes, so an older snapshot never replaces a newer one. */
+    private final Object persistLock = new Object();
+
+    private final ScheduledExecutorService dispatcher;
+
+    /** Writes the pending statuses to the store, apart from the dispatcher so slow sends never delay it. */
+    private final ScheduledExecutorService persister;
+
+    /** The next scheduled dispatch. Only accessed from the dispatcher thread. */
+    private ScheduledFuture<?> nextDispatch;
+
+    /** When the last status was sent, in epoch milliseconds. Only accessed from the dispatcher thread. */
+    private long lastSentAt;
+
+    /**
+     * Constructs a new NotificationOutbox.
+     *
+     * @param notifierService the service sending the statuses to GitHub
+     * @param store the store keeping the pending statuses across restarts
+     * @param notifierProperties the notifier settings containing the retry policy
+     */
+    public NotificationOutbox(NotifierService notifierService, NotificationStore store, NotifierProperties notifierProperties) {
+        this.notifierService = notifierService;
+        this.store = store;
+        this.notifierProperties = notifierProperties;
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ci_notifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.persister = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ci_notification_store");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the statuses left pending by a previous run and starts sending them.
+     */
+    @PostConstruct
+    public void start() {
+        List<StatusNotification> recovered = store.load();
+        synchronized (this) {
+            for (StatusNotification notification : recovered) {
+                pending.put(notification.commitKey(), new Pending(notification));
+            }
+        }
+        if (!recovered.isEmpty()) {
+            System.out.println("Recovered " + recovered.size() + " pending commit statuses");
+            wakeUp();
+        }
+    }
+
+    /**
+     * Stops sending statuses. Statuses still pending are written to the store and sent
+     * after the next start.
+     */
+    @PreDestroy
+    public void stop() {
+        dispatcher.shutdownNow();
+        persister.shutdownNow();
+        persist();
+    }
+
+    /**
+     * Queues a commit status to be sent to GitHub, replacing the pending status of the
+     * same commit, if any. Does not wait for the status to be sent.
+     *
+     * @param owner the owner of the repository of the commit
+     * @param repo the name of the repository of the commit
+     * @param commitSha the hash of the commit
+     * @param state the state of the status
+     * @param description the description shown with the status
+     */
+    public void enqueue(String owner, String repo, String commitSha, String state, String description) {
+        StatusNotification notification = new StatusNotification(owner, repo, commitSha, state, description);
+        synchronized (this) {
+            pending.remove(notification.commitKey()); // Move it to the back of the queue
+            pending.put(notification.commitKey(), new Pending(notification));
+            schedulePersist();
+        }
+        wakeUp();
+    }
+
+    /**
+     * @return the number of statuses that have not been sent yet
+     */
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    private void wakeUp() {
+        try {
+            dispatcher.execute(this::dispatch);
+        } catch (RuntimeException e) {
+            // Shutting down, the status is sent after the next start
+        }
+    }
+
+    /**
+     * Sends the pending statuses that are due, one at a time, as far as the pacing and the
+     * rate limit allow, then schedules the next run for when the next one can be sent.
+     * Only runs on the dispatcher thread.
+     */
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            long now = System.currentTimeMillis();
+            if (openAt() > now) break;
+
+            Pending next = nextDue(now);
+            if (next == null) break;
+
+            lastSentAt = now;
+            NotifierService.Delivery delivery;
+            try {
+                delivery = notifierService.send(next.notification);
+            } catch (RuntimeException e) {
+                System.out.println("Failed to send commit status: " + e.getMessage());
+                delivery = NotifierService.Delivery.RETRY;
+            }
+            complete(next, delivery);
+        }
+
+        scheduleNextDispatch();
+    }
+
+    /**
+     * @return the earliest time, in epoch milliseconds, the next status may be sent at
+     */
+    private long openAt() {
+        long interval = notifierProperties.minInterval().toMillis();
+        return Math.max(notifierService.rateLimitedUntil(), lastSentAt + interval);
+    }
+
+    /**
+     * @return the status queued first among those that are due, or {@code null} if none is
+     */
+    private synchronized Pending nextDue(long now) {
+        for (Pending p : pending.values()) {
+            if (p.nextAttemptAt <= now) return p;
+        }
+        return null;
+    }
+
+    private synchronized void complete(Pending p, NotifierService.Delivery delivery) {
+        String key = p.notification.commitKey();
+        // A newer status of the commit was queued meanwhile, it is sent instead
+        if (pending.get(key) != p) return;
+
+        // Waiting for the rate limit is not an attempt, the status is held back until it resets
+        if (delivery == NotifierService.Delivery.RATE_LIMITED) return;
+
+        p.attempts++;
+        if (delivery == NotifierService.Delivery.RETRY && p.attempts < notifierProperties.maxAttempts()) {
+            p.nextAttemptAt = System.currentTimeMillis() + backoffMillis(p.attempts);
+            return;
+        }
+
+        if (delivery != NotifierService.Delivery.DELIVERED) {
+            System.out.println("Dropping commit status of " + key + " after " + p.attempts + " attempts");
+        }
+        pending.remove(key);
+        schedulePersist();
+    }
+
+    private void scheduleNextDispatch() {
+        long next = Long.MAX_VALUE;
+        synchronized (this) {
+            for (Pending p : pending.values()) {
+                next = Math.min(next, p.nextAttemptAt);
+            }
+        }
+
+        if (nextDispatch != null) nextDispatch.cancel(false);
+        nextDispatch = null;
+        if (next == Long.MAX_VALUE || dispatcher.isShutdown()) return;
+
+        long delay = Math.max(0, Math.max(next, openAt()) - System.currentTimeMillis());
+        nextDispatch = dispatcher.schedule(this::dispatch, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the wait before the next attempt after the given number of failed attempts
+     */
+    private long backoffMillis(int attempts) {
+        long initial = Math.max(1, notifierProperties.initialBackoff().toMillis());
+        long max = Math.max(initial, notifierProperties.maxBackoff().toMillis());
+        int doublings = Math.min(attempts - 1, 30);
+        return Math.min(max, initial << doublings);
+    }
+
+    /**
+     * Marks the pending statuses as changed, and schedules a write of them unless one is
+     * scheduled already. The caller must hold this.
+     */
+    private void schedulePersist() {
+        dirty = true;
+        if (persistScheduled) return;
+
+        try {
+            persister.schedule(this::persist, PERSIST_DELAY_MS, TimeUnit.MILLISECONDS);
+            persistScheduled = true;
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the statuses are written by stop()
+        }
+    }
+
+    /**
+     * Writes the pending statuses to the store, if they changed since the last write.
+     * The store is written outside the lock of the outbox, so queuing a status never
+     * waits for the disk.
+     */
+    private void persist() {
+        synchronized (persistLock) {
+            List<StatusNotification> notifications = new ArrayList<>();
+            synchronized (this) {
+                persistScheduled = false;
+                if (!dirty) return;
+                dirty = false;
+                for (Pending p : pending.values()) {
+                    notifications.add(p.notification);
+                }
+            }
+            try {
+                store.save(notifications);
+            } catch (RuntimeException e) {
+                System.out.println("Failed to persist pending commit statuses: " + e.getMessage());
+                synchronized (this) {
+                    dirty = true; // Written again with the next change, or by stop()
+                }
+            }
+        }
+    }
+
+    /**
+     * A status that has not been sent yet, with its retry bookkeeping.
+     */
+    private static final class Pending {
+
+        private final StatusNotification notification;
+        private int attempts;
+        private long nextAttemptAt;
+
+        Pending(StatusNotification notification) {
+            this.notification = notification;
+        }
+    }
+}
@@ -1,20 +1,53 @@
 package se.kth.dd2480.group15.services;
 
 import io.github.cdimascio.dotenv.Dotenv;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
+import se.kth.dd2480.group15.domain.StatusNotification;
+import se.kth.dd2480.group15.infrastructure.config.NotifierProperties;
 
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Service responsible for notifying GitHub to create a commit status through the GitHub REST API.
+ * <p>
+ * Sending is synchronous; builds report their statuses through the {@link NotificationOutbox},
+ * which sends them in the background and retries them.
+ * <p>
+ * The rate limit GitHub reports in the {@code X-RateLimit-*} and {@code Retry-After} headers
+ * of every response is tracked, and exposed as {@link #rateLimitedUntil()}, so the outbox
+ * can hold off sending instead of running into the limit.
  */
 @Service
 public class NotifierService {
+
+    /**
+     * The outcome of sending a status.
+     */
+    public enum Delivery {
+        /** GitHub created the status. */
+        DELIVERED,
+        /** GitHub could not be reached or failed; sending again may succeed. */
+        RETRY,
+        /** GitHub is rate limiting; sending again after {@link #rateLimitedUntil()} may succeed. */
+        RATE_LIMITED,
+        /** GitHub rejected the status, for example because the commit does not exist. */
+        REJECTED
+    }
+
     private final String token;
     private final RestTemplate restTemplate;
+    private final String apiUrl;
+
+    /** When GitHub accepts requests again, in epoch milliseconds. */
+    private volatile long rateLimitedUntil;
+
+    /** How long to wait after a secondary rate limit that does not say for how long. */
+    private static final long DEFAULT_RATE_LIMIT_WAIT_MS = 60_000;
 
     /**
      * Constructor of the service which will inject the rest template and the token needed before running.
@@ -22,9 +55,21 @@ public class NotifierService {
      * @param restTemplate
      */
     public NotifierService(RestTemplate restTemplate) {
+        this(restTemplate, new NotifierProperties(null, 0, null, null, null, null, null));
+    }
+
+    /**
+     * Constructor of the service sending the statuses to the configured GitHub API.
+     *
+     * @param restTemplate the rest template used to send the statuses
+     * @param notifierProperties the notifier settings containing the GitHub API URL
+     */
+    @Autowired
+    public NotifierService(RestTemplate restTemplate, NotifierProperties notifierProperties) {
         Dotenv dotenv = Dotenv.load();
         this.restTemplate = restTemplate;
         this.token = dotenv.get("GITHUB_TOKEN");
+        this.apiUrl = notifierProperties.apiUrl().replaceAll("/+$", "");
     }
 
     
@@ -43,12 +88,23 @@ public class NotifierService {
      * @return  true if success, false otherwise.
      */
     public boolean notify(String owner, String repo, String after, String state, String description) {
+        return send(new StatusNotification(owner, repo, after, state, description)) == Delivery.DELIVERED;
+    }
 
-        String url = "https://api.github.com/repos/" + owner + "/" + repo + "/statuses/" + after;
+    /**
+     * Sends a commit status to GitHub, telling apart failures worth retrying from
+     * statuses GitHub will never accept.
+     *
+     * @param notification the status to send
+     * @return the outcome of sending the status
+     */
+    public Delivery send(StatusNotification notification) {
+        // Expanded by the rest template, so request metrics are tagged with the template
+        String url = apiUrl + "/repos/{owner}/{repo}/statuses/{sha}";
 
         Map<String, String> requestBody = new HashMap<>();
-        requestBody.put("state", state);
-        requestBody.put("description", description);
+        requestBody.put("state", notification.state());
+        requestBody.put("description", notification.description());
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
@@ -57,15 +113,75 @@ public class NotifierService {
         HttpEntity<Map<String, String>> requestEntity = new HttpEntity<>(requestBody, headers);
 
         try {
-            ResponseEntity<String> response = restTemplate.postForEntity(url, requestEntity, String.class);
+            ResponseEntity<String> response = restTemplate.postForEntity(url, requestEntity, String.class,
+                    notification.owner(), notification.repo(), notification.commitSha());
+            recordRateLimit(response.getHeaders(), false);
             if (response.getStatusCode() == HttpStatus.CREATED) 
-                return true;
+                return Delivery.DELIVERED;
             else 
-                return false;
-            
-        } catch (Exception e) {
+                return Delivery.REJECTED;
+
+        } catch (HttpStatusCodeException e) {
             System.out.println("Error updating status: " + e.getMessage());
+            int status = e.getStatusCode().value();
+            // 403 and 429 are how GitHub signals rate limiting, 403 is also used for missing permissions
+            if ((status == 403 || status == 429) && isRateLimit(e)) {
+                recordRateLimit(e.getResponseHeaders(), true);
+                return Delivery.RATE_LIMITED;
+            }
+            return status >= 500 ? Delivery.RETRY : Delivery.REJECTED;
+        } catch (RuntimeException e) {
+            // Connection failures and timeouts, the latter not always wrapped in a RestClientException
+            System.out.println("Error updating status: " + e.getMessage());
+            return Delivery.RETRY;
+        }
+    }
+
+    /**
+     * @return the time, in epoch milliseconds, until which GitHub is not expected to
+     *         accept statuses, or a time in the past if it is
+     */
+    public long rateLimitedUntil() {
+        return rateLimitedUntil;
+    }
+
+    private static boolean isRateLimit(HttpStatusCodeException e) {
+        HttpHeaders headers = e.getResponseHeaders();
+        return e.getStatusCode().value() == 429
+                || (headers != null && (headers.containsKey(HttpHeaders.RETRY_AFTER)
+                        || "0".equals(headers.getFirst("X-RateLimit-Remaining"))))
+                || e.getResponseBodyAsString().toLowerCase().contains("rate limit");
+    }
+
+    /**
+     * Updates {@link #rateLimitedUntil} from the headers of a response: the primary rate
+     * limit is exhausted once {@code X-RateLimit-Remaining} is 0 and resets at
+     * {@code X-RateLimit-Reset}, a secondary rate limit asks to wait {@code Retry-After} seconds.
+     *
+     * @param headers the headers of the response, may be {@code null}
+     * @param limited whether the request was refused because of a rate limit
+     */
+    private void recordRateLimit(HttpHeaders headers, boolean limited) {
+        long now = System.currentTimeMillis();
+        long until = 0;
+        try {
+            String retryAfter = headers == null ? null : headers.getFirst(HttpHeaders.RETRY_AFTER);
+            String remaining = headers == null ? null : headers.getFirst("X-RateLimit-Remaining");
+            String reset = headers == null ? null : headers.getFirst("X-RateLimit-Reset");
+            if (retryAfter != null) {
+                until = now + Long.parseLong(retryAfter.trim()) * 1000;
+            } else if ("0".equals(remaining) && reset != null) {
+                until = Long.parseLong(reset.trim()) * 1000;
+            }
+        } catch (NumberFormatException e) {
+            // Malformed header, fall back to the default wait below
+        }
+        if (limited && until <= now) {
+            until = now + DEFAULT_RATE_LIMIT_WAIT_MS;
+        }
+        if (until > now) {
+            rateLimitedUntil = until;
+            System.out.println("GitHub rate limit reached, holding off statuses for " + (until - now) / 1000 + "s");
         }
-        return false;
     }
-}
\ No newline at end of file
+}
@@ -1,31 +1,135 @@
 package se.kth.dd2480.group15.services;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.infrastructure.config.MavenProperties;
+import se.kth.dd2480.group15.infrastructure.config.StageProperties;
+import se.kth.dd2480.group15.infrastructure.persistence.FileTrees;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * This is a service responsible for executing system processes related to the CI pipeline
  * 
  * Handles Git operations (clone, checkout) and Maven operations (build, test)
  * Output from these processes is streamed back to the caller via a {@link Consumer}
+ * 
+ * When a {@link GitMirrorCache} is enabled, repositories are cloned from a local mirror
+ * that is fetched incrementally, instead of from the remote for every build.
+ * 
+ * When a {@link MavenRepositoryCache} is enabled, Maven resolves dependencies through
+ * the shared local repository, with an overlay repository of its own for every build.
+ * 
+ * Every process runs under the timeout of its stage, see {@link StageProperties}. A watchdog
+ * kills the whole process tree of a process that is still running when its timeout expires,
+ * and the build is reported as timed out, see {@link #hasTimedOut(UUID)}.
+ * 
+ * When a {@link WorkspaceReaper} is enabled, the workspaces of finished builds are
+ * deleted in the background instead of before {@link #cleanup(Build)} returns.
+ * 
+ * When a {@link WarmWorkspacePool} is enabled, a build starts from the workspace of an
+ * earlier build of the same repository if there is one, reset to the commit to build,
+ * so Maven can reuse the build outputs of unchanged modules.
  */
 @Service
 public class ProcessRunner {
 
+    /** The process currently running for each build. */
+    private final ConcurrentHashMap<UUID, Process> activeProcesses = new ConcurrentHashMap<>();
+
+    /** Builds that have been cancelled; no new processes are started for them. */
+    private final Set<UUID> cancelledBuilds = ConcurrentHashMap.newKeySet();
+
+    /** Builds whose last process was killed for exceeding the timeout of its stage. */
+    private final Set<UUID> timedOutBuilds = ConcurrentHashMap.newKeySet();
+
+    /** Kills the process trees of processes that exceed the timeout of their stage. */
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ci_process_watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Local mirrors to clone from, or null to always clone from the remote. */
+    private final GitMirrorCache mirrorCache;
+
+    /** Shared local maven repository to resolve dependencies through, or null to use {@code ~/.m2}. */
+    private final MavenRepositoryCache repositoryCache;
+
+    /** Settings of the maven processes. */
+    private final MavenProperties mavenProperties;
+
+    /** Timeouts of the build stages. */
+    private final StageProperties stageProperties;
+
+    /** Deletes workspaces in the background, or null to delete them on the calling thread. */
+    private final WorkspaceReaper workspaceReaper;
+
+    /** Warm workspaces to start builds from, or null to always start from a fresh clone. */
+    private final WarmWorkspacePool workspacePool;
+
     /**
-     * Default constructor for the spring dependency injection
+     * Creates a ProcessRunner that always clones from the remote repository, uses the
+     * default local maven repository and runs the build and test stages in a single maven process
      */
     public ProcessRunner() {
+        this(null, null, new MavenProperties(true, false, null, false, false, null));
+    }
+
+    /**
+     * Creates a ProcessRunner with the default stage timeouts
+     *
+     * @param mirrorCache the local repository mirrors to clone from, or null to always clone from the remote
+     * @param repositoryCache the shared local maven repository, or null to use {@code ~/.m2}
+     * @param mavenProperties the settings of the maven processes
+     */
+    public ProcessRunner(GitMirrorCache mirrorCache, MavenRepositoryCache repositoryCache, MavenProperties mavenProperties) {
+        this(mirrorCache, repositoryCache, mavenProperties, new StageProperties(null, null, null), null, null);
     }
 
     /**
-     * Clones the repository and checks out the specific commit SHA provided in the build job
+     * Constructor for the spring dependency injection
+     *
+     * @param mirrorCache the local repository mirrors to clone from, or null to always clone from the remote
+     * @param repositoryCache the shared local maven repository, or null to use {@code ~/.m2}
+     * @param mavenProperties the settings of the maven processes
+     * @param stageProperties the timeouts of the build stages
+     * @param workspaceReaper the reaper deleting workspaces in the background, or null to delete them right away
+     * @param workspacePool the warm workspaces to start builds from, or null to always clone
+     */
+    @Autowired
+    public ProcessRunner(GitMirrorCache mirrorCache, MavenRepositoryCache repositoryCache,
+                         MavenProperties mavenProperties, StageProperties stageProperties,
+                         WorkspaceReaper workspaceReaper, WarmWorkspacePool workspacePool) {
+        this.mirrorCache = mirrorCache;
+        this.repositoryCache = repositoryCache;
+        this.mavenProperties = mavenProperties;
+        this.stageProperties = stageProperties;
+        this.workspaceReaper = workspaceReaper;
+        this.workspacePool = workspacePool;
+    }
+
+    /**
+     * Clones the repository and checks out the specific commit SHA provided in the build job,
+     * or resets a warm workspace of the repository to that commit if one is available
      *
      * @param job   The build job containing repository URL and commit SHA etc
      * @param onLog Of consumer type that receives each line of output from the git process
@@ -36,9 +140,22 @@ public class ProcessRunner {
        
         // Git clone
         onLog.accept(job.getRepoUrl());
-        ProcessBuilder clonePb = new ProcessBuilder("git", "clone", job.getRepoUrl(), workspacePath.toString());
-        // use helper func runProcess
-        boolean cloneSuccess = runProcess(clonePb, onLog);
+        if (workspacePool != null && workspacePool.acquire(job.getRepoUrl(), workspacePath)) {
+            onLog.accept("Reusing a warm workspace of the repository");
+            if (resetWarmWorkspace(job, workspacePath, onLog)) return true;
+
+            onLog.accept("Warm workspace does not match a fresh checkout, cloning instead");
+            workspacePool.discard(workspacePath);
+        }
+
+        boolean cloneSuccess;
+        if (mirrorCache != null && mirrorCache.isEnabled()) {
+            cloneSuccess = cloneFromMirror(job, workspacePath, onLog);
+        } else {
+            ProcessBuilder clonePb = new ProcessBuilder("git", "clone", job.getRepoUrl(), workspacePath.toString());
+            // use helper func runProcess
+            cloneSuccess = runProcess(job, clonePb, onLog, stageProperties.cloneTimeout());
+        }
 
         if (!cloneSuccess) {
             return false;   // exit on clone fail
@@ -49,7 +166,174 @@ public class ProcessRunner {
         ProcessBuilder checkoutPb = new ProcessBuilder("git", "checkout", job.getCommitSha());
         checkoutPb.directory(workspacePath.toFile());
 
-        return runProcess(checkoutPb, onLog);
+        return runProcess(job, checkoutPb, onLog, stageProperties.cloneTimeout());
+    }
+
+    /**
+     * Clones the workspace of a build from the local mirror of its repository.
+     * 
+     * The mirror is created on first use, and fetched only when it does not contain the
+     * commit to build yet. Since the mirror is on the local file system, git hardlinks its
+     * objects into the workspace instead of copying them, and the workspace stays valid
+     * even if the mirror is evicted afterwards.
+     *
+     * @param job           The build job containing repository URL and commit SHA
+     * @param workspacePath The directory to clone into
+     * @param onLog         Consumer that receives each line of output from the git processes
+     * @return {@code true} if the workspace was cloned, {@code false} if not
+     */
+    private boolean cloneFromMirror(Build job, Path workspacePath, Consumer<String> onLog) {
+        return withMirror(job, onLog, mirror -> {
+            ProcessBuilder clonePb = new ProcessBuilder("git", "clone", mirror.toString(), workspacePath.toString());
+            return runProcess(job, clonePb, onLog, stageProperties.cloneTimeout());
+        });
+    }
+
+    /**
+     * Makes sure the local mirror of the repository of a build contains the commit to
+     * build, then runs an action on the mirror while holding its read lock, so no one
+     * updates or evicts the mirror meanwhile. The read lock is only let go of to update
+     * the mirror when it lacks the commit.
+     *
+     * @param job    The build job containing repository URL and commit SHA
+     * @param onLog  Consumer that receives each line of output from the git processes
+     * @param action The action to run on the directory of the mirror
+     * @return the result of the action, or {@code false} if the mirror could not be updated
+     */
+    private boolean withMirror(Build job, Consumer<String> onLog, Predicate<Path> action) {
+        String repoUrl = job.getRepoUrl();
+        Path mirror = mirrorCache.mirrorPath(repoUrl);
+        ReadWriteLock lock = mirrorCache.lockFor(repoUrl);
+
+        // Held from the check through the action, so the mirror cannot be evicted in between
+        lock.readLock().lock();
+        boolean upToDate;
+        try {
+            upToDate = hasCommit(job, mirror);
+        } catch (RuntimeException e) {
+            lock.readLock().unlock();
+            throw e;
+        }
+
+        if (!upToDate) {
+            lock.readLock().unlock(); // A read lock cannot be upgraded
+            lock.writeLock().lock();
+            try {
+                if (!updateMirror(job, mirror, onLog)) return false;
+                lock.readLock().lock(); // Downgrade, so no one updates the mirror while cloning from it
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        try {
+            return action.test(mirror);
+        } finally {
+            lock.readLock().unlock();
+            mirrorCache.markUsed(repoUrl);
+        }
+    }
+
+    /**
+     * Resets a warm workspace to the commit of a build: fetches the new commits, from the
+     * local mirror if it is enabled, checks out the commit and removes untracked files.
+     * Ignored files, i.e. the build outputs, are kept.
+     *
+     * @param job       The build job containing repository URL and commit SHA
+     * @param workspace The warm workspace
+     * @param onLog     Consumer that receives each line of output from the git processes
+     * @return {@code true} if the workspace now matches a fresh checkout of the commit, {@code false} if not
+     */
+    private boolean resetWarmWorkspace(Build job, Path workspace, Consumer<String> onLog) {
+        if (mirrorCache != null && mirrorCache.isEnabled()) {
+            return withMirror(job, onLog, mirror -> resetWarmWorkspace(job, workspace, mirror.toString(), onLog));
+        }
+        return resetWarmWorkspace(job, workspace, job.getRepoUrl(), onLog);
+    }
+
+    private boolean resetWarmWorkspace(Build job, Path workspace, String source, Consumer<String> onLog) {
+        return git(job, workspace, onLog, "remote", "set-url", "origin", source)
+                && git(job, workspace, onLog, "fetch", "--prune", "origin")
+                && git(job, workspace, onLog, "checkout", "--force", "--detach", job.getCommitSha())
+                && git(job, workspace, onLog, "clean", "-ffd")
+                && matchesFreshCheckout(job, workspace);
+    }
+
+    /**
+     * Verifies that the tracked files of a reset warm workspace are byte for byte those
+     * of a fresh checkout of the commit to build, and that no untracked files other than
+     * ignored ones are left. The index is rebuilt from the commit without the cached file
+     * stats first, so git compares the content of every tracked file instead of trusting
+     * their timestamps.
+     *
+     * @return {@code true} if the workspace matches a fresh checkout, {@code false} if not
+     */
+    private boolean matchesFreshCheckout(Build job, Path workspace) {
+        Consumer<String> quiet = line -> { };
+        List<String> head = gitOutput(job, workspace, "rev-parse", "HEAD");
+        if (head == null || head.size() != 1 || !head.get(0).startsWith(job.getCommitSha())) return false;
+
+        if (!git(job, workspace, quiet, "read-tree", "HEAD")) return false;
+        git(job, workspace, quiet, "update-index", "-q", "--refresh"); // Fails if a file differs, which diff-files reports
+        if (!git(job, workspace, quiet, "diff-files", "--quiet")) return false;
+
+        List<String> untracked = gitOutput(job, workspace, "ls-files", "--others", "--exclude-standard");
+        return untracked != null && untracked.isEmpty();
+    }
+
+    /**
+     * Runs a git command in a directory under the clone timeout.
+     *
+     * @return {@code true} if the command succeeded
+     */
+    private boolean git(Build job, Path dir, Consumer<String> onLog, String... args) {
+        List<String> command = new ArrayList<>(List.of("git"));
+        command.addAll(List.of(args));
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(dir.toFile());
+        return runProcess(job, pb, onLog, stageProperties.cloneTimeout());
+    }
+
+    /**
+     * Runs a git command in a directory under the clone timeout, without logging it.
+     *
+     * @return the lines of output of the command, or null if it failed
+     */
+    private List<String> gitOutput(Build job, Path dir, String... args) {
+        List<String> output = new ArrayList<>();
+        if (!git(job, dir, output::add, args)) return null;
+        return output.subList(1, output.size()); // Without the command itself, which is logged first
+    }
+
+    /**
+     * Fetches new commits into the mirror of a repository, or creates the mirror if it
+     * does not exist or cannot be fetched into. The caller must hold the write lock of the mirror.
+     *
+     * @return {@code true} if the mirror is up to date, {@code false} if not
+     */
+    private boolean updateMirror(Build job, Path mirror, Consumer<String> onLog) {
+        if (Files.isDirectory(mirror)) {
+            ProcessBuilder fetchPb = new ProcessBuilder("git", "fetch", "--prune", "origin");
+            fetchPb.directory(mirror.toFile());
+            if (runProcess(job, fetchPb, onLog, stageProperties.cloneTimeout())) return true;
+
+            onLog.accept("Fetching into mirror failed, recreating it");
+            mirrorCache.deleteMirror(job.getRepoUrl());
+        }
+
+        ProcessBuilder mirrorPb = new ProcessBuilder("git", "clone", "--mirror", job.getRepoUrl(), mirror.toString());
+        return runProcess(job, mirrorPb, onLog, stageProperties.cloneTimeout());
+    }
+
+    /**
+     * Checks, without logging, whether a mirror already contains the commit of a build.
+     */
+    private boolean hasCommit(Build job, Path mirror) {
+        if (!Files.isDirectory(mirror)) return false;
+
+        ProcessBuilder pb = new ProcessBuilder("git", "cat-file", "-e", job.getCommitSha() + "^{commit}");
+        pb.directory(mirror.toFile());
+        return runProcess(job, pb, line -> { }, stageProperties.cloneTimeout());
     }
 
     /**
@@ -63,9 +347,9 @@ public class ProcessRunner {
         Path workspacePath = Path.of("workspace", job.getBuildId().toString());
 
         // mvnw compile
-        ProcessBuilder pbCompile = new ProcessBuilder("./mvnw", "compile");
+        ProcessBuilder pbCompile = new ProcessBuilder(mavenCommand(job, "compile"));
         pbCompile.directory(workspacePath.toFile());
-        return runProcess(pbCompile, onLog);
+        return runProcess(job, pbCompile, onLog, stageProperties.buildTimeout());
     }
 
     /**
@@ -76,44 +360,183 @@ public class ProcessRunner {
      * @return {@code true} if all tests passed, otherwise it is {@code false} 
      */
     public boolean test(Build job, Consumer<String> onLog) {
+        return test(job, onLog, new Deadline(job.getBuildId(), stageProperties.testTimeout()));
+    }
+
+    /**
+     * Runs the project tests using the maven wrapper, killing maven once the deadline expires
+     */
+    private boolean test(Build job, Consumer<String> onLog, Deadline deadline) {
         Path workspacePath = Path.of("workspace", job.getBuildId().toString());
 
         // mvnw test
-        ProcessBuilder pbTest = new ProcessBuilder("./mvnw", "test");
+        ProcessBuilder pbTest = new ProcessBuilder(mavenCommand(job, "test"));
         pbTest.directory(workspacePath.toFile());
-        return runProcess(pbTest, onLog);
+        return runProcess(job, pbTest, onLog, deadline);
+    }
+
+    /**
+     * Builds the maven wrapper command running a goal, resolving dependencies through
+     * the shared local repository if it is enabled.
+     *
+     * @param job  Build job the command belongs to
+     * @param goal The maven goal to run
+     * @return the command line
+     */
+    private List<String> mavenCommand(Build job, String goal) {
+        List<String> command = new ArrayList<>(List.of("./mvnw", goal));
+        if (repositoryCache != null && repositoryCache.isEnabled()) {
+            command.addAll(repositoryCache.repositoryArguments(job.getBuildId()));
+        }
+        if (mavenProperties.offline()) {
+            command.add("--offline");
+        }
+        return command;
     }
 
     /**
-     * Deletes the local workspace directory associated with specific build job
+     * Runs the build and test stages of a build.
+     * 
+     * With {@link MavenProperties#singleInvocation()} enabled, a single {@code ./mvnw test}
+     * process runs both stages and the outcome of each is derived from its output, which
+     * saves starting Maven and resolving the project a second time. The process runs under
+     * the build timeout until the tests start, and under the test timeout from then on.
+     * Otherwise {@link #build} and {@link #test} run one after the other.
+     *
+     * @param job   Build job to build and test
+     * @param onLog Consumer that receives each line of output from the maven process(es)
+     * @return the outcome of the build and test stages
+     */
+    public BuildTestResult buildAndTest(Build job, Consumer<String> onLog) {
+        return buildAndTest(job, onLog, () -> { });
+    }
+
+    /**
+     * Runs the build and test stages of a build, see {@link #buildAndTest(Build, Consumer)},
+     * telling the caller when the test stage starts.
+     *
+     * @param job            Build job to build and test
+     * @param onLog          Consumer that receives each line of output from the maven process(es)
+     * @param onTestsStarted Run once the project compiled and the tests start
+     * @return the outcome of the build and test stages
+     */
+    public BuildTestResult buildAndTest(Build job, Consumer<String> onLog, Runnable onTestsStarted) {
+        if (!mavenProperties.singleInvocation()) {
+            boolean buildSuccess = build(job, onLog);
+            if (!buildSuccess) return new BuildTestResult(false, false);
+
+            onTestsStarted.run();
+            return new BuildTestResult(true, test(job, onLog));
+        }
+
+        Deadline deadline = new Deadline(job.getBuildId(), stageProperties.buildTimeout());
+        MavenPhaseTracker tracker = new MavenPhaseTracker(onLog, () -> {
+            deadline.restart(stageProperties.testTimeout());
+            onTestsStarted.run();
+        });
+        boolean success = test(job, tracker, deadline);
+        return tracker.result(success);
+    }
+
+    /**
+     * Cancels the given build by killing its running process, including every process
+     * it spawned. Processes the build would start afterwards are not started at all,
+     * until {@link #cleanup(Build)} is called for the build.
+     *
+     * @param buildId the unique identifier of the build to cancel
+     */
+    public void cancel(UUID buildId) {
+        cancelledBuilds.add(buildId);
+        Process process = activeProcesses.get(buildId);
+        if (process != null) {
+            killProcessTree(process);
+        }
+    }
+
+    /**
+     * Checks whether the last process of the given build was killed for exceeding the
+     * timeout of its stage. The next process of the build, such as a fresh clone after a
+     * warm workspace failed to be reset, clears it, and so does {@link #cleanup(Build)}.
+     *
+     * @param buildId the unique identifier of the build
+     * @return {@code true} if the build timed out, {@code false} if not
+     */
+    public boolean hasTimedOut(UUID buildId) {
+        return timedOutBuilds.contains(buildId);
+    }
+
+    /**
+     * Deletes the local workspace directory associated with specific build job, and
+     * moves the dependencies it downloaded into the shared local maven repository.
+     * With a {@link WorkspaceReaper}, the workspace is only moved out of the way here
+     * and deleted in the background. With a {@link WarmWorkspacePool}, the workspace is
+     * kept for later builds instead, unless a process of the build was killed.
      *
      * @param job Build job whose workspace should be removed
      */
     public void cleanup(Build job) {
-        java.io.File workspace = new java.io.File("workspace/" + job.getBuildId().toString());
-        if (workspace.exists()) {
-            deleteDirectory(workspace);
+        // A process killed halfway may have left broken build outputs behind
+        boolean killed = cancelledBuilds.remove(job.getBuildId()) | timedOutBuilds.remove(job.getBuildId());
+
+        if (repositoryCache != null && repositoryCache.isEnabled()) {
+            repositoryCache.completeBuild(job.getBuildId());
+        }
+
+        Path workspace = WorkspaceReaper.WORKSPACE_ROOT.resolve(job.getBuildId().toString());
+        if (workspacePool != null && workspacePool.isEnabled() && !killed && Files.isDirectory(workspace.resolve(".git"))) {
+            workspacePool.release(job.getRepoUrl(), workspace);
+        } else if (workspaceReaper != null) {
+            workspaceReaper.reap(workspace);
+        } else if (Files.exists(workspace)) {
+            FileTrees.deleteTree(workspace);
         }
     }
 
     /**
-     * Helper to execute a process, redirect error streams and consume output line by line
+     * Helper to execute a process, redirect error streams and consume output line by line.
+     * If the process is still running once the timeout expires, the watchdog kills it
+     * together with every process it spawned, which also ends its output.
      *
-     * @param pb    ProcessBuilder to start
-     * @param onLog The consumer for process output
-     * @return {@code true} if the process finished with exit code 0
+     * @param job     Build job the process belongs to
+     * @param pb      ProcessBuilder to start
+     * @param onLog   The consumer for process output
+     * @param timeout How long the process may run
+     * @return {@code true} if the process finished with exit code 0 before the timeout
      */
-    private boolean runProcess(ProcessBuilder pb, Consumer<String> onLog) {
+    private boolean runProcess(Build job, ProcessBuilder pb, Consumer<String> onLog, Duration timeout) {
+        return runProcess(job, pb, onLog, new Deadline(job.getBuildId(), timeout));
+    }
+
+    /**
+     * Helper to execute a process under a deadline that may be moved while it runs,
+     * see {@link #runProcess(Build, ProcessBuilder, Consumer, Duration)}.
+     */
+    private boolean runProcess(Build job, ProcessBuilder pb, Consumer<String> onLog, Deadline deadline) {
+        UUID buildId = job.getBuildId();
+        if (cancelledBuilds.contains(buildId)) {
+            onLog.accept("Build cancelled, skipping command: " + String.join(" ", pb.command()));
+            return false;
+        }
+        timedOutBuilds.remove(buildId);
+
+        Process process = null;
         try {
             // Log the command before starting so its captured (used in testing)
             onLog.accept("Executing command: " + String.join(" ", pb.command()));
             
             // Combine stdout and error stream to same place
             pb.redirectErrorStream(true); 
-            Process process = pb.start();
+            Process started = pb.start();
+            process = started;
+            activeProcesses.put(buildId, started);
+            // The build may have been cancelled while the process was starting
+            if (cancelledBuilds.contains(buildId)) killProcessTree(started);
+
+            // Killing the process tree closes its output, which ends the loop below
+            deadline.start(started);
 
             // open a reader to catch all of the process output data and send each line to Consumer
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(started.getInputStream()))) {
                 String line;
                 while ((line = reader.readLine()) != null) {
                     onLog.accept(line);
@@ -121,26 +544,111 @@ public class ProcessRunner {
             }
 
             // Wait until process is done and return true if we exit with code 0 = success!
-            return process.waitFor() == 0;
+            int exitCode = started.waitFor();
+            deadline.cancel();
+            if (deadline.expired()) {
+                onLog.accept("Timed out after " + deadline.timeout() + ", killed command: " + String.join(" ", pb.command()));
+                return false;
+            }
+            return exitCode == 0;
 
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             onLog.accept("ERROR: Execution in ProcessRunner failed: " + e.getMessage());     // send error to logs
             return false;
+        } catch (InterruptedException e) {
+            // Keep the interrupt, so the worker sees it is being stopped
+            Thread.currentThread().interrupt();
+            onLog.accept("ERROR: Execution in ProcessRunner interrupted");
+            return false;
+        } finally {
+            deadline.cancel();
+            // Never leave a process tree behind, e.g. when the worker was interrupted
+            if (process != null && process.isAlive()) killProcessTree(process);
+            activeProcesses.remove(buildId);
         }
     }
 
     /**
-     * Recursively deletes a directory with contents
+     * Forcibly kills a process together with all of its descendants, children first
+     * so they are not re-parented and left running.
      *
-     * @param directory File or directory to delete
+     * @param process the root of the process tree to kill
      */
-    private void deleteDirectory(java.io.File directory) {
-        java.io.File[] files = directory.listFiles();
-        if (files != null) {
-            for (java.io.File file : files) {
-                deleteDirectory(file);
-            }
+    private void killProcessTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    /**
+     * The point in time at which the watchdog kills the process tree of a process and marks
+     * its build as timed out. The deadline is counted from when the process starts, or from
+     * the last {@link #restart(Duration)}.
+     */
+    private final class Deadline {
+
+        private final UUID buildId;
+        private Duration timeout;
+        private Process process;
+        private ScheduledFuture<?> expiry;
+        private boolean expired;
+
+        /**
+         * @param buildId the build the process belongs to
+         * @param timeout how long the process may run
+         */
+        Deadline(UUID buildId, Duration timeout) {
+            this.buildId = buildId;
+            this.timeout = timeout;
         }
-        directory.delete();
-    }   
-}
\ No newline at end of file
+
+        /**
+         * Starts counting down for the given process.
+         */
+        synchronized void start(Process process) {
+            this.process = process;
+            schedule();
+        }
+
+        /**
+         * Gives the process the given time from now, unless the deadline already expired
+         * or was cancelled.
+         */
+        synchronized void restart(Duration timeout) {
+            this.timeout = timeout;
+            if (expiry != null && expiry.cancel(false)) schedule();
+        }
+
+        /**
+         * Stops counting down, the process ended.
+         */
+        synchronized void cancel() {
+            if (expiry != null) expiry.cancel(false);
+        }
+
+        /**
+         * @return whether the watchdog killed the process
+         */
+        synchronized boolean expired() {
+            return expired;
+        }
+
+        /**
+         * @return the time the process was last given
+         */
+        synchronized Duration timeout() {
+            return timeout;
+        }
+
+        private void schedule() {
+            Process started = process;
+            expiry = watchdog.schedule(() -> {
+                if (!started.isAlive()) return;
+                synchronized (this) {
+                    expired = true;
+                }
+                timedOutBuilds.add(buildId);
+                killProcessTree(started);
+            }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+}
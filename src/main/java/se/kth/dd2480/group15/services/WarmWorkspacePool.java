@@ -0,0 +1,213 @@
+package se.kth.dd2480.group15.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.infrastructure.config.WorkspaceProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the workspaces of finished builds, per repository, so later builds of the same
+ * repository can start from the checkout and the build outputs ({@code target/}) of an
+ * earlier build, and Maven only recompiles what changed.
+ * <p>
+ * A build takes a warm workspace with {@link #acquire}, which renames it to the path of
+ * its own workspace, and hands it back with {@link #release} once done. The
+ * {@link ProcessRunner} resets a warm workspace to the commit to build and verifies it
+ * matches a fresh checkout before using it; a workspace that does not is
+ * {@link #discard discarded}. Workspaces beyond {@link WorkspaceProperties#poolSize()}
+ * per repository are deleted by the {@link WorkspaceReaper}.
+ * <p>
+ * The idle workspaces are kept in {@code workspace/.warm/<repository>/}, so they survive
+ * a restart. Reuses are counted in the {@code ci.workspace.pool} metric.
+ */
+@Component
+public class WarmWorkspacePool {
+
+    private static final String WARM = ".warm";
+
+    private final boolean enabled;
+    private final int poolSize;
+    private final Path poolRoot;
+    private final WorkspaceReaper reaper;
+
+    /** The idle warm workspaces of each repository, by pool directory, most recently used last. Guarded by this. */
+    private final Map<Path, Deque<Path>> idle = new HashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter discarded;
+
+    /**
+     * Constructs a new WarmWorkspacePool keeping its workspaces in {@code workspace/.warm}.
+     *
+     * @param workspaceProperties the workspace settings containing the pool settings
+     * @param reaper the reaper deleting the workspaces that are not kept
+     * @param meterRegistry the registry the pool metrics are published to
+     */
+    @Autowired
+    public WarmWorkspacePool(WorkspaceProperties workspaceProperties, WorkspaceReaper reaper, MeterRegistry meterRegistry) {
+        this(WorkspaceReaper.WORKSPACE_ROOT, workspaceProperties, reaper, meterRegistry);
+    }
+
+    /**
+     * Constructs a new WarmWorkspacePool keeping its workspaces in the given workspace root.
+     *
+     * @param root the directory holding the workspaces
+     * @param workspaceProperties the workspace settings containing the pool settings
+     * @param reaper the reaper deleting the workspaces that are not kept
+     * @param meterRegistry the registry the pool metrics are published to
+     */
+    WarmWorkspacePool(Path root, WorkspaceProperties workspaceProperties, WorkspaceReaper reaper, MeterRegistry meterRegistry) {
+        this.enabled = workspaceProperties.poolEnabled();
+        this.poolSize = workspaceProperties.poolSize();
+        this.poolRoot = root.resolve(WARM);
+        this.reaper = reaper;
+
+        this.hits = Counter.builder("ci.workspace.pool")
+                .description("Builds that started from a warm workspace")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("ci.workspace.pool")
+                .description("Builds that found no warm workspace of their repository")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.discarded = Counter.builder("ci.workspace.pool")
+                .description("Warm workspaces discarded because they could not be reset to a clean checkout")
+                .tag("result", "discarded")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Picks up the warm workspaces kept by a previous run, or deletes them if the pool
+     * has been disabled since.
+     */
+    @PostConstruct
+    public synchronized void start() {
+        if (!Files.isDirectory(poolRoot)) return;
+
+        if (!enabled) {
+            reaper.reap(poolRoot);
+            return;
+        }
+
+        int recovered = 0;
+        try (Stream<Path> repositories = Files.list(poolRoot)) {
+            for (Path repository : repositories.toList()) {
+                try (Stream<Path> workspaces = Files.list(repository)) {
+                    for (Path workspace : workspaces.toList()) {
+                        idle.computeIfAbsent(repository, r -> new ArrayDeque<>()).addLast(workspace);
+                        recovered++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to list warm workspaces in " + poolRoot + ": " + e.getMessage());
+        }
+        if (recovered > 0) {
+            System.out.println("Recovered " + recovered + " warm workspace(s)");
+        }
+    }
+
+    /** @return whether builds reuse warm workspaces */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Moves the most recently used warm workspace of a repository to the given path.
+     *
+     * @param repoUrl the URL of the repository
+     * @param workspace the path of the workspace of the build, which must not exist
+     * @return {@code true} if a warm workspace was moved there, {@code false} if there was none
+     */
+    public boolean acquire(String repoUrl, Path workspace) {
+        if (!enabled) return false;
+
+        while (true) {
+            Path warm;
+            synchronized (this) {
+                Deque<Path> workspaces = idle.get(repositoryDir(repoUrl));
+                warm = workspaces == null ? null : workspaces.pollLast();
+            }
+            if (warm == null) {
+                misses.increment();
+                return false;
+            }
+
+            try {
+                Files.createDirectories(workspace.getParent());
+                Files.move(warm, workspace, StandardCopyOption.ATOMIC_MOVE);
+                hits.increment();
+                return true;
+            } catch (IOException e) {
+                System.out.println("Failed to take warm workspace " + warm + ": " + e.getMessage());
+                reaper.reap(warm);
+            }
+        }
+    }
+
+    /**
+     * Keeps the workspace of a finished build for later builds of its repository, or
+     * deletes it if the repository already has {@link WorkspaceProperties#poolSize()}
+     * idle workspaces.
+     *
+     * @param repoUrl the URL of the repository
+     * @param workspace the workspace of the finished build
+     */
+    public void release(String repoUrl, Path workspace) {
+        if (!Files.isDirectory(workspace)) return;
+
+        Path repository = repositoryDir(repoUrl);
+        Path target = repository.resolve(workspace.getFileName());
+        synchronized (this) {
+            Deque<Path> workspaces = idle.computeIfAbsent(repository, r -> new ArrayDeque<>());
+            if (enabled && workspaces.size() < poolSize) {
+                try {
+                    Files.createDirectories(repository);
+                    Files.move(workspace, target, StandardCopyOption.ATOMIC_MOVE);
+                    workspaces.addLast(target);
+                    return;
+                } catch (IOException e) {
+                    System.out.println("Failed to keep warm workspace " + workspace + ": " + e.getMessage());
+                }
+            }
+        }
+        reaper.reap(workspace);
+    }
+
+    /**
+     * Deletes a warm workspace that could not be reset to a clean checkout.
+     *
+     * @param workspace the workspace to delete
+     */
+    public void discard(Path workspace) {
+        discarded.increment();
+        reaper.reap(workspace);
+    }
+
+    /**
+     * @param repoUrl the URL of the repository
+     * @return the number of idle warm workspaces of the repository
+     */
+    public synchronized int idleCount(String repoUrl) {
+        Deque<Path> workspaces = idle.get(repositoryDir(repoUrl));
+        return workspaces == null ? 0 : workspaces.size();
+    }
+
+    private Path repositoryDir(String repoUrl) {
+        String name = repoUrl.replaceAll("\\.git$", "").replaceAll(".*[/:]", "");
+        return poolRoot.resolve(name + "-" + GitMirrorCache.hash(repoUrl));
+    }
+}
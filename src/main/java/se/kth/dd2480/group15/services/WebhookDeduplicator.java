@@ -0,0 +1,135 @@
+package se.kth.dd2480.group15.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
+import se.kth.dd2480.group15.infrastructure.config.WebhookProperties;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Recognizes webhooks GitHub delivers more than once, so a redelivery does not start
+ * another build.
+ * <p>
+ * A delivery is identified by its {@code X-GitHub-Delivery} header, which GitHub keeps
+ * when it redelivers, or by the repository and commit when the header is missing. The
+ * build started for each delivery is remembered for {@link WebhookProperties#dedupTtl()},
+ * and at most {@link WebhookProperties#dedupCapacity()} deliveries are remembered; the
+ * oldest are forgotten first.
+ * <p>
+ * Lookups are a single hash map operation, without locks, so duplicates are rejected
+ * before any work is done for them. Recognized and new deliveries are counted as the
+ * {@code ci.webhook.dedup} metric, tagged {@code hit} and {@code miss}.
+ */
+@Component
+public class WebhookDeduplicator {
+
+    private final int capacity;
+    private final long ttlMs;
+
+    private final ConcurrentHashMap<String, Delivery> deliveries = new ConcurrentHashMap<>();
+
+    /** The remembered deliveries in the order they were claimed, which is also the order they expire in. */
+    private final ConcurrentLinkedQueue<Expiry> expiries = new ConcurrentLinkedQueue<>();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    /**
+     * Constructs a new WebhookDeduplicator.
+     *
+     * @param webhookProperties the webhook settings containing the capacity and time to live
+     * @param meterRegistry the registry the hit and miss counters are published to
+     */
+    public WebhookDeduplicator(WebhookProperties webhookProperties, MeterRegistry meterRegistry) {
+        this.capacity = webhookProperties.dedupCapacity();
+        this.ttlMs = webhookProperties.dedupTtl().toMillis();
+        this.hits = Counter.builder("ci.webhook.dedup")
+                .description("Webhook deliveries recognized as redeliveries and ignored")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("ci.webhook.dedup")
+                .description("Webhook deliveries seen for the first time")
+                .tag("result", "miss")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the key identifying a delivery: its delivery id, or the repository and
+     * commit of the push if GitHub did not send one.
+     *
+     * @param deliveryId the {@code X-GitHub-Delivery} header, may be {@code null}
+     * @param payload the push event payload
+     * @return the key of the delivery
+     */
+    public static String key(String deliveryId, PushRequestDTO payload) {
+        if (deliveryId != null && !deliveryId.isBlank()) return "delivery:" + deliveryId;
+        PushRequestDTO.Repository repository = payload.getRepository();
+        return "commit:" + repository.getOwner().getName() + "/" + repository.getName() + "@" + payload.getAfter();
+    }
+
+    /**
+     * Remembers a delivery as starting a build, unless it was already seen.
+     *
+     * @param key the key of the delivery, see {@link #key}
+     * @param buildId the build the delivery starts if it is new
+     * @return the build started by the earlier delivery if this one is a duplicate, otherwise empty
+     */
+    public Optional<UUID> claim(String key, UUID buildId) {
+        long now = System.currentTimeMillis();
+        evict(now);
+
+        Delivery delivery = new Delivery(buildId, now + ttlMs);
+        while (true) {
+            Delivery existing = deliveries.putIfAbsent(key, delivery);
+            if (existing != null && existing.expiresAt > now) {
+                hits.increment();
+                return Optional.of(existing.buildId);
+            }
+            if (existing == null || deliveries.replace(key, existing, delivery)) {
+                expiries.offer(new Expiry(key, delivery));
+                misses.increment();
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * Forgets a claimed delivery whose build could not be started, so a redelivery may start it.
+     *
+     * @param key the key of the delivery
+     * @param buildId the build the delivery was claimed with
+     */
+    public void release(String key, UUID buildId) {
+        deliveries.computeIfPresent(key, (k, delivery) -> delivery.buildId.equals(buildId) ? null : delivery);
+    }
+
+    /**
+     * @return the number of deliveries remembered
+     */
+    public int size() {
+        return deliveries.size();
+    }
+
+    /**
+     * Forgets the deliveries that expired, and the oldest ones while over capacity.
+     */
+    private void evict(long now) {
+        while (true) {
+            Expiry oldest = expiries.peek();
+            if (oldest == null) return;
+            if (oldest.delivery.expiresAt > now && deliveries.size() < capacity) return;
+
+            oldest = expiries.poll();
+            if (oldest != null) deliveries.remove(oldest.key, oldest.delivery);
+        }
+    }
+
+    private record Delivery(UUID buildId, long expiresAt) { }
+
+    private record Expiry(String key, Delivery delivery) { }
+}
@@ -0,0 +1,145 @@
+package se.kth.dd2480.group15.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.infrastructure.config.QueueProperties;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Takes the builds of incoming webhooks off the request thread.
+ * <p>
+ * {@link #submit} only adds the build of a webhook to a lock-free buffer, so the webhook
+ * can be answered right away. A background thread takes the builds from the buffer and
+ * hands them to {@link CIService#queueBuild}, which saves them, records them in the journal
+ * and queues them. Bursts of pushes therefore wait in memory instead of holding request
+ * threads while the builds are written to disk.
+ * <p>
+ * At most {@link QueueProperties#ingestCapacity()} builds wait in the buffer; webhooks
+ * beyond that are refused, so GitHub reports them as failed deliveries that can be
+ * redelivered. Builds still in the buffer on shutdown are queued before the service stops.
+ * A build that fails to be queued runs the failure callback it was submitted with.
+ */
+@Component
+public class WebhookIngest {
+
+    /** How long the ingest thread sleeps when the buffer is empty, unless it is woken up. */
+    private static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final CIService ciService;
+    private final int capacity;
+
+    private final ConcurrentLinkedQueue<Submission> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger buffered = new AtomicInteger();
+
+    private volatile boolean running;
+    private volatile Thread ingestThread;
+
+    /**
+     * Constructs a new WebhookIngest.
+     *
+     * @param ciService the service the builds are queued with
+     * @param queueProperties the queue settings containing the ingest capacity
+     */
+    public WebhookIngest(CIService ciService, QueueProperties queueProperties) {
+        this.ciService = ciService;
+        this.capacity = queueProperties.ingestCapacity();
+    }
+
+    /**
+     * Starts the ingest thread.
+     */
+    @PostConstruct
+    public void start() {
+        running = true;
+        ingestThread = new Thread(this::run, "ci_webhook_ingest");
+        ingestThread.setDaemon(true);
+        ingestThread.start();
+    }
+
+    /**
+     * Stops the ingest thread once the builds left in the buffer have been queued.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (ingestThread == null) return;
+        LockSupport.unpark(ingestThread);
+        try {
+            ingestThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds a new build to the buffer, without waiting for it to be saved or queued.
+     *
+     * @param build the build of a push event, see {@link CIService#newBuild}
+     * @return {@code true} if the build was added, {@code false} if the buffer is full
+     */
+    public boolean submit(Build build) {
+        return submit(build, () -> { });
+    }
+
+    /**
+     * Adds a new build to the buffer, without waiting for it to be saved or queued.
+     *
+     * @param build the build of a push event, see {@link CIService#newBuild}
+     * @param onFailure run on the ingest thread if the build cannot be queued
+     * @return {@code true} if the build was added, {@code false} if the buffer is full
+     */
+    public boolean submit(Build build, Runnable onFailure) {
+        if (buffered.incrementAndGet() > capacity) {
+            buffered.decrementAndGet();
+            return false;
+        }
+
+        buffer.offer(new Submission(build, onFailure));
+        Thread thread = ingestThread;
+        if (thread != null) LockSupport.unpark(thread);
+        return true;
+    }
+
+    /**
+     * @return the number of builds waiting in the buffer
+     */
+    public int backlog() {
+        return buffered.get();
+    }
+
+    /**
+     * Main loop of the ingest thread, queuing the buffered builds in the order they were
+     * submitted. Exits once stopped and the buffer is empty.
+     */
+    private void run() {
+        while (true) {
+            Submission submission = buffer.poll();
+            if (submission == null) {
+                if (!running) return;
+                LockSupport.parkNanos(this, IDLE_PARK_NS);
+                continue;
+            }
+
+            Build build = submission.build();
+            try {
+                ciService.queueBuild(build);
+            } catch (RuntimeException e) {
+                System.out.println("Failed to queue build " + build.getBuildId() + ": " + e.getMessage());
+                submission.onFailure().run();
+            } finally {
+                buffered.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A build waiting in the buffer, with the callback to run if it cannot be queued.
+     */
+    private record Submission(Build build, Runnable onFailure) { }
+}
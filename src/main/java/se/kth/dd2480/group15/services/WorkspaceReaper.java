@@ -0,0 +1,226 @@
+package se.kth.dd2480.group15.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import se.kth.dd2480.group15.infrastructure.config.WorkspaceProperties;
+import se.kth.dd2480.group15.infrastructure.persistence.FileTrees;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Deletes the workspaces of finished builds in the background, so a build worker does not
+ * wait for the files of a workspace to be deleted before it reports the result of the build.
+ * <p>
+ * {@link #reap} only renames the workspace into the {@code .trash} directory of the
+ * workspace root, which is a single atomic operation no matter how many files it holds,
+ * and frees the path of the workspace right away. The trashed workspace is then deleted by
+ * a pool of {@link WorkspaceProperties#reaperThreads()} threads, each top level entry of it
+ * in parallel.
+ * <p>
+ * Files that cannot be deleted are reported in the log and counted in the
+ * {@code ci.workspace.reaped} metric; they stay in the trash, which is emptied again on the
+ * next start, together with the workspaces orphaned by builds that were running when the
+ * server stopped.
+ */
+@Component
+public class WorkspaceReaper {
+
+    /** The directory holding the workspaces of the builds. */
+    static final Path WORKSPACE_ROOT = Path.of("workspace");
+
+    private static final String TRASH = ".trash";
+
+    private final Path root;
+    private final Path trash;
+    private final ExecutorService reapers;
+
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final Counter reaped;
+    private final Counter failed;
+
+    /**
+     * Constructs a new WorkspaceReaper for the workspaces in {@code workspace/}.
+     *
+     * @param workspaceProperties the workspace settings containing the number of reaper threads
+     * @param meterRegistry the registry the reaper metrics are published to
+     */
+    @Autowired
+    public WorkspaceReaper(WorkspaceProperties workspaceProperties, MeterRegistry meterRegistry) {
+        this(WORKSPACE_ROOT, workspaceProperties, meterRegistry);
+    }
+
+    /**
+     * Constructs a new WorkspaceReaper for the workspaces in the given directory.
+     *
+     * @param root the directory holding the workspaces
+     * @param workspaceProperties the workspace settings containing the number of reaper threads
+     * @param meterRegistry the registry the reaper metrics are published to
+     */
+    WorkspaceReaper(Path root, WorkspaceProperties workspaceProperties, MeterRegistry meterRegistry) {
+        this.root = root;
+        this.trash = root.resolve(TRASH);
+
+        AtomicInteger counter = new AtomicInteger();
+        this.reapers = Executors.newFixedThreadPool(workspaceProperties.reaperThreads(), r -> {
+            Thread thread = new Thread(r, "ci_workspace_reaper-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.reaped = Counter.builder("ci.workspace.reaped")
+                .description("Workspaces deleted in the background")
+                .tag("result", "deleted")
+                .register(meterRegistry);
+        this.failed = Counter.builder("ci.workspace.reaped")
+                .description("Workspaces whose files could not all be deleted")
+                .tag("result", "failed")
+                .register(meterRegistry);
+        Gauge.builder("ci.workspace.reaper.backlog", backlog, AtomicInteger::get)
+                .description("Workspaces waiting to be deleted")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Deletes the workspaces orphaned by a previous run, and what it left in the trash.
+     * Runs before any build starts, so every workspace found is orphaned. Hidden
+     * directories of the workspace root, such as the trash and the
+     * {@link WarmWorkspacePool}, are not workspaces and are left alone.
+     */
+    @PostConstruct
+    public void start() {
+        List<Path> orphans = new ArrayList<>();
+        if (Files.isDirectory(root)) {
+            try (Stream<Path> entries = Files.list(root)) {
+                entries.filter(entry -> !entry.getFileName().toString().startsWith(".")).forEach(orphans::add);
+            } catch (IOException e) {
+                System.out.println("Failed to list workspaces in " + root + ": " + e.getMessage());
+            }
+        }
+        for (Path orphan : orphans) {
+            moveToTrash(orphan);
+        }
+
+        int trashed = 0;
+        if (Files.isDirectory(trash)) {
+            try (Stream<Path> entries = Files.list(trash)) {
+                for (Path entry : entries.toList()) {
+                    delete(entry);
+                    trashed++;
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to list trashed workspaces in " + trash + ": " + e.getMessage());
+            }
+        }
+        if (trashed > 0) {
+            System.out.println("Deleting " + trashed + " orphaned workspace(s) in the background");
+        }
+    }
+
+    /**
+     * Stops the reaper threads, giving them a moment to finish. Workspaces not deleted yet
+     * stay in the trash and are deleted after the next start.
+     */
+    @PreDestroy
+    public void stop() {
+        // The directory of a workspace is deleted by a task submitted once its entries are
+        // gone, so wait for the backlog rather than shutting down the pool right away
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        try {
+            while (backlog.get() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reapers.shutdownNow();
+    }
+
+    /**
+     * Moves a workspace out of the way and deletes it in the background. The path of the
+     * workspace is free again once this returns.
+     *
+     * @param workspace the workspace to delete
+     * @return a future completing once the workspace has been deleted, as far as possible
+     */
+    public CompletableFuture<Void> reap(Path workspace) {
+        if (!Files.exists(workspace, LinkOption.NOFOLLOW_LINKS)) return CompletableFuture.completedFuture(null);
+        return delete(moveToTrash(workspace));
+    }
+
+    /**
+     * @return the number of workspaces waiting to be deleted
+     */
+    public int backlog() {
+        return backlog.get();
+    }
+
+    /**
+     * Renames a workspace into the trash.
+     *
+     * @return the path of the workspace in the trash, or its own path if it could not be moved
+     */
+    private Path moveToTrash(Path workspace) {
+        Path target = trash.resolve(workspace.getFileName() + "-" + System.nanoTime());
+        try {
+            Files.createDirectories(trash);
+            return Files.move(workspace, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Failed to move workspace " + workspace + " to the trash, deleting it in place: " + e.getMessage());
+            return workspace;
+        }
+    }
+
+    /**
+     * Deletes a directory on the reaper threads, each of its top level entries in parallel,
+     * and the directory itself once they are gone.
+     */
+    private CompletableFuture<Void> delete(Path dir) {
+        backlog.incrementAndGet();
+        List<Path> entries = List.of();
+        if (Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            try (Stream<Path> list = Files.list(dir)) {
+                entries = list.toList();
+            } catch (IOException e) {
+                // Deleted as a whole below
+            }
+        }
+
+        AtomicInteger failures = new AtomicInteger();
+        try {
+            CompletableFuture<?>[] parts = entries.stream()
+                    .map(entry -> CompletableFuture.runAsync(() -> failures.addAndGet(FileTrees.deleteTree(entry)), reapers))
+                    .toArray(CompletableFuture[]::new);
+            return CompletableFuture.allOf(parts)
+                    .thenRunAsync(() -> failures.addAndGet(FileTrees.deleteTree(dir)), reapers)
+                    .whenComplete((result, e) -> {
+                        backlog.decrementAndGet();
+                        if (failures.get() == 0 && e == null) {
+                            reaped.increment();
+                        } else {
+                            failed.increment();
+                            System.out.println("Failed to delete " + failures.get() + " file(s) of workspace " + dir
+                                    + ", retrying after the next start");
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the workspace is deleted after the next start
+            backlog.decrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -11,23 +11,36 @@ async function loadBuildDetails(){
         const metaResponse = await fetch(`/api/v1/builds/${buildId}`);
         const metaData = await metaResponse.json();
 
-        const logResponse = await fetch(`/api/v1/builds/${buildId}/log`);
-        const logData = await logResponse.json();
-
-        displayData(metaData, logData);
+        displayData(metaData);
+        streamLog(buildId);
     } 
     catch(error){
         console.error("Communication error", error);
     }
 
-    function displayData(meta, logBody){
+    function displayData(meta){
         document.getElementById('header-id').innerText = `Build #${meta.buildId}`;
         document.getElementById('build-status').innerText = meta.status;
         document.getElementById('build-commit').innerText = meta.commitSha;
         document.getElementById('build-owner').innerText = meta.owner;
         document.getElementById('build-date').innerText = meta.createdAt;
-        document.getElementById('log-output').innerText = logBody.logContent;
+    }
+
+    // Appends the log as it is written; the browser resumes from the last event after a reconnect
+    function streamLog(buildId){
+        const logOutput = document.getElementById('log-output');
+        logOutput.innerText = "";
+
+        const source = new EventSource(`/api/v1/builds/${buildId}/log/stream`);
+        source.addEventListener('log', event => {
+            logOutput.append(JSON.parse(event.data).logContent);
+        });
+        source.addEventListener('end', async () => {
+            source.close();
+            const metaResponse = await fetch(`/api/v1/builds/${buildId}`);
+            displayData(await metaResponse.json());
+        });
     }
 }
 
-loadBuildDetails()
\ No newline at end of file
+loadBuildDetails()
@@ -1,13 +1,20 @@
+let nextCursor = null;
+
 async function fetchBuilds() {
     const listElement = document.getElementById('build-list');
+    const loadMoreButton = document.getElementById('load-more');
     
     try {
-        const response = await fetch('/api/v1/builds');
+        // Newest builds first, one page at a time
+        const query = new URLSearchParams({ newestFirst: 'true', limit: '50' });
+        if (nextCursor) query.set('cursor', nextCursor);
+
+        const response = await fetch(`/api/v1/builds?${query}`);
         const data = await response.json();
 
         const builds = data.builds; //from BuildListResponse DTO
 
-        listElement.innerHTML = ''; //in case we do some auto/live update 
+        if (!nextCursor) listElement.innerHTML = ''; //in case we do some auto/live update 
 
         builds.forEach(build => {
             const row = document.createElement('tr');
@@ -20,10 +27,15 @@ async function fetchBuilds() {
                 <td><a href="${uniqueUrl}" class="view-btn">View Logs</a></td>`;
             listElement.appendChild(row);
         });
+
+        nextCursor = data.nextCursor;
+        loadMoreButton.hidden = !nextCursor;
         } catch (error) {
             listElement.innerHTML = '<tr><td colspan="6">Failed to load builds</td></tr>';
             console.error("Error:", error);
     }
 }
 
-fetchBuilds();
\ No newline at end of file
+document.getElementById('load-more').addEventListener('click', fetchBuilds);
+
+fetchBuilds();
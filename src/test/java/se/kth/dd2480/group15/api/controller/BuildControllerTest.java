@@ -13,14 +13,17 @@ import se.kth.dd2480.group15.api.dto.response.BuildListResponse;
 import se.kth.dd2480.group15.api.dto.response.BuildLogResponse;
 import se.kth.dd2480.group15.api.dto.response.BuildMetaResponse;
 import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.domain.BuildNotFoundException;
 import se.kth.dd2480.group15.domain.BuildSummary;
 import se.kth.dd2480.group15.services.BuildService;
+import se.kth.dd2480.group15.services.CIService;
 
 import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
 
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -39,13 +42,16 @@ class BuildControllerTest {
     @MockitoBean
     private BuildService buildService;
 
+    @MockitoBean
+    private CIService ciService;
+
     /**
      * Verifies that the {@code getBuildHistory} endpoint returns a {@code HTTP 200 OK}
      * response with the correct JSON payload containing the build history.
      * <p>
      * Test setup:
      * - A mock {@link BuildListResponse} is created with a single {@link BuildSummary}.
-     * - The {@code buildService.getAllBuilds()} method is mocked to return the mock response.
+     * - The {@code buildService.getBuilds()} method is mocked to return the mock response for the first page.
      * - The expected JSON representation of the mock response is generated.
      * - A GET request is performed on the {@code /api/v1/builds} endpoint using {@link MockMvc}.
      */
@@ -57,7 +63,7 @@ class BuildControllerTest {
                 Instant.now()
         );
         BuildListResponse mockResponse = new BuildListResponse(List.of(summary));
-        when(buildService.getAllBuilds()).thenReturn(mockResponse);
+        when(buildService.getBuilds(null, 50, false, null, null)).thenReturn(mockResponse);
 
         String expectedJson = MAPPER.writeValueAsString(mockResponse);
         mockMvc.perform(get("/api/v1/builds"))
@@ -102,7 +108,7 @@ class BuildControllerTest {
      * Test setup:
      * - A mock build identifier is created as well as a sample log string.
      * - A {@link BuildLogResponse} object containing the sample log string is mocked
-     *   as the return value of {@code buildService.getBuildLog(UUID)}.
+     *   as the return value of {@code buildService.getBuildLog(UUID, long, int)} for the first page.
      * - The expected JSON representation of the mocked response is generated.
      * - A GET request is made to the {@code /api/v1/builds/{buildId}/log} endpoint.
      */
@@ -111,11 +117,108 @@ class BuildControllerTest {
         UUID buildId = UUID.randomUUID();
         String logContent = "Sample build log content";
         BuildLogResponse mockResponse = new BuildLogResponse(logContent);
-        when(buildService.getBuildLog(buildId)).thenReturn(mockResponse);
+        when(buildService.getBuildLog(buildId, 0, BuildService.MAX_LOG_PAGE_BYTES)).thenReturn(mockResponse);
 
         String expectedJson = MAPPER.writeValueAsString(mockResponse);
         mockMvc.perform(get("/api/v1/builds/" + buildId + "/log"))
                 .andExpect(status().isOk())
                 .andExpect(content().json(expectedJson));
     }
-}
\ No newline at end of file
+
+    /**
+     * Verifies that the {@code offset}, {@code limit} and {@code tail} parameters of the
+     * {@code /api/v1/builds/{buildId}/log} endpoint are passed on to the build service, and
+     * that a negative offset or a limit too small to hold a character is rejected.
+     * <p>
+     * Test setup:
+     * - {@code buildService.getBuildLog(UUID, long, int)} is mocked to return a page of the log.
+     * - {@code buildService.getBuildLogTail(UUID, int)} is mocked to return the last lines of the log.
+     * - GET requests are made with an offset and limit, with tail, with a negative offset and
+     *   with limits of 0 and 3 bytes.
+     */
+    @Test
+    void getBuildLog_withRangeParameters_returnsRequestedPage() throws Exception {
+        UUID buildId = UUID.randomUUID();
+        BuildLogResponse page = new BuildLogResponse("page", 100, 104, 500);
+        BuildLogResponse tail = new BuildLogResponse("last\n", 495, 500, 500);
+        when(buildService.getBuildLog(buildId, 100, 4)).thenReturn(page);
+        when(buildService.getBuildLogTail(buildId, 1)).thenReturn(tail);
+
+        mockMvc.perform(get("/api/v1/builds/" + buildId + "/log").param("offset", "100").param("limit", "4"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(MAPPER.writeValueAsString(page)));
+        mockMvc.perform(get("/api/v1/builds/" + buildId + "/log").param("tail", "1"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(MAPPER.writeValueAsString(tail)));
+        mockMvc.perform(get("/api/v1/builds/" + buildId + "/log").param("offset", "-1"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/builds/" + buildId + "/log").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/builds/" + buildId + "/log").param("limit", "3"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Verifies that the {@code limit}, {@code cursor}, {@code newestFirst} and creation date
+     * range parameters of the {@code /api/v1/builds} endpoint are passed on to the build service, and that
+     * a malformed cursor results in a {@code HTTP 400 Bad Request} response.
+     * <p>
+     * Test setup:
+     * - {@code buildService.getBuilds()} is mocked to return a page with a next cursor.
+     * - {@code buildService.getBuilds()} is mocked to reject a malformed cursor.
+     * - GET requests are made with the pagination parameters and with the malformed cursor.
+     */
+    @Test
+    void getBuildHistory_withPaginationParameters_returnsRequestedPage() throws Exception {
+        BuildSummary summary = new BuildSummary(UUID.randomUUID(), "abc123", Instant.now());
+        BuildListResponse page = new BuildListResponse(List.of(summary), "next");
+        Instant from = Instant.parse("2025-01-01T00:00:00Z"), to = Instant.parse("2025-02-01T00:00:00Z");
+        when(buildService.getBuilds("cursor", 1, true, from, to)).thenReturn(page);
+        when(buildService.getBuilds("malformed", 50, false, null, null)).thenThrow(new IllegalArgumentException("Malformed cursor"));
+
+        mockMvc.perform(get("/api/v1/builds")
+                        .param("limit", "1")
+                        .param("cursor", "cursor")
+                        .param("newestFirst", "true")
+                        .param("createdFrom", from.toString())
+                        .param("createdTo", to.toString()))
+                .andExpect(status().isOk())
+                .andExpect(content().json(MAPPER.writeValueAsString(page)));
+        mockMvc.perform(get("/api/v1/builds").param("cursor", "malformed"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Verifies that the {@code DELETE /api/v1/builds/{buildId}} endpoint answers according
+     * to how the build could be cancelled.
+     * <p>
+     * Test setup:
+     * - {@code ciService.cancel()} is mocked to report a queued build as cancelled, a running
+     *   build as being cancelled, a finished build as not cancellable and an unknown build as missing.
+     * - {@code buildService.getBuild()} is mocked to return the metadata of the cancelled build.
+     * - DELETE requests are made for each of the builds.
+     */
+    @Test
+    void cancelBuild_answersAccordingToCancellation() throws Exception {
+        Build build = Build.newBuild("abc123", "url", "owner", "repo");
+        build.cancel();
+        BuildMetaResponse cancelled = new BuildMetaResponse(
+                build.getBuildId(), build.getCommitSha(), build.getRepoOwner(), build.getStatus(), build.getCreatedAt());
+        UUID running = UUID.randomUUID(), finished = UUID.randomUUID(), unknown = UUID.randomUUID();
+        when(ciService.cancel(build.getBuildId())).thenReturn(CIService.Cancellation.CANCELLED);
+        when(ciService.cancel(running)).thenReturn(CIService.Cancellation.CANCELLING);
+        when(ciService.cancel(finished)).thenReturn(CIService.Cancellation.NOT_CANCELLABLE);
+        when(ciService.cancel(unknown)).thenThrow(new BuildNotFoundException(unknown));
+        when(buildService.getBuild(build.getBuildId())).thenReturn(cancelled);
+
+        mockMvc.perform(delete("/api/v1/builds/" + build.getBuildId()))
+                .andExpect(status().isOk())
+                .andExpect(content().json(MAPPER.writeValueAsString(cancelled)));
+        mockMvc.perform(delete("/api/v1/builds/" + running))
+                .andExpect(status().isAccepted());
+        mockMvc.perform(delete("/api/v1/builds/" + finished))
+                .andExpect(status().isConflict());
+        mockMvc.perform(delete("/api/v1/builds/" + unknown))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -1,19 +1,29 @@
 package se.kth.dd2480.group15.api.controller;
 
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
-import se.kth.dd2480.group15.services.CIService;
-import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.services.WebhookDeduplicator;
+import se.kth.dd2480.group15.services.WebhookIngest;
+
+import java.util.Optional;
+import java.util.UUID;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
-import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.hamcrest.Matchers.startsWith;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.when;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 
 @WebMvcTest(WebhookController.class)
@@ -23,24 +33,12 @@ class WebhookControllerTest {
     private MockMvc mockMvc;
 
     @MockitoBean
-    private CIService ciService;
+    private WebhookIngest webhookIngest;
 
-    /**
-     * Verifies that {@code handleWebhook} returns {@code HTTP 200 OK} when the
-     * payload is correctly formatted and contains valid data. 
-     * This test simulates a typical webhook payload using mockMvc to send a POST request to the /webhook endpoint, 
-     * which ensures the controller can parse the JSON and respond appropriately.
-     * <p>
-     * Test setup: A JSON payload is created with a repository name, branch reference, and commit hash.
-     * The payload is sent as a POST request to the /webhook endpoint using mockMvc.
-     * 
-     * Expected outcome: The controller should return a 200 OK status with a message 
-     * indicating that the CI job has started for the given commit hash.
-     * </p>
-     */
-    @Test
-    void handleWebhook_returns200OK() throws Exception {
-        String jsonPayload = """
+    @MockitoBean
+    private WebhookDeduplicator deduplicator;
+
+    private static final String PAYLOAD = """
             {
                 "ref": "refs/heads/main",
                 "after": "1234567890abcdef",
@@ -53,13 +51,116 @@ class WebhookControllerTest {
             }
             """;
 
+    /**
+     * Verifies that {@code handleWebhook} returns {@code HTTP 202 Accepted} when the
+     * payload is correctly formatted and contains valid data. 
+     * This test simulates a typical webhook payload using mockMvc to send a POST request to the /webhook endpoint, 
+     * which ensures the controller can parse the JSON and hands the build to the ingest buffer.
+     * <p>
+     * Test setup: A JSON payload is created with a repository name, branch reference, and commit hash.
+     * The payload is sent as a POST request to the /webhook endpoint using mockMvc.
+     * 
+     * Expected outcome: The controller should return a 202 Accepted status with the id of the
+     * build, its location, and a message indicating that the CI job has started for the given commit hash.
+     * </p>
+     */
+    @Test
+    void handleWebhook_returns202Accepted() throws Exception {
+        when(webhookIngest.submit(any(Build.class), any())).thenReturn(true);
+
         mockMvc.perform(post("/webhook")
                 .contentType(MediaType.APPLICATION_JSON)
-                .content(jsonPayload))
-                .andExpect(status().isOk())
-                .andExpect(content().string("CI job started for 1234567890abcdef"));
+                .header("X-GitHub-Delivery", "delivery-1")
+                .content(PAYLOAD))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", startsWith("/api/v1/builds/")))
+                .andExpect(jsonPath("$.buildId").isNotEmpty())
+                .andExpect(jsonPath("$.message").value("CI job started for 1234567890abcdef"));
         
-        verify(ciService, times(1)).queueJob(any(PushRequestDTO.class));
+        verify(deduplicator).claim(eq("delivery:delivery-1"), any(UUID.class));
+        verify(webhookIngest, times(1)).submit(any(Build.class), any());
+    }
+
+    /**
+     * Verifies that {@code handleWebhook} returns {@code HTTP 200 OK} with the build started
+     * earlier, without submitting another build, when the delivery is a redelivery.
+     * <p>
+     * Test setup: The deduplicator reports the delivery id as already seen.
+     * Without the header, the delivery is identified by its repository and commit.
+     * </p>
+     */
+    @Test
+    void handleWebhook_redelivery_returnsOriginalBuild() throws Exception {
+        UUID original = UUID.randomUUID();
+        when(deduplicator.claim(eq("delivery:delivery-1"), any(UUID.class))).thenReturn(Optional.of(original));
+        when(deduplicator.claim(eq("commit:Selinaliu1030/assignment-2@1234567890abcdef"), any(UUID.class)))
+                .thenReturn(Optional.of(original));
+
+        mockMvc.perform(post("/webhook")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("X-GitHub-Delivery", "delivery-1")
+                .content(PAYLOAD))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.buildId").value(original.toString()));
+        mockMvc.perform(post("/webhook")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(PAYLOAD))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.buildId").value(original.toString()));
+
+        verify(webhookIngest, never()).submit(any(Build.class), any());
+    }
+
+    /**
+     * Verifies that {@code handleWebhook} returns {@code HTTP 400 Bad Request} when the
+     * payload is valid JSON but has no repository, without submitting a build.
+     */
+    @Test
+    void handleWebhook_missingRepository_returnsBadRequest() throws Exception {
+        mockMvc.perform(post("/webhook")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"ref\": \"refs/heads/main\", \"after\": \"1234567890abcdef\"}"))
+                .andExpect(status().isBadRequest());
+
+        verify(webhookIngest, never()).submit(any(Build.class), any());
+    }
+
+    /**
+     * Verifies that {@code handleWebhook} returns {@code HTTP 503 Service Unavailable}
+     * when the ingest buffer is full, and forgets the delivery so a redelivery can start the build.
+     */
+    @Test
+    void handleWebhook_bufferFull_returnsServiceUnavailable() throws Exception {
+        when(webhookIngest.submit(any(Build.class), any())).thenReturn(false);
+
+        mockMvc.perform(post("/webhook")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("X-GitHub-Delivery", "delivery-1")
+                .content(PAYLOAD))
+                .andExpect(status().isServiceUnavailable());
+
+        verify(deduplicator).release(eq("delivery:delivery-1"), any(UUID.class));
+    }
+
+    /**
+     * Verifies that the delivery is forgotten when the build fails to be queued after the
+     * webhook was answered, so a redelivery can start it.
+     */
+    @Test
+    void handleWebhook_queueFails_releasesDelivery() throws Exception {
+        ArgumentCaptor<Build> build = ArgumentCaptor.forClass(Build.class);
+        ArgumentCaptor<Runnable> onFailure = ArgumentCaptor.forClass(Runnable.class);
+        when(webhookIngest.submit(build.capture(), onFailure.capture())).thenReturn(true);
+
+        mockMvc.perform(post("/webhook")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("X-GitHub-Delivery", "delivery-1")
+                .content(PAYLOAD))
+                .andExpect(status().isAccepted());
+        verify(deduplicator, never()).release(any(), any());
+
+        onFailure.getValue().run();
+        verify(deduplicator).release("delivery:delivery-1", build.getValue().getBuildId());
     }
 
     /**
@@ -0,0 +1,143 @@
+package se.kth.dd2480.group15.api.converter;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.*;
+import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading a 1 MB push event payload into a {@link PushRequestDTO} by binding it
+ * with Jackson databind, as the default JSON message converter does, with the
+ * {@link PushEventParser}. The allocation per payload is reported by the {@code gc}
+ * profiler as {@code gc.alloc.rate.norm}.
+ * <p>
+ * Run with {@code mvn test -Pbench -Dbench=PushEventParserBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PushEventParserBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        payload = payload(1024 * 1024).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The payload bound with databind, skipping unknown properties.
+     */
+    @Benchmark
+    public PushRequestDTO databind() throws IOException {
+        return MAPPER.readValue(new ByteArrayInputStream(payload), PushRequestDTO.class);
+    }
+
+    /**
+     * The payload read token by token, skipping the unused fields.
+     */
+    @Benchmark
+    public PushRequestDTO streaming() throws IOException {
+        return PushEventParser.parse(new ByteArrayInputStream(payload));
+    }
+
+    /**
+     * Creates a push event payload shaped like the ones GitHub sends, with as many commits
+     * as it takes to reach the given size.
+     *
+     * @param targetBytes the approximate size of the payload
+     * @return the payload as JSON
+     */
+    static String payload(int targetBytes) {
+        ObjectNode push = MAPPER.createObjectNode();
+        push.put("ref", "refs/heads/main");
+        push.put("before", "1f2e3d4c5b6a79881f2e3d4c5b6a79881f2e3d4c");
+        push.put("after", "8ddd5caef7130e90a15e2b8e0707d5596654b4b9");
+
+        ObjectNode repository = push.putObject("repository");
+        repository.put("id", 917263544);
+        repository.put("node_id", "R_kgDONqwXeA");
+        repository.put("name", "assignment-2");
+        repository.put("full_name", "owner/assignment-2");
+        repository.put("private", false);
+        ObjectNode owner = repository.putObject("owner");
+        owner.put("name", "owner");
+        owner.put("email", "owner@users.noreply.github.com");
+        owner.put("login", "owner");
+        owner.put("id", 4711);
+        owner.put("avatar_url", "https://avatars.githubusercontent.com/u/4711?v=4");
+        owner.put("type", "User");
+        owner.put("site_admin", false);
+        repository.put("html_url", "https://github.com/owner/assignment-2");
+        repository.put("description", "Continuous integration server");
+        repository.put("fork", false);
+        for (String url : new String[] {"forks", "keys", "collaborators", "teams", "hooks", "issue_events",
+                "events", "assignees", "branches", "tags", "blobs", "git_tags", "git_refs", "trees", "statuses",
+                "languages", "stargazers", "contributors", "subscribers", "subscription", "commits", "git_commits",
+                "comments", "issue_comment", "contents", "compare", "merges", "archive", "downloads", "issues",
+                "pulls", "milestones", "notifications", "labels", "releases", "deployments"}) {
+            repository.put(url + "_url", "https://api.github.com/repos/owner/assignment-2/" + url);
+        }
+        repository.put("created_at", 1736950000);
+        repository.put("pushed_at", 1738150000);
+        repository.put("git_url", "git://github.com/owner/assignment-2.git");
+        repository.put("ssh_url", "git@github.com:owner/assignment-2.git");
+        repository.put("clone_url", "https://github.com/owner/assignment-2.git");
+        repository.put("size", 412);
+        repository.put("language", "Java");
+        repository.putArray("topics").add("ci").add("java");
+        repository.put("default_branch", "main");
+
+        push.putObject("pusher").put("name", "owner").put("email", "owner@users.noreply.github.com");
+        ObjectNode sender = push.putObject("sender");
+        sender.put("login", "owner");
+        sender.put("id", 4711);
+        sender.put("avatar_url", "https://avatars.githubusercontent.com/u/4711?v=4");
+        sender.put("type", "User");
+        push.put("created", false);
+        push.put("deleted", false);
+        push.put("forced", false);
+        push.putNull("base_ref");
+        push.put("compare", "https://github.com/owner/assignment-2/compare/1f2e3d4c5b6a...8ddd5caef713");
+
+        ArrayNode commits = push.putArray("commits");
+        ObjectNode commit = null;
+        int i = 0;
+        while (push.toString().length() < targetBytes - 4096) {
+            for (int batch = 0; batch < 16; batch++, i++) {
+                commit = commits.addObject();
+                String id = String.format("%040x", i * 2654435761L);
+                commit.put("id", id);
+                commit.put("tree_id", String.format("%040x", i * 40503L));
+                commit.put("distinct", true);
+                commit.put("message", "Change " + i + ": refactor the build queue and update the tests\n\n"
+                        + "Longer description of the change, explaining why it was needed and what it affects.");
+                commit.put("timestamp", "2025-02-10T12:00:00+01:00");
+                commit.put("url", "https://github.com/owner/assignment-2/commit/" + id);
+                commit.putObject("author").put("name", "Author " + i).put("email", "author@example.com").put("username", "author");
+                commit.putObject("committer").put("name", "GitHub").put("email", "noreply@github.com").put("username", "web-flow");
+                ArrayNode modified = commit.putArray("modified");
+                for (int f = 0; f < 8; f++) {
+                    modified.add("src/main/java/se/kth/dd2480/group15/services/Service" + (i + f) + ".java");
+                }
+                commit.putArray("added").add("src/test/java/se/kth/dd2480/group15/services/Service" + i + "Test.java");
+                commit.putArray("removed");
+            }
+        }
+        push.set("head_commit", commit == null ? null : commit.deepCopy());
+        return push.toString();
+    }
+}
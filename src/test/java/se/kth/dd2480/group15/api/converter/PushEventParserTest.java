@@ -0,0 +1,88 @@
+package se.kth.dd2480.group15.api.converter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link PushEventParser}
+ * Verifies the used fields are read from push payloads the same way databind reads them
+ */
+class PushEventParserTest {
+
+    private static PushRequestDTO parse(String json) throws IOException {
+        return PushEventParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Verifies that the used fields are read and the rest of a realistic payload is skipped,
+     * including nested fields with the same names as the used ones
+     */
+    @Test
+    void parseShouldReadUsedFieldsOnly() throws IOException {
+        String json = PushEventParserBenchmark.payload(50_000);
+
+        PushRequestDTO push = parse(json);
+
+        assertEquals("refs/heads/main", push.getRef());
+        assertEquals("8ddd5caef7130e90a15e2b8e0707d5596654b4b9", push.getAfter());
+        assertEquals("assignment-2", push.getRepository().getName());
+        assertEquals("https://github.com/owner/assignment-2.git", push.getRepository().getClone_url());
+        assertEquals("owner", push.getRepository().getOwner().getName());
+
+        ObjectMapper mapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        assertEquals(mapper.readValue(json, PushRequestDTO.class), push);
+    }
+
+    /**
+     * Verifies that missing and null fields are null
+     */
+    @Test
+    void parseShouldLeaveMissingFieldsNull() throws IOException {
+        PushRequestDTO push = parse("{\"ref\": null, \"repository\": {\"owner\": null}}");
+
+        assertNull(push.getRef());
+        assertNull(push.getAfter());
+        assertNull(push.getRepository().getName());
+        assertNull(push.getRepository().getOwner());
+    }
+
+    /**
+     * Verifies that the payload stream is left open for the caller to close
+     */
+    @Test
+    void parseShouldNotCloseStream() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream in = new ByteArrayInputStream("{\"ref\": \"refs/heads/main\"}".getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+
+        assertEquals("refs/heads/main", PushEventParser.parse(in).getRef());
+        assertFalse(closed.get());
+    }
+
+    /**
+     * Verifies that malformed JSON, a payload that is not an object, and an object where
+     * a string is expected are rejected
+     */
+    @Test
+    void parseShouldRejectInvalidPayloads() {
+        assertThrows(JsonProcessingException.class, () -> parse("this is not json"));
+        assertThrows(JsonProcessingException.class, () -> parse("[]"));
+        assertThrows(JsonProcessingException.class, () -> parse("{\"ref\": \"refs/heads/main\", \"commits\": [{}"));
+        assertThrows(JsonProcessingException.class, () -> parse("{\"after\": {\"id\": \"sha\"}}"));
+    }
+}
@@ -0,0 +1,56 @@
+package se.kth.dd2480.group15.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the generation of time-ordered build ids
+ */
+class BuildIdsTest {
+
+    /**
+     * Verifies that generated ids are version 7 UUIDs that increase, both as UUIDs and as
+     * strings, even when many are generated within the same millisecond.
+     */
+    @Test
+    void newIdShouldIncrease() {
+        UUID previous = BuildIds.newId();
+        for (int i = 0; i < 10_000; i++) {
+            UUID id = BuildIds.newId();
+            assertEquals(7, id.version());
+            assertEquals(2, id.variant());
+            assertTrue(id.compareTo(previous) > 0);
+            assertTrue(id.toString().compareTo(previous.toString()) > 0);
+            previous = id;
+        }
+    }
+
+    /**
+     * Verifies that the creation time is read back from a generated id, and that random
+     * ids have none.
+     */
+    @Test
+    void createdAtShouldReturnEmbeddedTimestamp() {
+        Instant before = Instant.now();
+        UUID id = BuildIds.newId();
+
+        Instant createdAt = BuildIds.createdAt(id).orElseThrow();
+        assertFalse(createdAt.isBefore(before.minusMillis(1)));
+        assertFalse(createdAt.isAfter(Instant.now().plusSeconds(1)));
+        assertTrue(BuildIds.createdAt(UUID.randomUUID()).isEmpty());
+    }
+
+    /**
+     * Verifies that new builds are created at the time embedded in their id.
+     */
+    @Test
+    void newBuildShouldBeCreatedAtTimeOfItsId() {
+        Build build = Build.newBuild("sha", "url", "owner", "repo");
+
+        assertEquals(BuildIds.createdAt(build.getBuildId()).orElseThrow(), build.getCreatedAt());
+    }
+}
@@ -87,4 +87,44 @@ class BuildTest {
         assertEquals(Build.Status.FAILED, build.getStatus());
         assertNotNull(build.getFinishedAt());
     }
-}
\ No newline at end of file
+
+    /**
+     * Verifies that {@code supersede} updates the build status to SUPERSEDED
+     * and records the finish timestamp
+     * 
+     * Input: A new build in QUEUED state
+     * Expected outcome: Status changes to SUPERSEDED, which is a terminal state,
+     * and {@code finishedAt} is recorded
+     * 
+     */
+    @Test
+    void supersedeShouldSetSupersededStatus() {
+        Build build = Build.newBuild("sha", "url", "owner", "name", "refs/heads/main");
+        build.supersede();
+
+        assertEquals(Build.Status.SUPERSEDED, build.getStatus());
+        assertTrue(build.getStatus().isTerminal());
+        assertEquals("refs/heads/main", build.getRef());
+        assertNotNull(build.getFinishedAt());
+    }
+
+    /**
+     * Verifies that {@code timeOut} updates the build status to TIMED_OUT
+     * and records the finish timestamp
+     * 
+     * Input: A build in RUNNING state
+     * Expected outcome: Status changes to TIMED_OUT, which is a terminal state,
+     * and {@code finishedAt} is recorded
+     * 
+     */
+    @Test
+    void timeOutShouldSetTimedOutStatus() {
+        Build build = Build.newBuild("sha", "url", "owner", "name");
+        build.startBuild();
+        build.timeOut();
+
+        assertEquals(Build.Status.TIMED_OUT, build.getStatus());
+        assertTrue(build.getStatus().isTerminal());
+        assertNotNull(build.getFinishedAt());
+    }
+}
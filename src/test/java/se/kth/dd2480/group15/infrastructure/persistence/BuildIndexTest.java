@@ -0,0 +1,112 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.kth.dd2480.group15.domain.BuildPage;
+import se.kth.dd2480.group15.domain.BuildSummary;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildIndexTest {
+
+    private BuildIndex index;
+    private List<BuildSummary> summaries;
+
+    /**
+     * Fills an index with five builds created one second apart, inserted out of order.
+     */
+    @BeforeEach
+    void setUp() {
+        index = new BuildIndex();
+        summaries = new ArrayList<>();
+        Instant start = Instant.parse("2025-01-01T00:00:00Z");
+        for (int i = 0; i < 5; i++) {
+            summaries.add(new BuildSummary(UUID.randomUUID(), "sha" + i, start.plusSeconds(i)));
+        }
+        for (int i : new int[]{3, 0, 4, 1, 2}) {
+            index.put(summaries.get(i));
+        }
+    }
+
+    /**
+     * Verifies that following the cursors returns all builds exactly once, oldest first,
+     * and that the last page has no cursor.
+     * <p>
+     * Test setup:
+     * - Pages of two builds are retrieved until there is no next cursor.
+     */
+    @Test
+    void page_followingCursors_returnsAllBuildsOldestFirst() {
+        List<BuildSummary> listed = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            BuildPage page = index.page(cursor, 2, false);
+            listed.addAll(page.builds());
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(summaries, listed);
+        assertEquals(3, pages);
+        assertEquals(summaries, index.all());
+    }
+
+    /**
+     * Verifies that builds can be listed newest first, and that builds created after a
+     * page was retrieved do not shift the following pages.
+     * <p>
+     * Test setup:
+     * - The first page of two builds is retrieved newest first.
+     * - A new build is added, and the next page is retrieved with the cursor of the first.
+     */
+    @Test
+    void page_newestFirst_continuesAfterCursorWhenBuildsAreAdded() {
+        BuildPage first = index.page(null, 2, true);
+        assertEquals(List.of(summaries.get(4), summaries.get(3)), first.builds());
+
+        index.put(new BuildSummary(UUID.randomUUID(), "new", Instant.parse("2025-01-02T00:00:00Z")));
+
+        BuildPage second = index.page(first.nextCursor(), 2, true);
+        assertEquals(List.of(summaries.get(2), summaries.get(1)), second.builds());
+    }
+
+    /**
+     * Verifies that only the builds created in the requested range are listed, in both
+     * orders and across pages, and that a reversed range is rejected.
+     * <p>
+     * Test setup:
+     * - Builds are listed from the creation date of the second build, inclusive, to the
+     *   creation date of the fifth, exclusive, in pages of two.
+     */
+    @Test
+    void page_createdRange_returnsOnlyBuildsInRange() {
+        Instant from = summaries.get(1).createdAt();
+        Instant to = summaries.get(4).createdAt();
+
+        BuildPage first = index.page(null, 2, false, from, to);
+        assertEquals(List.of(summaries.get(1), summaries.get(2)), first.builds());
+        BuildPage second = index.page(first.nextCursor(), 2, false, from, to);
+        assertEquals(List.of(summaries.get(3)), second.builds());
+        assertNull(second.nextCursor());
+
+        BuildPage newest = index.page(null, 5, true, from, to);
+        assertEquals(List.of(summaries.get(3), summaries.get(2), summaries.get(1)), newest.builds());
+        assertEquals(List.of(summaries.get(3), summaries.get(4)), index.page(null, 5, false, summaries.get(3).createdAt(), null).builds());
+
+        assertThrows(IllegalArgumentException.class, () -> index.page(null, 2, false, to, from));
+    }
+
+    /**
+     * Verifies that a malformed cursor is rejected.
+     */
+    @Test
+    void page_malformedCursor_throwsIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> index.page("not a cursor", 2, false));
+    }
+}
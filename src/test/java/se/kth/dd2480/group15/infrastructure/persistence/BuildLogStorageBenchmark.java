@@ -0,0 +1,123 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import org.openjdk.jmh.annotations.*;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.domain.LogChunk;
+import se.kth.dd2480.group15.domain.LogFile;
+import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares reading the log of a finished build stored as plain text with reading it once
+ * it has been sealed into compressed blocks: a 64 KB page at a random offset, the last
+ * 200 lines, and the whole log. The size of the stored log is printed during the setup.
+ * <p>
+ * The log is about 32 MB of Maven output.
+ * <p>
+ * Run with {@code mvn test -Pbench -Dbench=BuildLogStorageBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildLogStorageBenchmark {
+
+    private static final long LOG_SIZE = 32L * 1024 * 1024;
+
+    @Param({"false", "true"})
+    public boolean compressLogs;
+
+    private Path buildsRoot;
+    private FileBuildRepository repository;
+    private UUID buildId;
+    private long size;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        buildsRoot = Files.createTempDirectory("build-log-storage-benchmark");
+        repository = new FileBuildRepository(new StorageProperties(buildsRoot.toString(), null, null, compressLogs));
+        Build build = Build.newBuild("sha", "url", "owner", "repo");
+        repository.save(build);
+        buildId = build.getBuildId();
+
+        try (BuildLogWriter writer = repository.openLog(buildId)) {
+            long written = 0;
+            for (int i = 0; written < LOG_SIZE; i++) {
+                String line = line(i);
+                writer.accept(line);
+                written += line.length() + 1;
+            }
+        }
+
+        Path buildDir = buildsRoot.resolve(buildId.toString());
+        Path stored = buildDir.resolve(compressLogs ? FileBuildRepository.SEALED_LOG_FILE_NAME : FileBuildRepository.LOG_FILE_NAME);
+        while (!Files.exists(stored) || (compressLogs && Files.exists(buildDir.resolve(FileBuildRepository.LOG_FILE_NAME)))) {
+            Thread.sleep(10);
+        }
+        size = repository.readLog(buildId, 0, 0).orElseThrow().size();
+        System.out.println("Log of " + size + " bytes stored in " + Files.size(stored) + " bytes");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        repository.close();
+        try (Stream<Path> files = Files.walk(buildsRoot)) {
+            files.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /**
+     * A 64 KB page of the log at a random offset.
+     */
+    @Benchmark
+    public LogChunk readPage() {
+        long offset = ThreadLocalRandom.current().nextLong(size);
+        return repository.readLog(buildId, offset, 64 * 1024).orElseThrow();
+    }
+
+    /**
+     * The last 200 lines of the log.
+     */
+    @Benchmark
+    public LogChunk tail() {
+        return repository.tailLog(buildId, 200, 64 * 1024).orElseThrow();
+    }
+
+    /**
+     * The whole log.
+     */
+    @Benchmark
+    public LogFile getLog() {
+        return repository.getLog(buildId).orElseThrow();
+    }
+
+    /**
+     * @return a line of Maven output, varying like the output of a real build does
+     */
+    private static String line(int i) {
+        return switch (i % 8) {
+            case 0 -> "[INFO] Running se.kth.dd2480.group15.services.Service" + (i % 997) + "Test";
+            case 1 -> "[INFO] Tests run: " + (i % 23) + ", Failures: 0, Errors: 0, Skipped: 0, Time elapsed: 0."
+                    + (i % 1000) + " s -- in se.kth.dd2480.group15.services.Service" + (i % 997) + "Test";
+            case 2 -> "[INFO] Downloading from central: https://repo.maven.apache.org/maven2/org/example/artifact"
+                    + (i % 311) + "/1." + (i % 7) + ".0/artifact" + (i % 311) + "-1." + (i % 7) + ".0.jar";
+            case 3 -> "2025-02-10T12:" + String.format("%02d:%02d.%03d", i / 60000 % 60, i / 1000 % 60, i % 1000)
+                    + "  INFO " + (10000 + i % 50) + " --- [           main] s.k.d.g.CIServerApplication : Started in 1."
+                    + (i % 100) + " seconds";
+            case 4 -> "\tat se.kth.dd2480.group15.services.CIService.handleJob(CIService.java:" + (100 + i % 400) + ")";
+            case 5 -> "[WARNING] /home/runner/work/src/main/java/se/kth/Example" + (i % 53)
+                    + ".java:[" + (i % 200) + ",17] unchecked conversion";
+            case 6 -> "[INFO] ";
+            default -> "[INFO] --- surefire:3.5.2:test (default-test) @ assignment-" + (i % 3) + " ---";
+        };
+    }
+}
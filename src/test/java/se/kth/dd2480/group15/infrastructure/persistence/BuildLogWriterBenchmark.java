@@ -0,0 +1,73 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import org.openjdk.jmh.annotations.*;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the lines per second written to a build log through {@code appendToLog},
+ * which opens and closes the log file for every line, with a {@link BuildLogWriter}
+ * that keeps the file open and buffers lines.
+ * <p>
+ * Run with {@code mvn test -Pbench -Dbench=BuildLogWriterBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildLogWriterBenchmark {
+
+    /** A typical line of Maven test output. */
+    private static final String LINE = "[INFO] Tests run: 12, Failures: 0, Errors: 0, Skipped: 0, Time elapsed: 0.042 s -- in se.kth.Example";
+
+    private Path buildsRoot;
+    private FileBuildRepository repository;
+    private UUID appendBuildId;
+    private BuildLogWriter writer;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        buildsRoot = Files.createTempDirectory("build-log-benchmark");
+        repository = new FileBuildRepository(new StorageProperties(buildsRoot.toString(), null, null, true));
+        Build appendBuild = Build.newBuild("sha", "url", "owner", "repo");
+        Build writerBuild = Build.newBuild("sha", "url", "owner", "repo");
+        repository.save(appendBuild);
+        repository.save(writerBuild);
+        appendBuildId = appendBuild.getBuildId();
+        writer = repository.openLog(writerBuild.getBuildId());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        writer.close();
+        repository.close();
+        try (Stream<Path> files = Files.walk(buildsRoot)) {
+            files.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /**
+     * One line through {@code appendToLog} with no log open: an open, write and close per line.
+     */
+    @Benchmark
+    public boolean appendToLog() {
+        return repository.appendToLog(appendBuildId, LINE);
+    }
+
+    /**
+     * One line through the open, buffered log writer.
+     */
+    @Benchmark
+    public void logWriter() {
+        writer.accept(LINE);
+    }
+}
@@ -0,0 +1,151 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.infrastructure.config.QueueProperties;
+import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildQueueJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    private BuildQueueJournal openJournal() {
+        return new BuildQueueJournal(
+                new StorageProperties(tempDir.toString(), null, null, true),
+                new QueueProperties(Duration.ofMillis(5), 0)
+        );
+    }
+
+    /**
+     * Verifies that builds that were appended but never completed are returned by
+     * {@code replay} after the journal is reopened, in the order they were queued.
+     * <p>
+     * Test setup:
+     * - Three builds are appended to a journal, and the second one is completed.
+     * - The journal is closed and a new journal is opened on the same directory.
+     * - {@code replay} is invoked, and the first and third builds are expected.
+     */
+    @Test
+    void replay_afterRestart_returnsUncompletedBuildsInOrder() {
+        Build first = Build.newBuild("sha1", "url", "owner", "repo");
+        Build second = Build.newBuild("sha2", "url", "owner", "repo");
+        Build third = Build.newBuild("sha3", "url", "owner", "repo");
+
+        BuildQueueJournal journal = openJournal();
+        journal.append(first);
+        journal.append(second);
+        journal.append(third);
+        journal.complete(second.getBuildId());
+        journal.close();
+
+        BuildQueueJournal reopened = openJournal();
+        List<Build> replayed = reopened.replay();
+        reopened.close();
+
+        assertEquals(2, replayed.size());
+        assertEquals(first.getBuildId(), replayed.get(0).getBuildId());
+        assertEquals(first.getCommitSha(), replayed.get(0).getCommitSha());
+        assertEquals(third.getBuildId(), replayed.get(1).getBuildId());
+    }
+
+    /**
+     * Verifies that a torn record at the end of the journal, as left by a crash in
+     * the middle of a write, is skipped and removed when the journal is replayed.
+     * <p>
+     * Test setup:
+     * - A build is appended to a journal, which is then closed.
+     * - Half a record is appended to the journal file.
+     * - {@code replay} is invoked twice on reopened journals and only returns the build.
+     *
+     * @throws IOException if any file operations fail during the test
+     */
+    @Test
+    void replay_withTornLastRecord_skipsRecord() throws IOException {
+        Build build = Build.newBuild("sha1", "url", "owner", "repo");
+
+        BuildQueueJournal journal = openJournal();
+        journal.append(build);
+        journal.close();
+
+        Path journalFile = tempDir.resolve(BuildQueueJournal.JOURNAL_FILE_NAME);
+        Files.writeString(journalFile, "Q {\"buildId\":\"12", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        BuildQueueJournal reopened = openJournal();
+        assertEquals(1, reopened.replay().size());
+        reopened.close();
+
+        assertFalse(Files.readString(journalFile).contains("\"12"));
+    }
+
+    /**
+     * Verifies that appending to the journal stays sub-millisecond, since forcing the
+     * records to disk is batched by the background flusher.
+     * <p>
+     * Test setup:
+     * - A thousand builds are appended to a journal and the average time per append is measured.
+     */
+    @Test
+    void append_manyBuilds_averageLatencyIsSubMillisecond() {
+        int builds = 1000;
+        BuildQueueJournal journal = openJournal();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < builds; i++) {
+            journal.append(Build.newBuild("sha" + i, "url", "owner", "repo"));
+        }
+        long averageMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / builds;
+        journal.close();
+
+        assertTrue(averageMicros < 1000, "Average append took " + averageMicros + "us");
+    }
+
+    /**
+     * Verifies that the journal is compacted while builds are pending, keeping their records.
+     * <p>
+     * Test setup:
+     * - A build is appended and never completed, so a build is always pending.
+     * - Builds are appended and completed until several times the compaction threshold
+     *   has been written to the journal.
+     * - The journal is reopened and {@code replay} is invoked.
+     *
+     * @throws IOException if any file operations fail during the test
+     */
+    @Test
+    void complete_withBuildsAlwaysPending_compactsJournal() throws IOException {
+        Build waiting = Build.newBuild("sha0", "url", "owner", "repo");
+        Path journalFile = tempDir.resolve(BuildQueueJournal.JOURNAL_FILE_NAME);
+
+        BuildQueueJournal journal = openJournal();
+        journal.append(waiting);
+        long written = 0;
+        while (written < 4 * BuildQueueJournal.COMPACT_THRESHOLD_BYTES) {
+            Build build = Build.newBuild("sha" + written, "url", "owner", "repo");
+            long before = Files.size(journalFile);
+            journal.append(build);
+            written += Files.size(journalFile) - before;
+            journal.complete(build.getBuildId());
+            assertTrue(Files.size(journalFile) <= BuildQueueJournal.COMPACT_THRESHOLD_BYTES + 1024);
+        }
+        journal.close();
+
+        BuildQueueJournal reopened = openJournal();
+        List<Build> replayed = reopened.replay();
+        reopened.close();
+
+        assertEquals(1, replayed.size());
+        assertEquals(waiting.getBuildId(), replayed.get(0).getBuildId());
+    }
+}
@@ -0,0 +1,229 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.domain.BuildSummary;
+import se.kth.dd2480.group15.infrastructure.config.RetentionProperties;
+import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class BuildStoreCompactorTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<FileBuildRepository> repositories = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        repositories.forEach(FileBuildRepository::close);
+    }
+
+    private FileBuildRepository openRepository() {
+        FileBuildRepository repository = new FileBuildRepository(
+                new StorageProperties(tempDir.resolve("builds").toString(), null, null, false));
+        repositories.add(repository);
+        return repository;
+    }
+
+    private BuildStoreCompactor compactor(FileBuildRepository repository, Duration maxAge, Integer maxPerRepo,
+                                          DataSize maxTotalSize, Path archiveRoot) {
+        return new BuildStoreCompactor(repository, new RetentionProperties(
+                maxAge, maxPerRepo, maxTotalSize, archiveRoot == null ? null : archiveRoot.toString(), null), meterRegistry);
+    }
+
+    private static Build build(String repo, Build.Status status, Instant createdAt) {
+        return Build.rehydrate(UUID.randomUUID(), "sha", "url", "owner", repo, null, status, createdAt, null, null);
+    }
+
+    private static Set<UUID> ids(List<BuildSummary> builds) {
+        return builds.stream().map(BuildSummary::buildId).collect(Collectors.toSet());
+    }
+
+    /**
+     * Verifies that finished builds older than the maximum age or beyond the maximum number
+     * of builds of their repository are removed, from the index file too, and that unfinished
+     * builds are kept.
+     * <p>
+     * Test setup:
+     * - Builds of two repositories are saved: an expired finished and an expired running build,
+     *   and three recent finished builds of one repository and one of the other.
+     * - The policies are enforced with a maximum age of 30 days and 2 builds per repository.
+     * - A new repository is opened on the same builds root.
+     */
+    @Test
+    void compactShouldRemoveExpiredFinishedBuilds() {
+        FileBuildRepository repository = openRepository();
+        Instant now = Instant.now();
+        Build expired = build("a", Build.Status.SUCCESS, now.minus(Duration.ofDays(40)));
+        Build running = build("a", Build.Status.RUNNING, now.minus(Duration.ofDays(40)));
+        Build third = build("a", Build.Status.FAILED, now.minusSeconds(30));
+        Build second = build("a", Build.Status.SUCCESS, now.minusSeconds(20));
+        Build newest = build("a", Build.Status.SUCCESS, now.minusSeconds(10));
+        Build other = build("b", Build.Status.SUCCESS, now.minusSeconds(40));
+        for (Build build : List.of(expired, running, third, second, newest, other)) {
+            repository.save(build);
+        }
+
+        int removed = compactor(repository, Duration.ofDays(30), 2, null, null).compact();
+
+        assertEquals(2, removed);
+        Set<UUID> kept = Set.of(running.getBuildId(), second.getBuildId(), newest.getBuildId(), other.getBuildId());
+        assertEquals(kept, ids(repository.listAll()));
+        assertEquals(kept, ids(openRepository().listAll()));
+        assertTrue(repository.findById(expired.getBuildId()).isEmpty());
+        assertTrue(repository.findById(third.getBuildId()).isEmpty());
+        assertEquals(2, meterRegistry.get("ci.storage.retention.removed").tag("action", "deleted").counter().count());
+    }
+
+    /**
+     * Verifies that the oldest builds beyond the maximum total size are moved to the archive
+     * root, with an index of the archived builds, and that index entries without a
+     * repository get it from the metadata of their build.
+     * <p>
+     * Test setup:
+     * - Three finished builds are saved with a log of 4 KB each, and the index file is
+     *   replaced by entries without a repository.
+     * - The policies are enforced with a maximum total size of 10 KB and an archive root.
+     *
+     * @throws IOException if any file operations fail during the test
+     */
+    @Test
+    void compactShouldArchiveOldestBuildsBeyondTotalSize() throws IOException {
+        Path buildsRoot = tempDir.resolve("builds");
+        FileBuildRepository writer = openRepository();
+        Instant now = Instant.now();
+        List<Build> builds = List.of(
+                build("a", Build.Status.SUCCESS, now.minusSeconds(30)),
+                build("a", Build.Status.SUCCESS, now.minusSeconds(20)),
+                build("a", Build.Status.SUCCESS, now.minusSeconds(10)));
+        List<String> oldIndex = new ArrayList<>();
+        for (Build build : builds) {
+            writer.save(build);
+            writer.appendToLog(build.getBuildId(), "x".repeat(4096));
+            oldIndex.add("{\"buildId\":\"" + build.getBuildId() + "\",\"commitSha\":\"sha\",\"createdAt\":\""
+                    + build.getCreatedAt() + "\"}");
+        }
+        Files.write(buildsRoot.resolve(FileBuildRepository.INDEX_FILE_NAME), oldIndex);
+
+        FileBuildRepository repository = openRepository();
+        Path archiveRoot = tempDir.resolve("archive");
+        int removed = compactor(repository, null, null, DataSize.ofKilobytes(10), archiveRoot).compact();
+
+        UUID oldest = builds.get(0).getBuildId();
+        assertEquals(1, removed);
+        assertFalse(Files.exists(buildsRoot.resolve(oldest.toString())));
+        assertTrue(Files.exists(archiveRoot.resolve(oldest.toString()).resolve(FileBuildRepository.META_FILE_NAME)));
+        assertTrue(Files.readString(archiveRoot.resolve(FileBuildRepository.INDEX_FILE_NAME)).contains(oldest.toString()));
+
+        List<BuildSummary> kept = openRepository().listAll();
+        assertEquals(Set.of(builds.get(1).getBuildId(), builds.get(2).getBuildId()), ids(kept));
+        assertTrue(kept.stream().allMatch(summary -> "a".equals(summary.repoName())));
+    }
+
+    /**
+     * Verifies that builds saved while the index file is rewritten are kept in it.
+     * <p>
+     * Test setup:
+     * - A thread keeps saving new builds, while the policies are enforced repeatedly with
+     *   one build per repository, each time removing the builds saved since the last time.
+     * - A new repository is opened on the same builds root once the thread is done.
+     *
+     * @throws InterruptedException if the test is interrupted
+     */
+    @Test
+    void compactShouldKeepBuildsSavedWhileRewritingIndex() throws InterruptedException {
+        FileBuildRepository repository = openRepository();
+        BuildStoreCompactor compactor = compactor(repository, null, 1, null, null);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<UUID> saved = new ArrayList<>();
+
+        Thread saver = new Thread(() -> {
+            while (running.get()) {
+                Build build = build("a", Build.Status.SUCCESS, Instant.now());
+                repository.save(build);
+                saved.add(build.getBuildId());
+            }
+        });
+        saver.start();
+        int removed = 0;
+        for (int i = 0; i < 20; i++) {
+            removed += compactor.compact();
+        }
+        running.set(false);
+        saver.join();
+
+        Set<UUID> indexed = ids(openRepository().listAll());
+        assertEquals(ids(repository.listAll()), indexed);
+        assertEquals(saved.size() - removed, indexed.size());
+        for (UUID buildId : indexed) {
+            assertTrue(repository.findById(buildId).isPresent());
+        }
+    }
+
+    /**
+     * Verifies that a build whose directory can only be deleted in part stays removed after a
+     * restart, and that a build whose metadata cannot be deleted is kept.
+     * <p>
+     * Test setup:
+     * - Two expired finished builds are saved; one has a subdirectory whose files cannot be
+     *   deleted, the whole directory of the other cannot be written.
+     * - The policies are enforced with a maximum age of 30 days.
+     * - A new repository is opened on the same builds root.
+     *
+     * @throws IOException if any file operations fail during the test
+     */
+    @Test
+    void compactShouldNotRecoverPartlyDeletedBuilds() throws IOException {
+        FileBuildRepository repository = openRepository();
+        Instant old = Instant.now().minus(Duration.ofDays(40));
+        Build partly = build("a", Build.Status.SUCCESS, old);
+        Build locked = build("a", Build.Status.SUCCESS, old);
+        repository.save(partly);
+        repository.save(locked);
+        Path buildsRoot = tempDir.resolve("builds");
+        Path lockedFiles = buildsRoot.resolve(partly.getBuildId().toString()).resolve("locked");
+        Files.createDirectories(lockedFiles);
+        Files.writeString(lockedFiles.resolve("file"), "left behind");
+        Path lockedBuild = buildsRoot.resolve(locked.getBuildId().toString());
+        setWritable(lockedFiles, false);
+        setWritable(lockedBuild, false);
+        try {
+            assumeFalse(Files.isWritable(lockedBuild), "Permissions are not enforced for this user");
+
+            int removed = compactor(repository, Duration.ofDays(30), null, null, null).compact();
+
+            assertEquals(1, removed);
+            assertEquals(Set.of(locked.getBuildId()), ids(repository.listAll()));
+            assertEquals(Set.of(locked.getBuildId()), ids(openRepository().listAll()));
+            assertTrue(Files.exists(lockedFiles.resolve("file")));
+        } finally {
+            setWritable(lockedFiles, true);
+            setWritable(lockedBuild, true);
+        }
+    }
+
+    private static void setWritable(Path dir, boolean writable) throws IOException {
+        Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString(writable ? "rwx------" : "r-x------"));
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,14 +13,24 @@ import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import se.kth.dd2480.group15.domain.Build;
 import se.kth.dd2480.group15.domain.BuildSummary;
+import se.kth.dd2480.group15.domain.LogChunk;
 import se.kth.dd2480.group15.domain.LogFile;
+import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
 import se.kth.dd2480.group15.infrastructure.entity.BuildMetaFile;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -37,6 +48,7 @@ class FileBuildRepositoryTest {
     @DynamicPropertySource
     static void props(DynamicPropertyRegistry registry) {
         registry.add("ci.storage.builds-root", () -> tempDir.toString());
+        registry.add("ci.storage.log-flush-interval", () -> "1h");
     }
 
     @Autowired
@@ -78,7 +90,9 @@ class FileBuildRepositoryTest {
         BuildSummary expectedIndexEntry = new BuildSummary(
                 buildId,
                 build.getCommitSha(),
-                build.getCreatedAt());
+                build.getCreatedAt(),
+                build.getRepoOwner(),
+                build.getRepoName());
         BuildSummary actualIndexEntry = MAPPER.readValue(
                 builds.get(builds.size() - 1),
                 BuildSummary.class);
@@ -137,7 +151,9 @@ class FileBuildRepositoryTest {
         BuildSummary expectedSummary = new BuildSummary(
                 buildId,
                 build.getCommitSha(),
-                build.getCreatedAt()
+                build.getCreatedAt(),
+                build.getRepoOwner(),
+                build.getRepoName()
         );
 
         assertEquals(expectedSummary, lastEntry);
@@ -197,4 +213,395 @@ class FileBuildRepositoryTest {
         assertNotNull(logFile);
         assertTrue(logFile.content().contains(logChunk));
     }
-}
\ No newline at end of file
+
+    /**
+     * Verifies that lines written through an open log writer are buffered, become
+     * visible when the log is read, and are all stored once the writer is closed.
+     * <p>
+     * Test setup:
+     * - A new build is created and saved to the repository.
+     * - The log of the build is opened and a line is written through the writer.
+     * - The log file is checked before and after reading the log through the repository.
+     * - A line is appended through {@code appendToLog} while the log is open, and the writer is closed.
+     * - The log is read through the repository, as it may have been sealed once the writer was closed.
+     *
+     * @throws IOException if any file operations fail during the test
+     */
+    @Test
+    void openLog_writeLines_linesAreBufferedUntilFlushed() throws IOException {
+        Build build = Build.newBuild("abc123", "url", "this", "name456");
+        UUID buildId = build.getBuildId();
+        repo.save(build);
+        Path logPath = tempDir.resolve(buildId.toString()).resolve(FileBuildRepository.LOG_FILE_NAME);
+
+        BuildLogWriter writer = repo.openLog(buildId);
+        writer.accept("first");
+
+        // Still buffered, the flush interval is far longer than the test
+        assertEquals(0, Files.size(logPath));
+
+        // Reading the log flushes the buffered lines
+        assertEquals("first\n", repo.getLog(buildId).orElseThrow().content());
+
+        // appendToLog goes through the open writer, keeping the order of lines
+        writer.accept("second");
+        assertTrue(repo.appendToLog(buildId, "third"));
+        writer.close();
+
+        assertEquals("first\nsecond\nthird\n", repo.getLog(buildId).orElseThrow().content());
+        writer.accept("after close");
+        assertEquals("first\nsecond\nthird\n", repo.getLog(buildId).orElseThrow().content());
+    }
+
+    /**
+     * Verifies that opening the log of a build that does not exist returns a writer
+     * discarding all lines, without creating a build directory.
+     */
+    @Test
+    void openLog_unknownBuild_discardsLines() {
+        UUID buildId = UUID.randomUUID();
+
+        try (BuildLogWriter writer = repo.openLog(buildId)) {
+            writer.accept("line");
+        }
+
+        assertFalse(Files.exists(tempDir.resolve(buildId.toString())));
+    }
+
+    /**
+     * Verifies that a log can be read page by page using byte offsets, where a
+     * multi-byte character cut off by the limit is left for the next page.
+     * <p>
+     * Test setup:
+     * - A new build is saved and a line containing a two-byte character is logged.
+     * - The log is read from the start in pages of 4 bytes, following {@code nextOffset}.
+     *
+     * @throws IOException if any file operations fail during the test
+     */
+    @Test
+    void readLog_inPages_returnsWholeCharactersAndNextOffset() throws IOException {
+        Build build = Build.newBuild("abc123", "url", "this", "name456");
+        UUID buildId = build.getBuildId();
+        repo.save(build);
+        repo.appendToLog(buildId, "abcé1");
+        Path logPath = tempDir.resolve(buildId.toString()).resolve(FileBuildRepository.LOG_FILE_NAME);
+        long size = Files.size(logPath);
+
+        LogChunk first = repo.readLog(buildId, 0, 4).orElseThrow();
+        assertEquals(new LogChunk("abc", 0, 3, size), first);
+
+        StringBuilder content = new StringBuilder(first.content());
+        long offset = first.nextOffset();
+        while (offset < size) {
+            LogChunk page = repo.readLog(buildId, offset, 4).orElseThrow();
+            content.append(page.content());
+            offset = page.nextOffset();
+        }
+        assertEquals(Files.readString(logPath, StandardCharsets.UTF_8), content.toString());
+
+        // An offset inside a character skips to the next whole character
+        assertEquals(5, repo.readLog(buildId, 4, 1).orElseThrow().offset());
+
+        assertTrue(repo.readLog(UUID.randomUUID(), 0, 4).isEmpty());
+    }
+
+    /**
+     * Verifies that the last lines of a log can be retrieved, and that the result is
+     * limited to the given number of bytes.
+     * <p>
+     * Test setup:
+     * - A new build is saved and five lines are logged.
+     * - The last two lines are retrieved, then the last ten lines with a limit of 4 bytes.
+     */
+    @Test
+    void tailLog_lastLines_returnsLinesUpToLimit() {
+        Build build = Build.newBuild("abc123", "url", "this", "name456");
+        UUID buildId = build.getBuildId();
+        repo.save(build);
+        for (int i = 1; i <= 5; i++) {
+            repo.appendToLog(buildId, "line" + i);
+        }
+        String separator = System.lineSeparator();
+
+        LogChunk tail = repo.tailLog(buildId, 2, 1024).orElseThrow();
+        assertEquals("line4" + separator + "line5" + separator, tail.content());
+        assertEquals(tail.size(), tail.nextOffset());
+
+        LogChunk limited = repo.tailLog(buildId, 10, 4).orElseThrow();
+        assertEquals(tail.size() - 4, limited.offset());
+
+        assertEquals(tail.size(), repo.tailLog(buildId, 10, 1024).orElseThrow().content().length());
+    }
+
+    /**
+     * Verifies that a repository opened on an existing builds root loads the builds
+     * from the index file, so they are listed like before the restart.
+     * <p>
+     * Test setup:
+     * - A new build is saved.
+     * - A second repository is constructed on the same builds root, and its builds are listed.
+     */
+    @Test
+    void listAll_afterRestart_returnsBuildsFromIndexFile() {
+        Build build = Build.newBuild("abc123", "url", "this", "name456");
+        repo.save(build);
+
+        FileBuildRepository reopened = new FileBuildRepository(new StorageProperties(tempDir.toString(), null, null, true));
+        List<BuildSummary> builds = reopened.listAll();
+        reopened.close();
+
+        assertEquals(repo.listAll(), builds);
+        assertEquals(build.getBuildId(), builds.get(builds.size() - 1).buildId());
+    }
+
+    /**
+     * Verifies that the log of a build is sealed once its writer is closed, and reads the
+     * same as the plain log did, across the boundaries of the compressed blocks.
+     * <p>
+     * Test setup:
+     * - A new build is saved and a log of several blocks is written through its writer.
+     * - The log is read in pages, as a tail and as a whole, before and after it is sealed.
+     * - A line is appended to the sealed log through {@code appendToLog}.
+     *
+     * @throws Exception if any file operations fail or the test is interrupted
+     */
+    @Test
+    void openLog_writerClosed_logIsSealedAndReadsTheSame() throws Exception {
+        Build build = Build.newBuild("abc123", "url", "this", "name456");
+        UUID buildId = build.getBuildId();
+        repo.save(build);
+        Path buildDir = tempDir.resolve(buildId.toString());
+
+        BuildLogWriter writer = repo.openLog(buildId);
+        for (int i = 0; i < 20000; i++) {
+            writer.accept("[INFO] Running se.kth.Test" + i + " é");
+        }
+        writer.flush();
+        long plainSize = Files.size(buildDir.resolve(FileBuildRepository.LOG_FILE_NAME));
+        List<LogChunk> plainPages = readPages(buildId, 10000);
+        LogChunk plainTail = repo.tailLog(buildId, 100, 65536).orElseThrow();
+        String plainLog = repo.getLog(buildId).orElseThrow().content();
+        writer.close();
+
+        Path sealed = awaitSealed(buildDir);
+        assertTrue(plainSize > 2L * SealedLog.BLOCK_SIZE);
+        assertTrue(Files.size(sealed) * 5 < plainSize);
+        assertEquals(plainPages, readPages(buildId, 10000));
+        assertEquals(plainTail, repo.tailLog(buildId, 100, 65536).orElseThrow());
+        assertEquals(plainLog, repo.getLog(buildId).orElseThrow().content());
+
+        // Appending to a sealed log turns it back into plain text
+        assertTrue(repo.appendToLog(buildId, "appended"));
+        assertFalse(Files.exists(sealed));
+        assertEquals(plainLog + "appended\n", repo.getLog(buildId).orElseThrow().content());
+    }
+
+    /**
+     * Verifies that a repository opened on an existing builds root seals the plain logs of
+     * finished builds, and leaves those of unfinished builds plain.
+     * <p>
+     * Test setup:
+     * - A finished and a queued build are saved and a line is appended to their logs.
+     * - A second repository is constructed on the same builds root.
+     *
+     * @throws Exception if any file operations fail or the test is interrupted
+     */
+    @Test
+    void constructor_plainLogsOfFinishedBuilds_areSealed() throws Exception {
+        Build finished = Build.newBuild("abc123", "url", "this", "name456");
+        finished.startBuild();
+        finished.failBuild();
+        Build queued = Build.newBuild("abc123", "url", "this", "name456");
+        repo.save(finished);
+        repo.save(queued);
+        repo.appendToLog(finished.getBuildId(), "finished");
+        repo.appendToLog(queued.getBuildId(), "queued");
+
+        FileBuildRepository reopened = new FileBuildRepository(new StorageProperties(tempDir.toString(), null, null, true));
+        awaitSealed(tempDir.resolve(finished.getBuildId().toString()));
+        reopened.close();
+
+        assertEquals("finished\n", repo.getLog(finished.getBuildId()).orElseThrow().content());
+        Path queuedDir = tempDir.resolve(queued.getBuildId().toString());
+        assertTrue(Files.exists(queuedDir.resolve(FileBuildRepository.LOG_FILE_NAME)));
+        assertFalse(Files.exists(queuedDir.resolve(FileBuildRepository.SEALED_LOG_FILE_NAME)));
+    }
+
+    /**
+     * Verifies that a repository opened on a builds root left behind by a crash repairs
+     * the index: builds without an entry are added, entries without a directory are
+     * dropped, empty build directories are deleted and a torn last entry is cut off.
+     * <p>
+     * Test setup:
+     * - Three builds are saved to a separate builds root.
+     * - The entry of the second build is removed from the index file, the directory of the
+     *   third build is deleted, an empty build directory is created and a torn entry is
+     *   appended to the index file.
+     * - A second repository is opened on the builds root, and a new build is saved to it.
+     *
+     * @throws IOException if any file operations fail during the test
+     */
+    @Test
+    void constructor_afterCrash_repairsIndex() throws IOException {
+        Path root = tempDir.resolve("crashed-" + UUID.randomUUID());
+        StorageProperties storage = new StorageProperties(root.toString(), null, null, true);
+        FileBuildRepository crashed = new FileBuildRepository(storage);
+        List<Build> builds = List.of(
+                Build.newBuild("sha1", "url", "this", "name456"),
+                Build.newBuild("sha2", "url", "this", "name456"),
+                Build.newBuild("sha3", "url", "this", "name456"));
+        builds.forEach(crashed::save);
+        crashed.close();
+
+        Path indexPath = root.resolve(FileBuildRepository.INDEX_FILE_NAME);
+        List<String> lines = Files.readAllLines(indexPath);
+        Files.write(indexPath, List.of(lines.get(0), lines.get(2)));
+        Files.writeString(indexPath, "{\"buildId\":\"" + UUID.randomUUID() + "\",\"comm", StandardOpenOption.APPEND);
+        Files.delete(root.resolve(builds.get(2).getBuildId().toString()).resolve(FileBuildRepository.META_FILE_NAME));
+        Files.delete(root.resolve(builds.get(2).getBuildId().toString()));
+        Path empty = Files.createDirectory(root.resolve(UUID.randomUUID().toString()));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        FileBuildRepository recovered = new FileBuildRepository(storage, meterRegistry);
+        Build added = Build.newBuild("sha4", "url", "this", "name456");
+        recovered.save(added);
+        recovered.close();
+
+        List<UUID> expected = List.of(builds.get(0).getBuildId(), builds.get(1).getBuildId(), added.getBuildId());
+        assertEquals(expected, recovered.listAll().stream().map(BuildSummary::buildId).toList());
+        FileBuildRepository reopened = new FileBuildRepository(storage);
+        assertEquals(recovered.listAll(), reopened.listAll());
+        reopened.close();
+
+        assertEquals(3, Files.readAllLines(indexPath).size());
+        assertFalse(Files.exists(empty));
+        assertEquals(1, meterRegistry.get("ci.storage.index.recovery").timer().count());
+    }
+
+    /**
+     * Verifies that a torn last entry is cut off the index file without rewriting the
+     * entries before it, so the next entry is appended on a line of its own.
+     * <p>
+     * Test setup:
+     * - A build is saved to a separate builds root and a torn entry is appended to the index file.
+     * - A second repository is opened on the builds root, and a new build is saved to it.
+     *
+     * @throws IOException if any file operations fail during the test
+     */
+    @Test
+    void constructor_tornLastEntry_isCutOff() throws IOException {
+        Path root = tempDir.resolve("torn-" + UUID.randomUUID());
+        StorageProperties storage = new StorageProperties(root.toString(), null, null, true);
+        FileBuildRepository torn = new FileBuildRepository(storage);
+        Build build = Build.newBuild("sha1", "url", "this", "name456");
+        torn.save(build);
+        torn.close();
+
+        Path indexPath = root.resolve(FileBuildRepository.INDEX_FILE_NAME);
+        String valid = Files.readString(indexPath);
+        Files.writeString(indexPath, "{\"buildId\":", StandardOpenOption.APPEND);
+
+        FileBuildRepository recovered = new FileBuildRepository(storage);
+        Build added = Build.newBuild("sha2", "url", "this", "name456");
+        recovered.save(added);
+        recovered.close();
+
+        String index = Files.readString(indexPath);
+        assertTrue(index.startsWith(valid));
+        assertEquals(2, index.lines().count());
+        FileBuildRepository reopened = new FileBuildRepository(storage);
+        assertEquals(2, reopened.listAll().size());
+        reopened.close();
+    }
+
+    /**
+     * Verifies that no update to the metadata of a build is lost or torn when builds are
+     * saved in parallel, with many more builds than there are file locks.
+     * <p>
+     * Test setup:
+     * - Eight threads each create builds in a separate builds root, saving every build when
+     *   it is queued, started and finished.
+     * - Meanwhile, each thread saves its own copy of one shared build repeatedly, with a
+     *   commit SHA naming the thread and the save.
+     * - A second repository is opened on the builds root once all threads are done.
+     *
+     * @throws Exception if any file operations fail or a thread is interrupted
+     */
+    @Test
+    void save_inParallel_keepsLastUpdateOfEveryBuild() throws Exception {
+        Path root = tempDir.resolve("parallel-" + UUID.randomUUID());
+        StorageProperties storage = new StorageProperties(root.toString(), null, null, true);
+        FileBuildRepository repository = new FileBuildRepository(storage);
+        int threads = 8, buildsPerThread = 300;
+        Build shared = Build.newBuild("shared", "url", "this", "name456");
+        repository.save(shared);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Build>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            results.add(executor.submit(() -> {
+                start.await();
+                List<Build> builds = new ArrayList<>();
+                for (int i = 0; i < buildsPerThread; i++) {
+                    Build build = Build.newBuild("sha" + thread + "-" + i, "url", "this", "name456");
+                    repository.save(build);
+                    build.startBuild();
+                    repository.save(build);
+                    if (i % 2 == 0) build.finishBuild(); else build.failBuild();
+                    repository.save(build);
+                    builds.add(build);
+
+                    repository.save(Build.rehydrate(shared.getBuildId(), "t" + thread + "-" + i, "url", "this",
+                            "name456", null, Build.Status.RUNNING, shared.getCreatedAt(), null, null));
+                }
+                return builds;
+            }));
+        }
+        start.countDown();
+        List<Build> builds = new ArrayList<>();
+        for (Future<List<Build>> result : results) {
+            builds.addAll(result.get(60, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        repository.close();
+
+        for (Build build : builds) {
+            Path buildDir = root.resolve(build.getBuildId().toString());
+            BuildMetaFile meta = MAPPER.readValue(
+                    Files.readString(buildDir.resolve(FileBuildRepository.META_FILE_NAME)), BuildMetaFile.class);
+            assertEquals(BuildMetaFile.from(build), meta);
+            assertFalse(Files.exists(buildDir.resolve(FileBuildRepository.META_FILE_NAME + ".tmp")));
+        }
+        String sharedSha = repository.findById(shared.getBuildId()).orElseThrow().getCommitSha();
+        assertTrue(sharedSha.matches("t[0-7]-" + (buildsPerThread - 1)), sharedSha);
+
+        assertEquals(threads * buildsPerThread + 1, repository.listAll().size());
+        FileBuildRepository reopened = new FileBuildRepository(storage);
+        assertEquals(repository.listAll(), reopened.listAll());
+        reopened.close();
+    }
+
+    private List<LogChunk> readPages(UUID buildId, int limit) {
+        List<LogChunk> pages = new ArrayList<>();
+        long offset = 0;
+        LogChunk page;
+        do {
+            page = repo.readLog(buildId, offset, limit).orElseThrow();
+            pages.add(page);
+            offset = page.nextOffset();
+        } while (offset < page.size());
+        return pages;
+    }
+
+    private static Path awaitSealed(Path buildDir) throws InterruptedException {
+        Path sealed = buildDir.resolve(FileBuildRepository.SEALED_LOG_FILE_NAME);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Files.exists(buildDir.resolve(FileBuildRepository.LOG_FILE_NAME)) || !Files.exists(sealed)) {
+            assertTrue(System.currentTimeMillis() < deadline, "Log was not sealed");
+            Thread.sleep(10);
+        }
+        return sealed;
+    }
+}
@@ -0,0 +1,48 @@
+package se.kth.dd2480.group15.infrastructure.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedLocksTest {
+
+    /**
+     * Verifies that the number of locks is rounded up to a power of two.
+     */
+    @Test
+    void constructor_roundsStripesUpToPowerOfTwo() {
+        assertEquals(1, new StripedLocks(0).stripes());
+        assertEquals(1, new StripedLocks(1).stripes());
+        assertEquals(1024, new StripedLocks(1000).stripes());
+        assertEquals(1024, new StripedLocks(1024).stripes());
+    }
+
+    /**
+     * Verifies that the files of a million builds share the fixed number of locks, all of
+     * them in use, and that equal paths always get the same lock.
+     * <p>
+     * Test setup:
+     * - The locks of the metadata files of a million builds are retrieved.
+     */
+    @Test
+    void lockFor_millionBuilds_usesFixedNumberOfLocks() {
+        StripedLocks locks = new StripedLocks(1024);
+        Path buildsRoot = Path.of("/builds").toAbsolutePath();
+        Set<Object> used = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (int i = 0; i < 1_000_000; i++) {
+            Path meta = buildsRoot.resolve(UUID.randomUUID().toString()).resolve(FileBuildRepository.META_FILE_NAME);
+            Object lock = locks.lockFor(meta);
+            assertSame(lock, locks.lockFor(Path.of(meta.toString())));
+            used.add(lock);
+        }
+
+        assertEquals(locks.stripes(), used.size());
+    }
+}
@@ -0,0 +1,126 @@
+package se.kth.dd2480.group15.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import se.kth.dd2480.group15.api.controller.BuildController;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
+import se.kth.dd2480.group15.infrastructure.persistence.BuildLogWriter;
+import se.kth.dd2480.group15.infrastructure.persistence.FileBuildRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+/**
+ * Unit tests for {@link BuildLogBroadcaster}
+ * Verifies that log streams catch up on the log file and then follow the running build
+ */
+class BuildLogBroadcasterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    private FileBuildRepository repository;
+    private BuildLogBroadcaster broadcaster;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        repository = new FileBuildRepository(new StorageProperties(tempDir.toString(), null, Duration.ofHours(1), true));
+        broadcaster = new BuildLogBroadcaster(repository);
+        mockMvc = MockMvcBuilders.standaloneSetup(new BuildController(new BuildService(repository, broadcaster), null)).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.close();
+        repository.close();
+    }
+
+    /**
+     * Verifies that a viewer of a running build receives the lines logged before it
+     * subscribed, then the lines logged afterwards, each exactly once, and that the
+     * stream ends when the build is done.
+     */
+    @Test
+    void subscribeShouldCatchUpAndFollowRunningBuild() throws Exception {
+        Build build = Build.newBuild("sha", "url", "owner", "repo");
+        repository.save(build);
+        repository.appendToLog(build.getBuildId(), "before");
+
+        BuildLogWriter log = broadcaster.attach(build.getBuildId(), repository.openLog(build.getBuildId()));
+        log.accept("first");
+
+        MvcResult stream = mockMvc.perform(get("/api/v1/builds/" + build.getBuildId() + "/log/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        log.accept("second");
+        Thread.sleep(3 * BuildLogBroadcaster.FAN_OUT_INTERVAL_MS);
+        log.accept("third");
+        log.close();
+
+        String separator = System.lineSeparator();
+        assertEquals("before" + separator + "first" + separator + "second" + separator + "third" + separator,
+                streamedLog(awaitEnd(stream)));
+    }
+
+    /**
+     * Verifies that a stream of a finished build resumes from the id of the last event
+     * received, and ends once the rest of the log has been sent.
+     */
+    @Test
+    void subscribeShouldResumeFromLastEventId() throws Exception {
+        Build build = Build.newBuild("sha", "url", "owner", "repo");
+        repository.save(build);
+        repository.appendToLog(build.getBuildId(), "seen");
+        long seen = repository.readLog(build.getBuildId(), 0, 1024).orElseThrow().size();
+        repository.appendToLog(build.getBuildId(), "unseen");
+
+        MvcResult stream = mockMvc.perform(get("/api/v1/builds/" + build.getBuildId() + "/log/stream")
+                        .header("Last-Event-ID", String.valueOf(seen)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertEquals("unseen" + System.lineSeparator(), streamedLog(awaitEnd(stream)));
+    }
+
+    /**
+     * Helper waiting until the stream has sent its end event, returning the events sent
+     */
+    private static String awaitEnd(MvcResult stream) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            String content = stream.getResponse().getContentAsString(StandardCharsets.UTF_8);
+            if (content.contains("event:end")) return content;
+            Thread.sleep(20);
+        }
+        fail("Stream did not end: " + stream.getResponse().getContentAsString(StandardCharsets.UTF_8));
+        return null;
+    }
+
+    /**
+     * Helper concatenating the log content of all log events of a stream
+     */
+    private static String streamedLog(String events) throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (String line : events.split("\n")) {
+            if (!line.startsWith("data:{")) continue;
+            log.append(MAPPER.readTree(line.substring("data:".length())).get("logContent").asText());
+        }
+        return log.toString();
+    }
+}
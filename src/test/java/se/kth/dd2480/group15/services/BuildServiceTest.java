@@ -10,6 +10,7 @@ import se.kth.dd2480.group15.api.dto.response.BuildLogResponse;
 import se.kth.dd2480.group15.api.dto.response.BuildMetaResponse;
 import se.kth.dd2480.group15.domain.Build;
 import se.kth.dd2480.group15.domain.BuildSummary;
+import se.kth.dd2480.group15.domain.LogChunk;
 import se.kth.dd2480.group15.domain.LogFile;
 import se.kth.dd2480.group15.infrastructure.persistence.BuildRepository;
 
@@ -109,4 +110,23 @@ class BuildServiceTest {
         assertNotNull(response);
         assertEquals(logFile.content(), response.logContent());
     }
-}
\ No newline at end of file
+
+    /**
+     * Verifies that a page of a build log is read from the repository with the limit
+     * capped at the maximum page size, and returned with its offsets.
+     * <p>
+     * Test setup:
+     * - The repository {@code readLog} method is stubbed to return a chunk of the log.
+     * - {@code getBuildLog} is invoked with a limit above the maximum page size.
+     */
+    @Test
+    void getBuildLog_withRange_returnsPageWithOffsets() {
+        UUID buildId = UUID.randomUUID();
+        LogChunk chunk = new LogChunk("page", 10, 14, 100);
+        when(buildRepository.readLog(buildId, 10, BuildService.MAX_LOG_PAGE_BYTES)).thenReturn(Optional.of(chunk));
+
+        BuildLogResponse response = buildService.getBuildLog(buildId, 10, Integer.MAX_VALUE);
+
+        assertEquals(new BuildLogResponse("page", 10, 14, 100), response);
+    }
+}
@@ -2,19 +2,33 @@ package se.kth.dd2480.group15.services;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.AdditionalMatchers.not;
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
 import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.domain.BuildNotFoundException;
+import se.kth.dd2480.group15.infrastructure.config.WorkerProperties;
+import se.kth.dd2480.group15.infrastructure.persistence.BuildLogWriter;
+import se.kth.dd2480.group15.infrastructure.persistence.BuildQueueJournal;
 import se.kth.dd2480.group15.infrastructure.persistence.BuildRepository;
 
 /**
@@ -23,8 +37,12 @@ import se.kth.dd2480.group15.infrastructure.persistence.BuildRepository;
  * This test class verifies:
  * - Correct queueing of build jobs
  * - Correct execution flow for successful build jobs
- * - Correct behavior when clone, build, or test steps fail
- * - Proper interaction with {@link ProcessRunner} and {@link NotifierService}
+ * - Correct behavior when clone, build, or test steps fail or time out
+ * - Proper interaction with {@link ProcessRunner} and {@link NotificationOutbox}
+ * - Concurrent processing of queued builds by the worker pool, failing builds that crash
+ * - Recovery of unfinished builds from the queue journal
+ * - Coalescing of builds pushed to the same ref
+ * - Cancellation of queued and running builds, and of builds running past the shutdown timeout
  * 
  * All external dependencies are mocked using Mockito.
  */
@@ -34,20 +52,41 @@ class CIServiceTest {
     private ProcessRunner processRunner;
 
     @Mock
-    private NotifierService notifierService;
+    private NotificationOutbox notificationOutbox;
 
     @Mock
     BuildRepository buildRepository;
 
-    @InjectMocks
+    @Mock
+    private BuildQueueJournal journal;
+
+    @Mock
+    private BuildLogWriter logWriter;
+
+    @Mock
+    private BuildLogBroadcaster logBroadcaster;
+
     private CIService ciService;
 
+    /** Number of workers used by the service under test. */
+    private static final int POOL_SIZE = 4;
+
     /**
-     * Initializes Mockito mocks before each test.
+     * Initializes Mockito mocks and the service under test before each test.
      */
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(buildRepository.openLog(any())).thenReturn(logWriter);
+        when(logBroadcaster.attach(any(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+        ciService = new CIService(
+                processRunner,
+                notificationOutbox,
+                buildRepository,
+                journal,
+                logBroadcaster,
+                new WorkerProperties(POOL_SIZE, Duration.ofSeconds(10), WorkerProperties.CoalesceMode.QUEUED)
+        );
     }
     
     /**
@@ -58,6 +97,8 @@ class CIServiceTest {
      * - The queue is initially empty
      * - A job is added after calling {@code queueJob}
      * - The created Build contains the correct commit SHA, repository URL, and owner
+     * - The build is journaled before it is saved, and both happen before it is queued
+     * - The build is reported as queued before a worker can take it from the queue
      */
     @Test
     void testQueueJobAddsBuildToQueue() {
@@ -76,6 +117,12 @@ class CIServiceTest {
         BlockingQueue<Build> queue = getQueue(ciService);
         assertEquals(0, queue.size());
 
+        List<Integer> queuedWhenReported = new ArrayList<>();
+        doAnswer(invocation -> {
+            queuedWhenReported.add(queue.size());
+            return null;
+        }).when(notificationOutbox).enqueue(any(), any(), any(), eq("pending"), eq("Queued"));
+
         // Verify that queue contains 1 object when one has been added
         ciService.queueJob(dto);
         assertEquals(1, queue.size());
@@ -86,6 +133,14 @@ class CIServiceTest {
         assertEquals("commit123", job.getCommitSha());
         assertEquals("url456", job.getRepoUrl());
         assertEquals("owner789", job.getRepoOwner());
+
+        // Verify that the job is journaled ahead of saving it
+        InOrder writes = inOrder(journal, buildRepository);
+        writes.verify(journal).append(job);
+        writes.verify(buildRepository).save(job);
+
+        // Verify that the build was reported before it was in the queue
+        assertEquals(List.of(0), queuedWhenReported);
     }
 
     /**
@@ -93,9 +148,10 @@ class CIServiceTest {
      * successful job.
      * 
      * This test ensures:
-     * - Clone, build, and test executes in order when all succeed
+     * - Clone, then build and test, executes in order when all succeed
+     * - The output is written to the build log, which is closed afterwards
      * - The build is marked as finished
-     * - A success notification is sent
+     * - Pending notifications are sent for each stage, followed by a success notification
      * - Cleanup is performed
      */
     @Test
@@ -103,8 +159,10 @@ class CIServiceTest {
         Build job = mock(Build.class);
 
         when(processRunner.cloneRepo(eq(job), any())).thenReturn(true);
-        when(processRunner.build(eq(job), any())).thenReturn(true);
-        when(processRunner.test(eq(job), any())).thenReturn(true);
+        when(processRunner.buildAndTest(eq(job), any(), any())).thenAnswer(invocation -> {
+            invocation.<Runnable>getArgument(2).run();
+            return new BuildTestResult(true, true);
+        });
         when(job.getRepoName()).thenReturn("name123");
         when(job.getCommitSha()).thenReturn("commit456");
         when(job.getRepoOwner()).thenReturn("owner789");
@@ -112,18 +170,24 @@ class CIServiceTest {
 
         ciService.handleJob(job);
 
-        // Verify processService calls
-        verify(processRunner).cloneRepo(eq(job), any());
-        verify(processRunner).build(eq(job), any());
-        verify(processRunner).test(eq(job), any());
+        // Verify processService calls, writing to the build log
+        verify(processRunner).cloneRepo(job, logWriter);
+        verify(processRunner).buildAndTest(eq(job), eq(logWriter), any());
         verify(processRunner).cleanup(job);
+        verify(logWriter).close();
 
         // Verify build finished
         verify(job).finishBuild();
         verify(job, never()).failBuild();
 
-        // Verify notifier called
-        verify(notifierService).notify(
+        // Verify notifier called for every stage, then with the result
+        InOrder notifications = inOrder(notificationOutbox);
+        notifications.verify(notificationOutbox).enqueue("owner789", "name123", "commit456", "pending", "Cloning");
+        notifications.verify(notificationOutbox).enqueue(
+            "owner789", "name123", "commit456", "pending", "Clone: Success\nBuilding");
+        notifications.verify(notificationOutbox).enqueue(
+            "owner789", "name123", "commit456", "pending", "Clone: Success\nBuild: Success\nTesting");
+        notifications.verify(notificationOutbox).enqueue(
             job.getRepoOwner(),
             job.getRepoName(),
             job.getCommitSha(),
@@ -138,7 +202,7 @@ class CIServiceTest {
      * 
      * This test ensures:
      * - Clone step is executed
-     * - Build and test steps are NOT executed
+     * - The build and test step is NOT executed
      * - The build is marked as failed
      * - A failure notification is sent
      * - Cleanup is still executed
@@ -157,8 +221,7 @@ class CIServiceTest {
 
         // Verify processService calls
         verify(processRunner).cloneRepo(eq(job), any());
-        verify(processRunner, never()).build(eq(job), any());
-        verify(processRunner, never()).test(eq(job), any());
+        verify(processRunner, never()).buildAndTest(eq(job), any(), any());
 
         verify(processRunner).cleanup(job);
 
@@ -167,7 +230,7 @@ class CIServiceTest {
         verify(job, never()).finishBuild();
 
         // Verify notifier called
-        verify(notifierService).notify(
+        verify(notificationOutbox).enqueue(
                 job.getRepoOwner(),
                 job.getRepoName(),
                 job.getCommitSha(),
@@ -181,8 +244,8 @@ class CIServiceTest {
      * the build step fails.
      * 
      * This test ensures:
-     * - Clone and build steps are executed
-     * - Test step is NOT executed
+     * - Clone and the build and test step are executed
+     * - Only the build stage is reported
      * - The build is marked as failed
      * - A failure notification is sent
      * - Cleanup is still executed
@@ -192,7 +255,7 @@ class CIServiceTest {
         Build job = mock(Build.class);
 
         when(processRunner.cloneRepo(eq(job), any())).thenReturn(true);
-        when(processRunner.build(eq(job), any())).thenReturn(false);
+        when(processRunner.buildAndTest(eq(job), any(), any())).thenReturn(new BuildTestResult(false, false));
         when(job.getRepoName()).thenReturn("name123");
         when(job.getCommitSha()).thenReturn("commit456");
         when(job.getRepoOwner()).thenReturn("owner789");
@@ -202,8 +265,7 @@ class CIServiceTest {
 
         // Verify processService calls
         verify(processRunner).cloneRepo(eq(job), any());
-        verify(processRunner).build(eq(job), any());
-        verify(processRunner, never()).test(eq(job), any());
+        verify(processRunner).buildAndTest(eq(job), any(), any());
         verify(processRunner).cleanup(job);
 
         // Verify build fails
@@ -211,7 +273,7 @@ class CIServiceTest {
         verify(job, never()).finishBuild();
 
         // Verify notifier called
-        verify(notifierService).notify(
+        verify(notificationOutbox).enqueue(
                 job.getRepoOwner(),
                 job.getRepoName(),
                 job.getCommitSha(),
@@ -235,8 +297,7 @@ class CIServiceTest {
         Build job = mock(Build.class);
 
         when(processRunner.cloneRepo(eq(job), any())).thenReturn(true);
-        when(processRunner.build(eq(job), any())).thenReturn(true);
-        when(processRunner.test(eq(job), any())).thenReturn(false);
+        when(processRunner.buildAndTest(eq(job), any(), any())).thenReturn(new BuildTestResult(true, false));
         when(job.getRepoName()).thenReturn("name123");
         when(job.getCommitSha()).thenReturn("commit456");
         when(job.getRepoOwner()).thenReturn("owner789");
@@ -246,8 +307,7 @@ class CIServiceTest {
 
         // Verify processService calls
         verify(processRunner).cloneRepo(eq(job), any());
-        verify(processRunner).build(eq(job), any());
-        verify(processRunner).test(eq(job), any());
+        verify(processRunner).buildAndTest(eq(job), any(), any());
         verify(processRunner).cleanup(job);
 
         // Verify build fails
@@ -255,7 +315,7 @@ class CIServiceTest {
         verify(job, never()).finishBuild();
 
         // Verify notifier called
-        verify(notifierService).notify(
+        verify(notificationOutbox).enqueue(
                 job.getRepoOwner(),
                 job.getRepoName(),
                 job.getCommitSha(),
@@ -264,6 +324,516 @@ class CIServiceTest {
         );
     }
 
+    /**
+     * Verifies that {@link CIService#handleJob(Build)} behaves correctly when
+     * the test step times out.
+     * 
+     * This test ensures:
+     * - The timeout is checked before cleanup, which forgets it
+     * - The build is marked as timed out instead of failed
+     * - An error notification is sent
+     */
+    @Test
+    void testHandleJobTestTimesOut() {
+        Build job = mock(Build.class);
+
+        when(processRunner.cloneRepo(eq(job), any())).thenReturn(true);
+        when(processRunner.buildAndTest(eq(job), any(), any())).thenReturn(new BuildTestResult(true, false));
+        when(processRunner.hasTimedOut(any())).thenReturn(true);
+        when(job.getRepoName()).thenReturn("name123");
+        when(job.getCommitSha()).thenReturn("commit456");
+        when(job.getRepoOwner()).thenReturn("owner789");
+
+        ciService.handleJob(job);
+
+        InOrder inOrder = inOrder(processRunner);
+        inOrder.verify(processRunner).hasTimedOut(any());
+        inOrder.verify(processRunner).cleanup(job);
+
+        // Verify build timed out
+        verify(job).timeOut();
+        verify(job, never()).failBuild();
+
+        // Verify notifier called
+        verify(notificationOutbox).enqueue(
+                job.getRepoOwner(),
+                job.getRepoName(),
+                job.getCommitSha(),
+                "error",
+                "Clone: Success\nBuild: Success\nTest: Fail\nTimed out"
+        );
+    }
+
+    /**
+     * Verifies that the worker pool processes queued builds concurrently.
+     *
+     * This test ensures:
+     * - N queued builds where each takes a fixed time all complete
+     * - The total time is close to N / workers times the time of a single build,
+     *   and well below the time of running them one at a time
+     * - Stopping the service lets the pool drain without errors
+     */
+    @Test
+    void testWorkerPoolRunsBuildsConcurrently() throws InterruptedException {
+        int jobs = 8;
+        long buildMillis = 300;
+        CountDownLatch done = new CountDownLatch(jobs);
+
+        when(processRunner.cloneRepo(any(), any())).thenAnswer(invocation -> {
+            Thread.sleep(buildMillis);
+            return true;
+        });
+        when(processRunner.buildAndTest(any(), any(), any())).thenReturn(new BuildTestResult(true, true));
+        doAnswer(invocation -> {
+            done.countDown();
+            return null;
+        }).when(notificationOutbox).enqueue(any(), any(), any(), not(eq("pending")), any());
+
+        BlockingQueue<Build> queue = getQueue(ciService);
+        for (int i = 0; i < jobs; i++) {
+            queue.offer(Build.newBuild("commit" + i, "url", "owner", "name"));
+        }
+
+        long start = System.nanoTime();
+        ciService.startThread();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        ciService.stopThread();
+
+        long expectedMillis = jobs / POOL_SIZE * buildMillis;
+        long sequentialMillis = jobs * buildMillis;
+        assertTrue(elapsedMillis >= expectedMillis, "Finished faster than possible: " + elapsedMillis);
+        assertTrue(elapsedMillis < sequentialMillis / 2, "Builds did not run concurrently: " + elapsedMillis);
+        verify(processRunner, times(jobs)).cleanup(any());
+    }
+
+    /**
+     * Verifies that a build whose handling throws is failed by its worker.
+     *
+     * This test ensures:
+     * - The build is saved as FAILED and completed in the journal
+     * - A final error status is reported instead of leaving the commit pending
+     * - The worker keeps running builds afterwards
+     */
+    @Test
+    void testWorkerFailsCrashedBuild() throws InterruptedException {
+        Build crashing = Build.newBuild("commit1", "url", "owner", "name");
+        Build next = Build.newBuild("commit2", "url", "owner", "name");
+        CountDownLatch done = new CountDownLatch(2);
+
+        when(processRunner.cloneRepo(eq(crashing), any())).thenThrow(new IllegalStateException("broken"));
+        when(processRunner.cloneRepo(eq(next), any())).thenReturn(true);
+        when(processRunner.buildAndTest(any(), any(), any())).thenReturn(new BuildTestResult(true, true));
+        doAnswer(invocation -> {
+            done.countDown();
+            return null;
+        }).when(notificationOutbox).enqueue(any(), any(), any(), not(eq("pending")), any());
+
+        BlockingQueue<Build> queue = getQueue(ciService);
+        queue.offer(crashing);
+        queue.offer(next);
+        ciService.startThread();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        ciService.stopThread();
+
+        assertEquals(Build.Status.FAILED, crashing.getStatus());
+        assertNotNull(crashing.getFinishedAt());
+        verify(buildRepository, atLeast(2)).save(crashing);
+        verify(journal).complete(crashing.getBuildId());
+        verify(notificationOutbox).enqueue("owner", "name", "commit1", "error", "Build crashed");
+        assertEquals(Build.Status.SUCCESS, next.getStatus());
+    }
+
+    /**
+     * Verifies that a build still running when the shutdown timeout expires is killed and
+     * left to run again after a restart.
+     *
+     * This test ensures:
+     * - The processes of the running build are cancelled through the {@link ProcessRunner}
+     * - The build keeps its RUNNING state, stays open in the journal and gets no final status
+     */
+    @Test
+    void testStopThreadKillsBuildsRunningPastShutdownTimeout() throws InterruptedException {
+        ciService = new CIService(
+                processRunner,
+                notificationOutbox,
+                buildRepository,
+                journal,
+                logBroadcaster,
+                new WorkerProperties(1, Duration.ofMillis(200), WorkerProperties.CoalesceMode.OFF)
+        );
+        Build build = Build.newBuild("commit1", "url", "owner", "name");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+
+        when(processRunner.cloneRepo(any(), any())).thenAnswer(invocation -> {
+            started.countDown();
+            // Like a process blocked on its output, the interrupt does not end the wait
+            boolean interrupted = false;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (cancelled.getCount() > 0 && System.nanoTime() < deadline) {
+                try {
+                    cancelled.await(10, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            return false;
+        });
+        doAnswer(invocation -> {
+            cancelled.countDown();
+            return null;
+        }).when(processRunner).cancel(any());
+
+        getQueue(ciService).offer(build);
+        ciService.startThread();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        ciService.stopThread();
+
+        verify(processRunner).cancel(build.getBuildId());
+        verify(processRunner, timeout(5000)).cleanup(build);
+        assertEquals(Build.Status.RUNNING, build.getStatus());
+        verify(journal, never()).complete(build.getBuildId());
+        verify(notificationOutbox, never()).enqueue(any(), any(), any(), not(eq("pending")), any());
+    }
+
+    /**
+     * Verifies that builds left unfinished in the journal are recovered on startup.
+     *
+     * This test ensures:
+     * - A journaled build that is still queued is run by the workers
+     * - A journaled build without saved metadata is saved before it is queued
+     * - A journaled build that already finished is completed in the journal and not run again
+     */
+    @Test
+    void testStartThreadRecoversUnfinishedBuilds() throws InterruptedException {
+        Build queued = Build.newBuild("commit1", "url", "owner", "name");
+        Build finished = Build.newBuild("commit2", "url", "owner", "name");
+        Build storedFinished = Build.rehydrate(
+                finished.getBuildId(), "commit2", "url", "owner", "name", null,
+                Build.Status.SUCCESS, finished.getCreatedAt(), null, null);
+        CountDownLatch done = new CountDownLatch(1);
+
+        when(journal.replay()).thenReturn(List.of(queued, finished));
+        when(buildRepository.findById(queued.getBuildId())).thenReturn(Optional.empty());
+        when(buildRepository.findById(finished.getBuildId())).thenReturn(Optional.of(storedFinished));
+        when(processRunner.cloneRepo(any(), any())).thenReturn(true);
+        when(processRunner.buildAndTest(any(), any(), any())).thenReturn(new BuildTestResult(true, true));
+        doAnswer(invocation -> {
+            done.countDown();
+            return null;
+        }).when(notificationOutbox).enqueue(any(), any(), any(), not(eq("pending")), any());
+
+        ciService.startThread();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        ciService.stopThread();
+
+        verify(journal).complete(finished.getBuildId());
+        verify(processRunner).cloneRepo(eq(queued), any());
+        verify(processRunner, never()).cloneRepo(eq(finished), any());
+        verify(journal).complete(queued.getBuildId());
+    }
+
+    /**
+     * Verifies that a newer push to the same ref supersedes a build still in the queue.
+     *
+     * This test ensures:
+     * - The queued build is marked SUPERSEDED, saved and completed in the journal
+     * - Only the newest build is run by the workers
+     */
+    @Test
+    void testQueueJobSupersedesQueuedBuildOfSameRef() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        when(processRunner.cloneRepo(any(), any())).thenReturn(true);
+        when(processRunner.buildAndTest(any(), any(), any())).thenReturn(new BuildTestResult(true, true));
+        doAnswer(invocation -> {
+            done.countDown();
+            return null;
+        }).when(notificationOutbox).enqueue(any(), any(), any(), eq("success"), any());
+
+        ciService.queueJob(pushRequest("commit1", "refs/heads/main"));
+        ciService.queueJob(pushRequest("commit2", "refs/heads/main"));
+
+        BlockingQueue<Build> queue = getQueue(ciService);
+        Build first = queue.poll();
+        Build second = queue.peek();
+        queue.offer(first);
+        assertNotNull(first);
+        assertEquals(Build.Status.SUPERSEDED, first.getStatus());
+        assertNotNull(first.getFinishedAt());
+        verify(journal).complete(first.getBuildId());
+
+        ciService.startThread();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        ciService.stopThread();
+
+        verify(processRunner, never()).cloneRepo(eq(first), any());
+        verify(processRunner).cloneRepo(eq(second), any());
+        verify(notificationOutbox).enqueue("owner789", "repo", "commit1", "pending", "Queued");
+        verify(notificationOutbox).enqueue("owner789", "repo", "commit1", "error", "Superseded by a newer push");
+    }
+
+    /**
+     * Verifies that pushes to different refs are not coalesced.
+     *
+     * This test ensures:
+     * - Both builds remain queued
+     */
+    @Test
+    void testQueueJobKeepsBuildsOfDifferentRefs() {
+        ciService.queueJob(pushRequest("commit1", "refs/heads/main"));
+        ciService.queueJob(pushRequest("commit2", "refs/heads/feature"));
+
+        BlockingQueue<Build> queue = getQueue(ciService);
+        assertEquals(2, queue.size());
+        queue.forEach(build -> assertEquals(Build.Status.QUEUED, build.getStatus()));
+    }
+
+    /**
+     * Verifies that with coalescing mode ALL a newer push cancels the running build of the same ref.
+     *
+     * This test ensures:
+     * - The running build is cancelled through the {@link ProcessRunner}
+     * - The cancelled build is marked SUPERSEDED and reported with the error state
+     * - The newer build runs to completion
+     */
+    @Test
+    void testQueueJobCancelsRunningBuildOfSameRef() throws InterruptedException {
+        ciService = new CIService(
+                processRunner,
+                notificationOutbox,
+                buildRepository,
+                journal,
+                logBroadcaster,
+                new WorkerProperties(1, Duration.ofSeconds(10), WorkerProperties.CoalesceMode.ALL)
+        );
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        when(processRunner.cloneRepo(any(), any())).thenAnswer(invocation -> {
+            Build build = invocation.getArgument(0);
+            if (build.getCommitSha().equals("commit1")) {
+                firstStarted.countDown();
+                return !cancelled.await(10, TimeUnit.SECONDS);
+            }
+            return true;
+        });
+        doAnswer(invocation -> {
+            cancelled.countDown();
+            return null;
+        }).when(processRunner).cancel(any());
+        when(processRunner.buildAndTest(any(), any(), any())).thenReturn(new BuildTestResult(true, true));
+        doAnswer(invocation -> {
+            done.countDown();
+            return null;
+        }).when(notificationOutbox).enqueue(any(), any(), any(), not(eq("pending")), any());
+
+        ciService.startThread();
+        ciService.queueJob(pushRequest("commit1", "refs/heads/main"));
+        assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+        ciService.queueJob(pushRequest("commit2", "refs/heads/main"));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        ciService.stopThread();
+
+        verify(processRunner).cancel(any());
+        verify(notificationOutbox).enqueue("owner789", "repo", "commit1", "error", "Clone: Fail\nSuperseded by a newer push");
+        verify(notificationOutbox).enqueue("owner789", "repo", "commit2", "success", "Clone: Success\nBuild: Success\nTest: Success");
+    }
+
+    /**
+     * Verifies that builds can be cancelled while queued and while running.
+     *
+     * This test ensures:
+     * - A queued build is CANCELLED right away, without being run
+     * - A running build has its processes cancelled, and ends as CANCELLED once they stop
+     * - Both are reported with the error state and completed in the journal
+     * - Finished builds cannot be cancelled, and unknown builds are not found
+     */
+    @Test
+    void testCancelQueuedAndRunningBuilds() throws InterruptedException {
+        ciService = new CIService(
+                processRunner,
+                notificationOutbox,
+                buildRepository,
+                journal,
+                logBroadcaster,
+                new WorkerProperties(1, Duration.ofSeconds(10), WorkerProperties.CoalesceMode.OFF)
+        );
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        when(processRunner.cloneRepo(any(), any())).thenAnswer(invocation -> {
+            firstStarted.countDown();
+            return !cancelled.await(10, TimeUnit.SECONDS);
+        });
+        doAnswer(invocation -> {
+            cancelled.countDown();
+            return null;
+        }).when(processRunner).cancel(any());
+        doAnswer(invocation -> {
+            done.countDown();
+            return null;
+        }).when(notificationOutbox).enqueue(any(), any(), eq("commit1"), not(eq("pending")), any());
+
+        ciService.startThread();
+        ciService.queueJob(pushRequest("commit1", "refs/heads/main"));
+        assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+        ciService.queueJob(pushRequest("commit2", "refs/heads/main"));
+        Build queued = getQueue(ciService).peek();
+        assertNotNull(queued);
+
+        assertEquals(CIService.Cancellation.CANCELLED, ciService.cancel(queued.getBuildId()));
+        assertEquals(Build.Status.CANCELLED, queued.getStatus());
+        verify(journal).complete(queued.getBuildId());
+        verify(notificationOutbox).enqueue("owner789", "repo", "commit2", "error", "Cancelled");
+
+        ArgumentCaptor<Build> saved = ArgumentCaptor.forClass(Build.class);
+        verify(buildRepository, atLeastOnce()).save(saved.capture());
+        Build running = saved.getAllValues().stream().filter(build -> build.getCommitSha().equals("commit1")).findFirst().orElseThrow();
+        assertEquals(CIService.Cancellation.CANCELLING, ciService.cancel(running.getBuildId()));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        ciService.stopThread();
+
+        verify(processRunner).cancel(running.getBuildId());
+        verify(processRunner, never()).cloneRepo(eq(queued), any());
+        assertEquals(Build.Status.CANCELLED, running.getStatus());
+        verify(notificationOutbox).enqueue("owner789", "repo", "commit1", "error", "Clone: Fail\nCancelled");
+
+        when(buildRepository.findById(running.getBuildId())).thenReturn(Optional.of(running));
+        assertEquals(CIService.Cancellation.NOT_CANCELLABLE, ciService.cancel(running.getBuildId()));
+        assertThrows(BuildNotFoundException.class, () -> ciService.cancel(UUID.randomUUID()));
+    }
+
+    /**
+     * Verifies that a build being cleaned up after its processes are done can no longer be cancelled.
+     *
+     * This test ensures:
+     * - Cancelling the build during its cleanup returns NOT_CANCELLABLE
+     * - Its processes are not cancelled, and it keeps its successful result
+     */
+    @Test
+    void testCancelDuringCleanupIsNotCancellable() throws InterruptedException {
+        ciService = new CIService(
+                processRunner,
+                notificationOutbox,
+                buildRepository,
+                journal,
+                logBroadcaster,
+                new WorkerProperties(1, Duration.ofSeconds(10), WorkerProperties.CoalesceMode.OFF)
+        );
+        CountDownLatch cleaningUp = new CountDownLatch(1);
+        CountDownLatch cancelAttempted = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        when(processRunner.cloneRepo(any(), any())).thenReturn(true);
+        when(processRunner.buildAndTest(any(), any(), any())).thenReturn(new BuildTestResult(true, true));
+        doAnswer(invocation -> {
+            cleaningUp.countDown();
+            cancelAttempted.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(processRunner).cleanup(any());
+        doAnswer(invocation -> {
+            done.countDown();
+            return null;
+        }).when(notificationOutbox).enqueue(any(), any(), any(), not(eq("pending")), any());
+
+        ciService.startThread();
+        ciService.queueJob(pushRequest("commit1", "refs/heads/main"));
+        assertTrue(cleaningUp.await(10, TimeUnit.SECONDS));
+
+        ArgumentCaptor<Build> saved = ArgumentCaptor.forClass(Build.class);
+        verify(buildRepository, atLeastOnce()).save(saved.capture());
+        Build running = saved.getValue();
+        when(buildRepository.findById(running.getBuildId())).thenReturn(Optional.of(running));
+        assertEquals(CIService.Cancellation.NOT_CANCELLABLE, ciService.cancel(running.getBuildId()));
+        cancelAttempted.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        ciService.stopThread();
+
+        verify(processRunner, never()).cancel(any());
+        assertEquals(Build.Status.SUCCESS, running.getStatus());
+        verify(notificationOutbox).enqueue("owner789", "repo", "commit1", "success", "Clone: Success\nBuild: Success\nTest: Success");
+    }
+
+    /**
+     * Verifies that a build whose processes end while it is being cancelled is only cleaned
+     * up once the cancellation is done, so the cancellation does not outlive the cleanup.
+     *
+     * This test ensures:
+     * - The build is cleaned up after its processes are cancelled, not in between
+     * - The build ends as CANCELLED
+     */
+    @Test
+    void testCancelRacingCleanupCancelsBeforeCleanup() throws InterruptedException {
+        ciService = new CIService(
+                processRunner,
+                notificationOutbox,
+                buildRepository,
+                journal,
+                logBroadcaster,
+                new WorkerProperties(1, Duration.ofSeconds(10), WorkerProperties.CoalesceMode.OFF)
+        );
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cancelling = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        // The clone ends by itself just as the build is being cancelled
+        when(processRunner.cloneRepo(any(), any())).thenAnswer(invocation -> {
+            started.countDown();
+            cancelling.await(10, TimeUnit.SECONDS);
+            return false;
+        });
+        doAnswer(invocation -> {
+            cancelling.countDown();
+            Thread.sleep(300);
+            events.add("cancelled");
+            return null;
+        }).when(processRunner).cancel(any());
+        doAnswer(invocation -> {
+            events.add("cleanup");
+            return null;
+        }).when(processRunner).cleanup(any());
+        doAnswer(invocation -> {
+            done.countDown();
+            return null;
+        }).when(notificationOutbox).enqueue(any(), any(), any(), not(eq("pending")), any());
+
+        ciService.startThread();
+        ciService.queueJob(pushRequest("commit1", "refs/heads/main"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        ArgumentCaptor<Build> saved = ArgumentCaptor.forClass(Build.class);
+        verify(buildRepository, atLeastOnce()).save(saved.capture());
+        Build running = saved.getValue();
+        assertEquals(CIService.Cancellation.CANCELLING, ciService.cancel(running.getBuildId()));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        ciService.stopThread();
+
+        assertEquals(List.of("cancelled", "cleanup"), events);
+        assertEquals(Build.Status.CANCELLED, running.getStatus());
+    }
+
+    /**
+     * Helper method creating a push request for a commit pushed to a ref of the same repository.
+     *
+     * @param after the pushed commit
+     * @param ref the pushed ref
+     * @return the push request
+     */
+    private PushRequestDTO pushRequest(String after, String ref) {
+        return new PushRequestDTO(
+                after,
+                ref,
+                new PushRequestDTO.Repository("repo", "url456", new PushRequestDTO.Owner("owner789"))
+        );
+    }
+
     /**
      * Helper method used to access the private queue field in {@link CIService}
      * via reflection.
@@ -0,0 +1,90 @@
+package se.kth.dd2480.group15.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import se.kth.dd2480.group15.infrastructure.config.GitProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link GitMirrorCache}
+ * Verifies the mirror paths and the eviction of mirrors over the disk budget
+ */
+class GitMirrorCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private GitMirrorCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new GitMirrorCache(new GitProperties(true, tempDir.toString(), DataSize.ofBytes(2500)));
+    }
+
+    /**
+     * Verifies that repositories get distinct mirrors, even when they share a name
+     */
+    @Test
+    void mirrorPathShouldBeDistinctPerRepository() {
+        Path first = cache.mirrorPath("https://github.com/alice/project.git");
+        Path second = cache.mirrorPath("https://github.com/bob/project.git");
+
+        assertNotEquals(first, second);
+        assertEquals(tempDir, first.getParent());
+        assertTrue(first.getFileName().toString().startsWith("project-"));
+        assertEquals(first, cache.mirrorPath("https://github.com/alice/project.git"));
+    }
+
+    /**
+     * Verifies that the least recently used mirror is evicted once the budget is exceeded
+     */
+    @Test
+    void markUsedShouldEvictLeastRecentlyUsedMirror() throws Exception {
+        Path oldest = createMirror("https://example.com/a.git", 1000);
+        Path middle = createMirror("https://example.com/b.git", 1000);
+        Path newest = createMirror("https://example.com/c.git", 1000);
+
+        assertFalse(Files.exists(oldest));
+        assertTrue(Files.exists(middle));
+        assertTrue(Files.exists(newest));
+    }
+
+    /**
+     * Verifies that a mirror that is locked by a build is never evicted
+     */
+    @Test
+    void markUsedShouldNotEvictLockedMirror() throws Exception {
+        ReadWriteLock lock = cache.lockFor("https://example.com/a.git");
+        lock.readLock().lock();
+        try {
+            Path locked = createMirror("https://example.com/a.git", 1000);
+            Path middle = createMirror("https://example.com/b.git", 1000);
+            createMirror("https://example.com/c.git", 1000);
+
+            assertTrue(Files.exists(locked));
+            assertFalse(Files.exists(middle));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Helper creating a fake mirror of the given size and marking it as used
+     */
+    private Path createMirror(String repoUrl, int size) throws IOException, InterruptedException {
+        Path mirror = cache.mirrorPath(repoUrl);
+        Files.createDirectories(mirror.resolve("objects"));
+        Files.write(mirror.resolve("objects").resolve("pack"), new byte[size]);
+        cache.markUsed(repoUrl);
+        Thread.sleep(5); // Make sure the next mirror is used later
+        return mirror;
+    }
+}
@@ -0,0 +1,74 @@
+package se.kth.dd2480.group15.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.infrastructure.config.GitProperties;
+import se.kth.dd2480.group15.infrastructure.config.MavenProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link MavenPrewarmer}
+ * Verifies that the dependencies of mirrored repositories end up in the shared repository
+ */
+class MavenPrewarmerTest {
+
+    /**
+     * Verifies the pre-warm of a known repository, using a local repository as the remote
+     * and a stand-in maven wrapper that "downloads" an artifact instead of resolving dependencies
+     */
+    @Test
+    void prewarmAllShouldResolveDependenciesOfMirroredRepositories(@TempDir Path tempDir) throws Exception {
+        Path origin = tempDir.resolve("origin");
+        Files.createDirectories(origin);
+        git(origin, "init", "-q");
+        Files.writeString(origin.resolve("mvnw"), """
+                #!/bin/sh
+                [ "$1 $2 $3" = "-B -q dependency:go-offline" ] || exit 1
+                for arg in "$@"; do
+                  case "$arg" in -Dmaven.repo.local=*) repo="${arg#*=}" ;; esac
+                done
+                mkdir -p "$repo/org/example/lib/1.0"
+                echo jar > "$repo/org/example/lib/1.0/lib-1.0.jar"
+                """);
+        origin.resolve("mvnw").toFile().setExecutable(true);
+        git(origin, "add", "mvnw");
+        git(origin, "-c", "user.name=ci", "-c", "user.email=ci@example.com", "commit", "-q", "-m", "init");
+
+        GitMirrorCache mirrorCache = new GitMirrorCache(
+                new GitProperties(true, tempDir.resolve("mirrors").toString(), DataSize.ofMegabytes(100)));
+        MavenProperties mavenProperties = new MavenProperties(true, true, tempDir.resolve("m2").toString(), false, true, null);
+        MavenRepositoryCache repositoryCache = new MavenRepositoryCache(mavenProperties, new SimpleMeterRegistry());
+
+        // Build once so the repository is known
+        ProcessRunner runner = new ProcessRunner(mirrorCache, repositoryCache, mavenProperties);
+        Build job = Build.newBuild(git(origin, "rev-parse", "HEAD"), origin.toString(), "owner", "origin");
+        assertTrue(runner.cloneRepo(job, line -> { }));
+        runner.cleanup(job);
+
+        new MavenPrewarmer(mirrorCache, repositoryCache, mavenProperties).prewarmAll();
+
+        assertTrue(Files.exists(repositoryCache.sharedRepository().resolve("org/example/lib/1.0/lib-1.0.jar")));
+    }
+
+    /**
+     * Helper running a git command in a directory and returning its output
+     */
+    private String git(Path dir, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of("git"));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes()).trim();
+        assertEquals(0, process.waitFor(), output);
+        return output;
+    }
+}
@@ -0,0 +1,111 @@
+package se.kth.dd2480.group15.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.kth.dd2480.group15.infrastructure.config.MavenProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link MavenRepositoryCache}
+ * Verifies the overlay repositories of builds and the cache hit rate
+ */
+class MavenRepositoryCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SimpleMeterRegistry meterRegistry;
+    private MavenRepositoryCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new MavenRepositoryCache(properties(), meterRegistry);
+    }
+
+    private MavenProperties properties() {
+        return new MavenProperties(true, true, tempDir.toString(), false, false, null);
+    }
+
+    /**
+     * Verifies that a build gets an overlay repository backed by the shared repository
+     */
+    @Test
+    void repositoryArgumentsShouldPointAtOverlayAndSharedRepository() {
+        UUID buildId = UUID.randomUUID();
+
+        List<String> arguments = cache.repositoryArguments(buildId);
+
+        Path overlay = Path.of(arguments.get(0).substring("-Dmaven.repo.local=".length()));
+        assertTrue(Files.isDirectory(overlay));
+        assertTrue(overlay.endsWith(buildId.toString()));
+        assertEquals("-Dmaven.repo.local.tail=" + cache.sharedRepository(), arguments.get(1));
+    }
+
+    /**
+     * Verifies that downloaded artifacts are moved into the shared repository, without
+     * Maven's bookkeeping files or overwriting artifacts already there, and that the
+     * build counts as a cache miss
+     */
+    @Test
+    void completeBuildShouldPromoteNewArtifacts() throws IOException {
+        UUID buildId = UUID.randomUUID();
+        Path overlay = overlayOf(buildId);
+        write(overlay.resolve("org/example/lib/1.0/lib-1.0.jar"), "new");
+        write(overlay.resolve("org/example/lib/1.0/lib-1.0.jar.lastUpdated"), "");
+        write(overlay.resolve("org/example/old/1.0/old-1.0.jar"), "overlay");
+        write(cache.sharedRepository().resolve("org/example/old/1.0/old-1.0.jar"), "shared");
+
+        cache.completeBuild(buildId);
+
+        Path shared = cache.sharedRepository();
+        assertEquals("new", Files.readString(shared.resolve("org/example/lib/1.0/lib-1.0.jar")));
+        assertFalse(Files.exists(shared.resolve("org/example/lib/1.0/lib-1.0.jar.lastUpdated")));
+        assertEquals("shared", Files.readString(shared.resolve("org/example/old/1.0/old-1.0.jar")));
+        assertFalse(Files.exists(overlay));
+        assertEquals(1.0, meterRegistry.get("ci.maven.cache.builds").tag("result", "miss").counter().count());
+        assertEquals(1.0, meterRegistry.get("ci.maven.cache.artifacts").tag("source", "build").counter().count());
+    }
+
+    /**
+     * Verifies the hit ratio: builds that downloaded nothing are hits, builds that never
+     * ran maven are not counted at all
+     */
+    @Test
+    void hitRatioShouldCountBuildsWithoutDownloads() throws IOException {
+        UUID miss = UUID.randomUUID();
+        write(overlayOf(miss).resolve("org/example/lib/1.0/lib-1.0.pom"), "pom");
+        cache.completeBuild(miss);
+
+        for (int i = 0; i < 3; i++) {
+            UUID hit = UUID.randomUUID();
+            overlayOf(hit);
+            cache.completeBuild(hit);
+        }
+        cache.completeBuild(UUID.randomUUID());
+
+        assertEquals(0.75, cache.hitRatio());
+        assertEquals(0.75, meterRegistry.get("ci.maven.cache.hit.ratio").gauge().value());
+    }
+
+    /**
+     * Helper returning the overlay repository of a build, creating it
+     */
+    private Path overlayOf(UUID buildId) {
+        return Path.of(cache.repositoryArguments(buildId).get(0).substring("-Dmaven.repo.local=".length()));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+}
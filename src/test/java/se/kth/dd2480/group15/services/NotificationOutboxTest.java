@@ -0,0 +1,247 @@
+package se.kth.dd2480.group15.services;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.client.RestTemplate;
+import se.kth.dd2480.group15.domain.StatusNotification;
+import se.kth.dd2480.group15.infrastructure.config.NotifierProperties;
+import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
+import se.kth.dd2480.group15.infrastructure.persistence.NotificationStore;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link NotificationOutbox}
+ * Verifies the statuses are sent in the background, retried, coalesced and kept across
+ * restarts, against a local HTTP server standing in for the GitHub API
+ */
+class NotificationOutboxTest {
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer github;
+    private final BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<Integer> responses = new ConcurrentLinkedQueue<>();
+    private final List<NotificationOutbox> outboxes = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // Ensure dotenv can find a token during tests, otherwise create a mock one
+        if (!Files.exists(Path.of(".env"))) {
+            try (FileWriter fw = new FileWriter(".env")) {
+                fw.write("GITHUB_TOKEN=dummy_token\n");
+            }
+        }
+        startGitHub();
+    }
+
+    /**
+     * Starts the local GitHub, answering with the queued status codes, then with 201 Created.
+     * A 429 asks to retry after a second
+     */
+    private void startGitHub() throws IOException {
+        github = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        github.createContext("/", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            requests.add(exchange.getRequestURI().getPath() + " " + body);
+            Integer status = responses.poll();
+            if (status != null && status == 429) exchange.getResponseHeaders().add("Retry-After", "1");
+            exchange.sendResponseHeaders(status == null ? 201 : status, -1);
+            exchange.close();
+        });
+        github.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        outboxes.forEach(NotificationOutbox::stop);
+        github.stop(0);
+    }
+
+    private NotificationOutbox startOutbox(String apiUrl, Duration initialBackoff) {
+        return startOutbox(apiUrl, initialBackoff, new NotificationStore(new StorageProperties(tempDir.toString(), null, null, true)));
+    }
+
+    private NotificationOutbox startOutbox(String apiUrl, Duration initialBackoff, NotificationStore store) {
+        NotifierProperties properties = new NotifierProperties(apiUrl, 3, initialBackoff, Duration.ofSeconds(1), null, null, Duration.ZERO);
+        NotificationOutbox outbox = new NotificationOutbox(
+                new NotifierService(new RestTemplate(), properties),
+                store,
+                properties);
+        outboxes.add(outbox);
+        outbox.start();
+        return outbox;
+    }
+
+    private String githubUrl() {
+        return "http://127.0.0.1:" + github.getAddress().getPort();
+    }
+
+    private void awaitEmpty(NotificationOutbox outbox) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (outbox.pendingCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, outbox.pendingCount());
+    }
+
+    /**
+     * Verifies that a status failing with a server error is retried until GitHub accepts it
+     *
+     * Test setup: GitHub answers the first two attempts with 502 and 503
+     */
+    @Test
+    void enqueueShouldRetryServerErrors() throws InterruptedException {
+        responses.add(502);
+        responses.add(503);
+        NotificationOutbox outbox = startOutbox(githubUrl(), Duration.ofMillis(10));
+
+        outbox.enqueue("owner", "repo", "sha1", "success", "Build passed");
+
+        for (int i = 0; i < 3; i++) {
+            String request = requests.poll(10, TimeUnit.SECONDS);
+            assertNotNull(request);
+            assertTrue(request.startsWith("/repos/owner/repo/statuses/sha1 "));
+            assertTrue(request.contains("\"state\":\"success\""));
+        }
+        awaitEmpty(outbox);
+        assertNull(requests.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Verifies that a rate limited status is held back until the rate limit resets, without
+     * counting as an attempt, and that statuses queued meanwhile are coalesced
+     *
+     * Test setup: GitHub answers the first 3 requests with 429 and Retry-After: 1, more
+     * than the 3 attempts a status gets
+     */
+    @Test
+    void enqueueShouldWaitForRateLimit() throws InterruptedException {
+        responses.add(429);
+        responses.add(429);
+        responses.add(429);
+        NotificationOutbox outbox = startOutbox(githubUrl(), Duration.ofMillis(10));
+
+        long start = System.nanoTime();
+        outbox.enqueue("owner", "repo", "sha1", "pending", "Cloning");
+        assertNotNull(requests.poll(10, TimeUnit.SECONDS));
+        outbox.enqueue("owner", "repo", "sha1", "pending", "Building and testing");
+        outbox.enqueue("owner", "repo", "sha1", "success", "Build passed");
+
+        for (int i = 0; i < 3; i++) {
+            String request = requests.poll(10, TimeUnit.SECONDS);
+            assertNotNull(request);
+            assertTrue(request.contains("\"state\":\"success\""));
+        }
+        awaitEmpty(outbox);
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(3), "Did not wait for the rate limit");
+        assertNull(requests.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Verifies that a status GitHub rejects is dropped instead of retried
+     */
+    @Test
+    void enqueueShouldNotRetryRejectedStatus() throws InterruptedException {
+        responses.add(422);
+        NotificationOutbox outbox = startOutbox(githubUrl(), Duration.ofMillis(10));
+
+        outbox.enqueue("owner", "repo", "sha1", "success", "Build passed");
+
+        assertNotNull(requests.poll(10, TimeUnit.SECONDS));
+        awaitEmpty(outbox);
+        assertNull(requests.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Verifies that only the latest status of a commit is kept while GitHub is unreachable,
+     * and that it is sent after a restart
+     *
+     * Test setup: the first outbox points at a port nothing listens on, and waits long
+     * between retries; the second points at the local GitHub
+     */
+    @Test
+    void pendingStatusesShouldBeCoalescedAndSurviveRestart() throws InterruptedException, IOException {
+        int unreachablePort = github.getAddress().getPort();
+        github.stop(0);
+        NotificationOutbox offline = startOutbox("http://127.0.0.1:" + unreachablePort, Duration.ofHours(1));
+
+        offline.enqueue("owner", "repo", "sha1", "pending", "Build started");
+        offline.enqueue("owner", "repo", "sha2", "success", "Build passed");
+        offline.enqueue("owner", "repo", "sha1", "failure", "Build failed");
+        assertEquals(2, offline.pendingCount());
+        offline.stop();
+
+        startGitHub();
+        NotificationOutbox online = startOutbox(githubUrl(), Duration.ofMillis(10));
+
+        String first = requests.poll(10, TimeUnit.SECONDS);
+        String second = requests.poll(10, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertTrue(first.startsWith("/repos/owner/repo/statuses/sha2 "));
+        assertTrue(second.startsWith("/repos/owner/repo/statuses/sha1 "));
+        assertTrue(second.contains("\"state\":\"failure\""));
+        awaitEmpty(online);
+        assertNull(requests.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Verifies that a burst of statuses is written to the store in a few batches by the
+     * background thread, instead of once per status by the thread queuing them
+     *
+     * Test setup: the outbox points at a port nothing listens on and waits long between
+     * retries, so every status stays pending; the store counts its saves and the threads
+     * making them
+     */
+    @Test
+    void enqueueShouldPersistBurstsInBatches() throws InterruptedException {
+        int unreachablePort = github.getAddress().getPort();
+        github.stop(0);
+        AtomicInteger saves = new AtomicInteger();
+        Set<String> savingThreads = ConcurrentHashMap.newKeySet();
+        NotificationStore store = new NotificationStore(new StorageProperties(tempDir.toString(), null, null, true)) {
+            @Override
+            public synchronized void save(List<StatusNotification> notifications) {
+                saves.incrementAndGet();
+                savingThreads.add(Thread.currentThread().getName());
+                super.save(notifications);
+            }
+        };
+        NotificationOutbox outbox = startOutbox("http://127.0.0.1:" + unreachablePort, Duration.ofHours(1), store);
+
+        for (int i = 0; i < 1000; i++) {
+            outbox.enqueue("owner", "repo", "sha" + i, "pending", "Queued");
+        }
+        NotificationStore reader = new NotificationStore(new StorageProperties(tempDir.toString(), null, null, true));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (reader.load().size() < 1000 && System.nanoTime() < deadline) {
+            Thread.sleep(NotificationOutbox.PERSIST_DELAY_MS);
+        }
+
+        assertEquals(1000, reader.load().size());
+        assertTrue(saves.get() < 50, "Saved " + saves.get() + " times");
+        assertEquals(Set.of("ci_notification_store"), savingThreads);
+    }
+}
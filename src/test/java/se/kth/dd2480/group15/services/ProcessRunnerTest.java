@@ -2,12 +2,27 @@ package se.kth.dd2480.group15.services;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.util.unit.DataSize;
 import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.infrastructure.config.GitProperties;
+import se.kth.dd2480.group15.infrastructure.config.MavenProperties;
+import se.kth.dd2480.group15.infrastructure.config.StageProperties;
+import se.kth.dd2480.group15.infrastructure.config.WorkspaceProperties;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -160,4 +175,377 @@ class ProcessRunnerTest {
         runner.cleanup(testJob);
     }
 
-}
\ No newline at end of file
+    /**
+     * Verifies that cancelling a build kills its running process tree and prevents
+     * further processes from starting
+     */
+    @Test
+    void cancelShouldKillRunningProcessTree() throws Exception {
+        List<String> logs = new ArrayList<>();
+        File workspace = new File("workspace/" + testJob.getBuildId());
+        workspace.mkdirs();
+
+        // A stand-in maven wrapper that spawns a long running child process
+        File mvnw = new File(workspace, "mvnw");
+        Files.writeString(mvnw.toPath(), "#!/bin/sh\nsleep 30\n");
+        mvnw.setExecutable(true);
+
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> result = CompletableFuture.supplyAsync(() -> runner.build(testJob, logs::add));
+        Thread.sleep(500);
+        runner.cancel(testJob.getBuildId());
+
+        assertFalse(result.get(10, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+
+        // No new process is started for a cancelled build
+        assertFalse(runner.test(testJob, logs::add));
+        assertTrue(logs.stream().anyMatch(line -> line.contains("Build cancelled")));
+
+        runner.cleanup(testJob);
+    }
+
+    /**
+     * Verifies that a stage exceeding its timeout has its process tree killed:
+     * 1. The stage returns once the timeout expires, long before the process would have exited
+     * 2. The child process spawned by the stand-in maven wrapper is killed as well
+     * 3. The build is reported as timed out until it is cleaned up
+     */
+    @Test
+    void buildShouldKillProcessTreeOnTimeout() throws Exception {
+        ProcessRunner timeoutRunner = new ProcessRunner(null, null, new MavenProperties(true, false, null, false, false, null),
+                new StageProperties(null, Duration.ofMillis(500), null), null, null);
+        writeMavenWrapper("sleep 30 &\necho $! > child.pid\nwait\n");
+        List<String> logs = new ArrayList<>();
+
+        // 1:
+        long start = System.nanoTime();
+        assertFalse(timeoutRunner.build(testJob, logs::add));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+        assertTrue(logs.stream().anyMatch(line -> line.startsWith("Timed out after PT0.5S")));
+
+        // 2:
+        long childPid = Long.parseLong(Files.readString(Path.of("workspace", testJob.getBuildId().toString(), "child.pid")).trim());
+        Optional<ProcessHandle> child = ProcessHandle.of(childPid);
+        if (child.isPresent()) {
+            child.get().onExit().get(5, TimeUnit.SECONDS);
+        }
+
+        // 3:
+        assertTrue(timeoutRunner.hasTimedOut(testJob.getBuildId()));
+        timeoutRunner.cleanup(testJob);
+        assertFalse(timeoutRunner.hasTimedOut(testJob.getBuildId()));
+    }
+
+    /**
+     * Verifies that a timeout only fails the process that exceeded it, as when a fresh clone
+     * follows a warm workspace reset that timed out:
+     * 1. The first process times out and the build is reported as timed out
+     * 2. The next process succeeds and the build is no longer reported as timed out
+     */
+    @Test
+    void timeoutShouldOnlyFailTheProcessThatExceededIt() throws Exception {
+        ProcessRunner timeoutRunner = new ProcessRunner(null, null, new MavenProperties(true, false, null, false, false, null),
+                new StageProperties(null, Duration.ofMillis(500), null), null, null);
+
+        // 1:
+        writeMavenWrapper("sleep 30 &\nwait\n");
+        assertFalse(timeoutRunner.build(testJob, line -> { }));
+        assertTrue(timeoutRunner.hasTimedOut(testJob.getBuildId()));
+
+        // 2:
+        writeMavenWrapper("exit 0\n");
+        assertTrue(timeoutRunner.build(testJob, line -> { }));
+        assertFalse(timeoutRunner.hasTimedOut(testJob.getBuildId()));
+
+        timeoutRunner.cleanup(testJob);
+    }
+
+    /**
+     * Verifies cloning through the local mirror cache, using a local repository as the remote:
+     * 1. The first build creates the mirror and clones the workspace from it
+     * 2. A build of a new commit fetches it into the mirror
+     * 3. A build of a commit already in the mirror does not fetch at all
+     */
+    @Test
+    void cloneRepoShouldCloneThroughMirror(@TempDir Path tempDir) throws Exception {
+        Path origin = tempDir.resolve("origin");
+        Files.createDirectories(origin);
+        git(origin, "init", "-q");
+        String first = commitFile(origin, "one");
+
+        GitMirrorCache mirrorCache = new GitMirrorCache(
+                new GitProperties(true, tempDir.resolve("mirrors").toString(), DataSize.ofMegabytes(100)));
+        ProcessRunner mirrorRunner = new ProcessRunner(mirrorCache, null, new MavenProperties(true, false, null, false, false, null));
+
+        // 1:
+        Build firstJob = Build.newBuild(first, origin.toString(), "owner", "origin");
+        assertTrue(mirrorRunner.cloneRepo(firstJob, line -> { }));
+        assertEquals("one", Files.readString(Path.of("workspace", firstJob.getBuildId().toString(), "file.txt")));
+        assertTrue(Files.isDirectory(mirrorCache.mirrorPath(origin.toString())));
+
+        // 2:
+        String second = commitFile(origin, "two");
+        List<String> secondLogs = new ArrayList<>();
+        Build secondJob = Build.newBuild(second, origin.toString(), "owner", "origin");
+        assertTrue(mirrorRunner.cloneRepo(secondJob, secondLogs::add));
+        assertEquals("two", Files.readString(Path.of("workspace", secondJob.getBuildId().toString(), "file.txt")));
+        assertTrue(secondLogs.stream().anyMatch(line -> line.contains("git fetch")));
+
+        // 3:
+        List<String> thirdLogs = new ArrayList<>();
+        Build thirdJob = Build.newBuild(first, origin.toString(), "owner", "origin");
+        assertTrue(mirrorRunner.cloneRepo(thirdJob, thirdLogs::add));
+        assertEquals("one", Files.readString(Path.of("workspace", thirdJob.getBuildId().toString(), "file.txt")));
+        assertTrue(thirdLogs.stream().noneMatch(line -> line.contains("git fetch")));
+
+        mirrorRunner.cleanup(firstJob);
+        mirrorRunner.cleanup(secondJob);
+        mirrorRunner.cleanup(thirdJob);
+    }
+
+    /**
+     * Verifies that builds reuse the workspaces of earlier builds of the same repository
+     * through the warm workspace pool, using a local repository as the remote:
+     * 1. The first build clones, and its workspace is kept in the pool on cleanup
+     * 2. The next build resets it to the new commit: changes to tracked files and untracked
+     *    files are gone, ignored build outputs are kept
+     * 3. A warm workspace that cannot be reset is discarded and the build clones instead
+     */
+    @Test
+    void cloneRepoShouldReuseWarmWorkspace(@TempDir Path tempDir) throws Exception {
+        Path origin = tempDir.resolve("origin");
+        Files.createDirectories(origin);
+        git(origin, "init", "-q");
+        Files.writeString(origin.resolve(".gitignore"), "target/\n");
+        git(origin, "add", ".gitignore");
+        String first = commitFile(origin, "one");
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        WorkspaceProperties properties = new WorkspaceProperties(1, true, 1);
+        WorkspaceReaper reaper = new WorkspaceReaper(Path.of("workspace"), properties, meterRegistry);
+        WarmWorkspacePool pool = new WarmWorkspacePool(Path.of("workspace"), properties, reaper, meterRegistry);
+        ProcessRunner pooledRunner = new ProcessRunner(null, null, new MavenProperties(true, false, null, false, false, null),
+                new StageProperties(null, null, null), reaper, pool);
+
+        // 1:
+        Build firstJob = Build.newBuild(first, origin.toString(), "owner", "origin");
+        assertTrue(pooledRunner.cloneRepo(firstJob, line -> { }));
+        Path firstWorkspace = Path.of("workspace", firstJob.getBuildId().toString());
+        Files.createDirectories(firstWorkspace.resolve("target"));
+        Files.writeString(firstWorkspace.resolve("target/App.class"), "compiled");
+        Files.writeString(firstWorkspace.resolve("untracked.txt"), "untracked");
+        Files.writeString(firstWorkspace.resolve("file.txt"), "dirty");
+        pooledRunner.cleanup(firstJob);
+        assertEquals(1, pool.idleCount(origin.toString()));
+
+        // 2:
+        String second = commitFile(origin, "two");
+        List<String> secondLogs = new ArrayList<>();
+        Build secondJob = Build.newBuild(second, origin.toString(), "owner", "origin");
+        assertTrue(pooledRunner.cloneRepo(secondJob, secondLogs::add));
+        Path secondWorkspace = Path.of("workspace", secondJob.getBuildId().toString());
+        assertTrue(secondLogs.contains("Reusing a warm workspace of the repository"));
+        assertEquals("two", Files.readString(secondWorkspace.resolve("file.txt")));
+        assertEquals("compiled", Files.readString(secondWorkspace.resolve("target/App.class")));
+        assertFalse(Files.exists(secondWorkspace.resolve("untracked.txt")));
+        pooledRunner.cleanup(secondJob);
+
+        // 3:
+        try (var warm = Files.list(Path.of("workspace", ".warm"))) {
+            for (Path repository : warm.toList()) {
+                try (var workspaces = Files.list(repository)) {
+                    for (Path workspace : workspaces.toList()) Files.delete(workspace.resolve(".git/HEAD"));
+                }
+            }
+        }
+        List<String> thirdLogs = new ArrayList<>();
+        Build thirdJob = Build.newBuild(first, origin.toString(), "owner", "origin");
+        assertTrue(pooledRunner.cloneRepo(thirdJob, thirdLogs::add));
+        assertTrue(thirdLogs.contains("Warm workspace does not match a fresh checkout, cloning instead"));
+        assertEquals("one", Files.readString(Path.of("workspace", thirdJob.getBuildId().toString(), "file.txt")));
+        assertEquals(1, meterRegistry.get("ci.workspace.pool").tag("result", "discarded").counter().count());
+
+        // Disabling the pool deletes the warm workspaces
+        pooledRunner.cleanup(thirdJob);
+        new WarmWorkspacePool(Path.of("workspace"), new WorkspaceProperties(1, false, 1), reaper, meterRegistry).start();
+        reaper.stop();
+        assertFalse(Files.exists(Path.of("workspace", ".warm")));
+    }
+
+    /**
+     * Verifies that a single Maven invocation reports a compilation failure as a failed build,
+     * without telling that the tests started
+     */
+    @Test
+    void buildAndTestShouldReportCompileFailureAsBuildFailure() throws Exception {
+        writeMavenWrapper(
+                "echo '[INFO] --- maven-compiler-plugin:3.13.0:compile (default-compile) @ app ---'\n"
+                + "echo '[ERROR] Failed to execute goal org.apache.maven.plugins:maven-compiler-plugin:3.13.0:compile'\n"
+                + "exit 1\n");
+
+        AtomicInteger testsStarted = new AtomicInteger();
+        assertEquals(new BuildTestResult(false, false),
+                runner.buildAndTest(testJob, line -> { }, testsStarted::incrementAndGet));
+        assertEquals(0, testsStarted.get());
+
+        runner.cleanup(testJob);
+    }
+
+    /**
+     * Verifies that a single Maven invocation reports a failing surefire goal as a
+     * successful build with failing tests, telling once that the tests started
+     */
+    @Test
+    void buildAndTestShouldReportTestFailureAsTestFailure() throws Exception {
+        writeMavenWrapper(
+                "echo '[INFO] --- maven-surefire-plugin:3.5.2:test (default-test) @ app ---'\n"
+                + "echo '[ERROR] Failed to execute goal org.apache.maven.plugins:maven-surefire-plugin:3.5.2:test'\n"
+                + "exit 1\n");
+
+        AtomicInteger testsStarted = new AtomicInteger();
+        assertEquals(new BuildTestResult(true, false),
+                runner.buildAndTest(testJob, line -> { }, testsStarted::incrementAndGet));
+        assertEquals(1, testsStarted.get());
+
+        runner.cleanup(testJob);
+    }
+
+    /**
+     * Verifies that a successful Maven run is reported as a successful build and test,
+     * and that only a single {@code ./mvnw test} process is started
+     */
+    @Test
+    void buildAndTestShouldRunMavenOnceOnSuccess() throws Exception {
+        writeMavenWrapper("echo \"invoked $1\"\nexit 0\n");
+        List<String> logs = new ArrayList<>();
+
+        assertEquals(new BuildTestResult(true, true), runner.buildAndTest(testJob, logs::add));
+        assertEquals(List.of("invoked test"), logs.stream().filter(line -> line.startsWith("invoked")).toList());
+
+        runner.cleanup(testJob);
+    }
+
+    /**
+     * Verifies that a single Maven invocation runs under the build timeout until the tests start,
+     * and under the test timeout from then on:
+     * 1. Tests outlasting the build timeout, but not the test timeout, pass
+     * 2. A compilation outlasting the build timeout is killed
+     */
+    @Test
+    void buildAndTestShouldSwitchToTestTimeoutWhenTestsStart() throws Exception {
+        ProcessRunner timeoutRunner = new ProcessRunner(null, null, new MavenProperties(true, false, null, false, false, null),
+                new StageProperties(null, Duration.ofMillis(500), Duration.ofSeconds(30)), null, null);
+        List<String> logs = new ArrayList<>();
+
+        // 1:
+        writeMavenWrapper(
+                "echo '[INFO] --- maven-surefire-plugin:3.5.2:test (default-test) @ app ---'\n"
+                + "sleep 1\n"
+                + "exit 0\n");
+        assertEquals(new BuildTestResult(true, true), timeoutRunner.buildAndTest(testJob, logs::add));
+        assertFalse(timeoutRunner.hasTimedOut(testJob.getBuildId()));
+
+        // 2:
+        writeMavenWrapper(
+                "sleep 30 &\n"
+                + "wait\n"
+                + "echo '[INFO] --- maven-surefire-plugin:3.5.2:test (default-test) @ app ---'\n");
+        long start = System.nanoTime();
+        assertEquals(new BuildTestResult(false, false), timeoutRunner.buildAndTest(testJob, logs::add));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+        assertTrue(logs.stream().anyMatch(line -> line.startsWith("Timed out after PT0.5S")));
+
+        timeoutRunner.cleanup(testJob);
+    }
+
+    /**
+     * Verifies that with single invocation disabled, compile and test run as separate processes,
+     * telling that the tests started in between
+     */
+    @Test
+    void buildAndTestShouldRunSeparateStagesWhenDisabled() throws Exception {
+        writeMavenWrapper("echo \"invoked $1\"\nexit 0\n");
+        List<String> logs = new ArrayList<>();
+        ProcessRunner separateRunner = new ProcessRunner(null, null, new MavenProperties(false, false, null, false, false, null));
+
+        assertEquals(new BuildTestResult(true, true),
+                separateRunner.buildAndTest(testJob, logs::add, () -> logs.add("invoked tests started")));
+        assertEquals(List.of("invoked compile", "invoked tests started", "invoked test"),
+                logs.stream().filter(line -> line.startsWith("invoked")).toList());
+
+        separateRunner.cleanup(testJob);
+    }
+
+    /**
+     * Verifies that builds run offline against a stand-in shared maven repository:
+     * 1. Maven is pointed at an overlay repository backed by the shared repository
+     * 2. A dependency downloaded into the overlay is moved into the shared repository on cleanup
+     */
+    @Test
+    void buildAndTestShouldResolveThroughSharedRepository(@TempDir Path tempDir) throws Exception {
+        MavenProperties properties = new MavenProperties(true, true, tempDir.toString(), true, false, null);
+        MavenRepositoryCache repositoryCache = new MavenRepositoryCache(properties, new SimpleMeterRegistry());
+        ProcessRunner cachedRunner = new ProcessRunner(null, repositoryCache, properties);
+        Path shared = repositoryCache.sharedRepository();
+
+        // A stand-in maven wrapper that fails unless the shared repository is used offline,
+        // and "downloads" an artifact into the overlay repository
+        writeMavenWrapper("""
+                for arg in "$@"; do
+                  case "$arg" in
+                    -Dmaven.repo.local=*) repo="${arg#*=}" ;;
+                    -Dmaven.repo.local.tail=*) tail="${arg#*=}" ;;
+                    --offline) offline=1 ;;
+                  esac
+                done
+                [ -n "$repo" ] && [ "$tail" = "%s" ] && [ -n "$offline" ] || exit 1
+                mkdir -p "$repo/org/example/lib/1.0"
+                echo jar > "$repo/org/example/lib/1.0/lib-1.0.jar"
+                """.formatted(shared));
+
+        // 1:
+        assertEquals(new BuildTestResult(true, true), cachedRunner.buildAndTest(testJob, line -> { }));
+
+        // 2:
+        cachedRunner.cleanup(testJob);
+        assertTrue(Files.exists(shared.resolve("org/example/lib/1.0/lib-1.0.jar")));
+        assertEquals(0.0, repositoryCache.hitRatio());
+    }
+
+    /**
+     * Helper writing a stand-in maven wrapper with the given script body to the workspace of the test job
+     */
+    private void writeMavenWrapper(String body) throws IOException {
+        File workspace = new File("workspace/" + testJob.getBuildId());
+        workspace.mkdirs();
+        File mvnw = new File(workspace, "mvnw");
+        Files.writeString(mvnw.toPath(), "#!/bin/sh\n" + body);
+        mvnw.setExecutable(true);
+    }
+
+    /**
+     * Helper committing a file with the given content to a repository
+     *
+     * @return the SHA of the new commit
+     */
+    private String commitFile(Path repo, String content) throws IOException, InterruptedException {
+        Files.writeString(repo.resolve("file.txt"), content);
+        git(repo, "add", "file.txt");
+        git(repo, "-c", "user.name=ci", "-c", "user.email=ci@example.com", "commit", "-q", "-m", content);
+        return git(repo, "rev-parse", "HEAD");
+    }
+
+    /**
+     * Helper running a git command in a directory and returning its output
+     */
+    private String git(Path dir, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of("git"));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes()).trim();
+        assertEquals(0, process.waitFor(), output);
+        return output;
+    }
+
+}
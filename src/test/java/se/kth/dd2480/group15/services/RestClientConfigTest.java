@@ -0,0 +1,112 @@
+package se.kth.dd2480.group15.services;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.metrics.web.client.ObservationRestTemplateCustomizer;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.client.observation.DefaultClientRequestObservationConvention;
+import se.kth.dd2480.group15.domain.StatusNotification;
+import se.kth.dd2480.group15.infrastructure.config.NotifierProperties;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link RestClientConfig}
+ * Verifies the GitHub statuses are sent over a reused connection, with timeouts and
+ * latency metrics, against a local HTTP server standing in for the GitHub API
+ */
+class RestClientConfigTest {
+
+    private HttpServer github;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private volatile long responseDelayMs;
+
+    private SimpleMeterRegistry meterRegistry;
+    private NotifierService notifierService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // Ensure dotenv can find a token during tests, otherwise create a mock one
+        if (!Files.exists(Path.of(".env"))) {
+            try (FileWriter fw = new FileWriter(".env")) {
+                fw.write("GITHUB_TOKEN=dummy_token\n");
+            }
+        }
+
+        github = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        github.createContext("/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            exchange.getRequestBody().readAllBytes();
+            try {
+                Thread.sleep(responseDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(201, -1);
+            exchange.close();
+        });
+        github.start();
+
+        meterRegistry = new SimpleMeterRegistry();
+        ObservationRegistry observationRegistry = ObservationRegistry.create();
+        observationRegistry.observationConfig().observationHandler(new DefaultMeterObservationHandler(meterRegistry));
+        RestTemplateBuilder builder = new RestTemplateBuilder(
+                new ObservationRestTemplateCustomizer(observationRegistry, new DefaultClientRequestObservationConvention()));
+
+        NotifierProperties properties = new NotifierProperties(
+                "http://127.0.0.1:" + github.getAddress().getPort(), 1, null, null,
+                Duration.ofSeconds(1), Duration.ofSeconds(1), null);
+        notifierService = new NotifierService(new RestClientConfig().restTemplate(builder, properties), properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        github.stop(0);
+    }
+
+    /**
+     * Verifies that consecutive statuses are sent over one kept-alive connection, and
+     * that their latency is recorded per request template rather than per commit
+     */
+    @Test
+    void statusesShouldReuseConnectionAndRecordLatency() {
+        for (int i = 0; i < 5; i++) {
+            StatusNotification notification = new StatusNotification("owner", "repo", "sha" + i, "success", "Build passed");
+            assertEquals(NotifierService.Delivery.DELIVERED, notifierService.send(notification));
+        }
+
+        assertEquals(1, clientPorts.size());
+        Timer timer = meterRegistry.get("http.client.requests")
+                .tag("uri", "/repos/{owner}/{repo}/statuses/{sha}")
+                .timer();
+        assertEquals(5, timer.count());
+    }
+
+    /**
+     * Verifies that a GitHub API that does not answer in time counts as a failure worth retrying
+     */
+    @Test
+    void slowResponseShouldTimeOut() {
+        responseDelayMs = 3000;
+        StatusNotification notification = new StatusNotification("owner", "repo", "sha", "success", "Build passed");
+
+        long start = System.nanoTime();
+        assertEquals(NotifierService.Delivery.RETRY, notifierService.send(notification));
+        assertTrue(System.nanoTime() - start < 2_500_000_000L, "The request did not time out");
+    }
+}
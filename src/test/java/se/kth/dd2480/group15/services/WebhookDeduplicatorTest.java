@@ -0,0 +1,84 @@
+package se.kth.dd2480.group15.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
+import se.kth.dd2480.group15.infrastructure.config.WebhookProperties;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link WebhookDeduplicator}
+ * Verifies redeliveries are recognized within the time to live and the capacity
+ */
+class WebhookDeduplicatorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private WebhookDeduplicator deduplicator(int capacity, Duration ttl) {
+        return new WebhookDeduplicator(new WebhookProperties(capacity, ttl), meterRegistry);
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("ci.webhook.dedup").tag("result", result).counter().count();
+    }
+
+    /**
+     * Verifies that a redelivery is recognized and returns the build of the first delivery,
+     * and that the hits and misses are counted
+     */
+    @Test
+    void claimShouldRecognizeRedelivery() {
+        WebhookDeduplicator deduplicator = deduplicator(10, Duration.ofHours(1));
+        UUID first = UUID.randomUUID();
+
+        assertEquals(Optional.empty(), deduplicator.claim("delivery:1", first));
+        assertEquals(Optional.of(first), deduplicator.claim("delivery:1", UUID.randomUUID()));
+        assertEquals(Optional.empty(), deduplicator.claim("delivery:2", UUID.randomUUID()));
+
+        assertEquals(1, count("hit"));
+        assertEquals(2, count("miss"));
+    }
+
+    /**
+     * Verifies that deliveries are forgotten once they expire, once they are released, and
+     * oldest first once the capacity is reached
+     */
+    @Test
+    void claimShouldForgetExpiredReleasedAndOldestDeliveries() throws InterruptedException {
+        WebhookDeduplicator expiring = deduplicator(10, Duration.ofMillis(50));
+        expiring.claim("delivery:1", UUID.randomUUID());
+        Thread.sleep(100);
+        assertEquals(Optional.empty(), expiring.claim("delivery:1", UUID.randomUUID()));
+
+        UUID released = UUID.randomUUID();
+        expiring.claim("delivery:2", released);
+        expiring.release("delivery:2", released);
+        assertEquals(Optional.empty(), expiring.claim("delivery:2", UUID.randomUUID()));
+
+        WebhookDeduplicator bounded = deduplicator(2, Duration.ofHours(1));
+        bounded.claim("delivery:1", UUID.randomUUID());
+        bounded.claim("delivery:2", UUID.randomUUID());
+        bounded.claim("delivery:3", UUID.randomUUID());
+        assertEquals(2, bounded.size());
+        assertEquals(Optional.empty(), bounded.claim("delivery:1", UUID.randomUUID()));
+    }
+
+    /**
+     * Verifies that deliveries are identified by their delivery id, or by the repository and
+     * commit without one
+     */
+    @Test
+    void keyShouldFallBackToRepositoryAndCommit() {
+        PushRequestDTO push = new PushRequestDTO("sha1", "refs/heads/main", new PushRequestDTO.Repository(
+                "repo", "url", new PushRequestDTO.Owner("owner")));
+
+        assertEquals("delivery:abc", WebhookDeduplicator.key("abc", push));
+        assertEquals("commit:owner/repo@sha1", WebhookDeduplicator.key(null, push));
+        assertEquals("commit:owner/repo@sha1", WebhookDeduplicator.key(" ", push));
+    }
+}
@@ -0,0 +1,100 @@
+package se.kth.dd2480.group15.services;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.infrastructure.config.QueueProperties;
+import se.kth.dd2480.group15.infrastructure.config.StorageProperties;
+import se.kth.dd2480.group15.infrastructure.config.WorkerProperties;
+import se.kth.dd2480.group15.infrastructure.persistence.BuildQueueJournal;
+import se.kth.dd2480.group15.infrastructure.persistence.FileBuildRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Compares the webhooks per second the CI server accepts when every webhook saves and
+ * journals its build on the request thread ({@code CIService.queueJob}), with handing the
+ * build to the {@link WebhookIngest} buffer.
+ * <p>
+ * {@code ingestSustained} waits whenever the buffer is full, so it measures the rate
+ * webhooks can be accepted at for as long as a burst lasts, not just until the buffer fills;
+ * the iterations are long so the buffer filling up at the start does not dominate.
+ * Builds are saved to a real file repository and journal; the workers are not started.
+ * <p>
+ * Run with {@code mvn test -Pbench -Dbench=WebhookIngestBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WebhookIngestBenchmark {
+
+    private static final PushRequestDTO PUSH = new PushRequestDTO(
+            "8ddd5caef7130e90a15e2b8e0707d5596654b4b9", null,
+            new PushRequestDTO.Repository("repo", "https://github.com/owner/repo.git", new PushRequestDTO.Owner("owner")));
+
+    private Path buildsRoot;
+    private FileBuildRepository repository;
+    private BuildQueueJournal journal;
+    private CIService ciService;
+    private WebhookIngest ingest;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        buildsRoot = Files.createTempDirectory("webhook-ingest-benchmark");
+        StorageProperties storage = new StorageProperties(buildsRoot.toString(), null, null, true);
+        QueueProperties queue = new QueueProperties(Duration.ofMillis(10), 10000);
+        repository = new FileBuildRepository(storage);
+        journal = new BuildQueueJournal(storage, queue);
+        ciService = new CIService(
+                Mockito.mock(ProcessRunner.class, withSettings().stubOnly()),
+                Mockito.mock(NotificationOutbox.class, withSettings().stubOnly()),
+                repository,
+                journal,
+                Mockito.mock(BuildLogBroadcaster.class, withSettings().stubOnly()),
+                new WorkerProperties(1, Duration.ofSeconds(1), WorkerProperties.CoalesceMode.OFF));
+        ingest = new WebhookIngest(ciService, queue);
+        ingest.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        ingest.stop();
+        journal.close();
+        repository.close();
+        try (Stream<Path> files = Files.walk(buildsRoot)) {
+            files.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /**
+     * One webhook saved and journaled on the request thread.
+     */
+    @Benchmark
+    public void queueJob() {
+        ciService.queueJob(PUSH);
+    }
+
+    /**
+     * One webhook handed to the ingest buffer, waiting for room while it is full.
+     */
+    @Benchmark
+    @Threads(4)
+    public Object ingestSustained() {
+        while (true) {
+            Build build = CIService.newBuild(PUSH);
+            if (ingest.submit(build)) return build;
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package se.kth.dd2480.group15.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import se.kth.dd2480.group15.api.dto.request.PushRequestDTO;
+import se.kth.dd2480.group15.domain.Build;
+import se.kth.dd2480.group15.infrastructure.config.QueueProperties;
+import se.kth.dd2480.group15.infrastructure.config.WebhookProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link WebhookIngest}
+ * Verifies submitted builds are queued in the background, in order, within the capacity
+ */
+class WebhookIngestTest {
+
+    @Mock
+    private CIService ciService;
+
+    private WebhookIngest ingest;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ingest = new WebhookIngest(ciService, new QueueProperties(Duration.ofMillis(10), 2));
+    }
+
+    @AfterEach
+    void tearDown() {
+        ingest.stop();
+    }
+
+    private static PushRequestDTO push(String commit) {
+        return new PushRequestDTO(commit, "refs/heads/main", new PushRequestDTO.Repository(
+                "repo", "url", new PushRequestDTO.Owner("owner")));
+    }
+
+    /**
+     * Verifies that submitted builds are queued by the ingest thread in the order they were submitted
+     */
+    @Test
+    void submitShouldQueueBuildsInOrder() throws InterruptedException {
+        CountDownLatch queued = new CountDownLatch(2);
+        doAnswer(invocation -> {
+            queued.countDown();
+            return null;
+        }).when(ciService).queueBuild(any());
+        ingest.start();
+
+        Build first = CIService.newBuild(push("commit1"));
+        Build second = CIService.newBuild(push("commit2"));
+        assertTrue(ingest.submit(first));
+        assertTrue(ingest.submit(second));
+
+        assertTrue(queued.await(10, TimeUnit.SECONDS));
+        ArgumentCaptor<Build> builds = ArgumentCaptor.forClass(Build.class);
+        verify(ciService, times(2)).queueBuild(builds.capture());
+        assertEquals(List.of(first, second), builds.getAllValues());
+        assertEquals("commit1", first.getCommitSha());
+        assertEquals(Build.Status.QUEUED, first.getStatus());
+    }
+
+    /**
+     * Verifies that a build that fails to be queued has its delivery forgotten, so the
+     * redelivery of the webhook is accepted again instead of pointing at a build never saved
+     */
+    @Test
+    void submitShouldReleaseDeliveryWhenQueueingFails() throws InterruptedException {
+        WebhookDeduplicator deduplicator = new WebhookDeduplicator(
+                new WebhookProperties(100, Duration.ofMinutes(10)), new SimpleMeterRegistry());
+        CountDownLatch failed = new CountDownLatch(1);
+        doThrow(new RuntimeException("disk full")).when(ciService).queueBuild(any());
+        ingest.start();
+
+        Build build = CIService.newBuild(push("commit1"));
+        assertTrue(deduplicator.claim("delivery:1", build.getBuildId()).isEmpty());
+        assertTrue(ingest.submit(build, () -> {
+            deduplicator.release("delivery:1", build.getBuildId());
+            failed.countDown();
+        }));
+
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+        Build redelivered = CIService.newBuild(push("commit1"));
+        assertEquals(Optional.empty(), deduplicator.claim("delivery:1", redelivered.getBuildId()));
+    }
+
+    /**
+     * Verifies that builds beyond the capacity are refused while the buffer is full, and that
+     * the buffered builds are queued when the ingest stops
+     *
+     * Test setup: the ingest thread is not started, so the buffer is only drained on stop
+     */
+    @Test
+    void submitShouldRefuseBuildsBeyondCapacity() {
+        List<Boolean> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(ingest.submit(CIService.newBuild(push("commit" + i))));
+        }
+
+        assertEquals(List.of(true, true, false), results);
+        assertEquals(2, ingest.backlog());
+
+        ingest.start();
+        ingest.stop();
+
+        verify(ciService, times(2)).queueBuild(any());
+        assertEquals(0, ingest.backlog());
+    }
+}
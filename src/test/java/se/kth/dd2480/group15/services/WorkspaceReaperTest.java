@@ -0,0 +1,89 @@
+package se.kth.dd2480.group15.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.kth.dd2480.group15.infrastructure.config.WorkspaceProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link WorkspaceReaper}
+ * Verifies workspaces are moved out of the way right away and deleted in the background
+ */
+class WorkspaceReaperTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * Verifies that reaping a workspace frees its path immediately, and that the workspace
+     * is deleted from the trash in the background and counted
+     */
+    @Test
+    void reapShouldFreePathAndDeleteInBackground(@TempDir Path root) throws Exception {
+        WorkspaceReaper reaper = new WorkspaceReaper(root, new WorkspaceProperties(2, false, null), meterRegistry);
+        reaper.start();
+        Path workspace = createWorkspace(root.resolve("build1"), 200);
+
+        var deleted = reaper.reap(workspace);
+        assertFalse(Files.exists(workspace));
+
+        deleted.get(10, TimeUnit.SECONDS);
+        assertEquals(0, countEntries(root.resolve(".trash")));
+        assertEquals(0, reaper.backlog());
+        assertEquals(1, meterRegistry.get("ci.workspace.reaped").tag("result", "deleted").counter().count());
+
+        // Reaping a workspace that does not exist does nothing
+        assertTrue(reaper.reap(root.resolve("missing")).isDone());
+        reaper.stop();
+    }
+
+    /**
+     * Verifies that the workspaces orphaned by a previous run, and the workspaces it left in
+     * the trash, are deleted on start
+     */
+    @Test
+    void startShouldDeleteOrphanedWorkspaces(@TempDir Path root) throws Exception {
+        createWorkspace(root.resolve("orphan1"), 10);
+        createWorkspace(root.resolve("orphan2"), 10);
+        createWorkspace(root.resolve(".trash").resolve("leftover-1"), 10);
+
+        WorkspaceReaper reaper = new WorkspaceReaper(root, new WorkspaceProperties(2, false, null), meterRegistry);
+        reaper.start();
+
+        assertFalse(Files.exists(root.resolve("orphan1")));
+        assertFalse(Files.exists(root.resolve("orphan2")));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (countEntries(root.resolve(".trash")) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, countEntries(root.resolve(".trash")));
+        reaper.stop();
+    }
+
+    /**
+     * Helper creating a workspace with nested directories holding the given number of files
+     */
+    private Path createWorkspace(Path workspace, int files) throws IOException {
+        for (int i = 0; i < files; i++) {
+            Path dir = workspace.resolve("target/classes/pkg" + (i % 10));
+            Files.createDirectories(dir);
+            Files.writeString(dir.resolve("File" + i + ".class"), "class");
+        }
+        Files.writeString(workspace.resolve("pom.xml"), "<project/>");
+        return workspace;
+    }
+
+    private long countEntries(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return 0;
+        try (Stream<Path> entries = Files.list(dir)) {
+            return entries.count();
+        }
+    }
+}